@@ -0,0 +1,173 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Process-wide {@link BrightnessArbiter}, persisted in the prefs.
+ * <p/>
+ * Dock events add or release a claim, the schedule and the auto mode set the
+ * base and manual changes (widget, UI, shortcuts, remote commands) override
+ * whatever is in effect. Claim expiries are handled with a Handler: if the
+ * process dies first, they are applied on the next change.
+ */
+public class Arbitration {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = Arbitration.class.getSimpleName();
+
+    private static final Object sLock = new Object();
+    private static volatile BrightnessArbiter sArbiter;
+    private static Context sAppContext;
+    private static Handler sHandler;
+
+    private static final Runnable sExpire = new Runnable() {
+        public void run() {
+            BrightnessArbiter a = sArbiter;
+            int effective = a.expire(System.currentTimeMillis());
+            commit(sAppContext);
+            apply(sAppContext, effective, BrightnessJournal.SOURCE_HOLD);
+        }
+    };
+
+    /** Returns the arbiter, loading it from the prefs the first time. */
+    public static BrightnessArbiter get(Context context) {
+        BrightnessArbiter a = sArbiter;
+        if (a != null) return a;
+
+        synchronized (sLock) {
+            if (sArbiter == null) {
+                sAppContext = context.getApplicationContext();
+                sHandler = new Handler(Looper.getMainLooper());
+                sArbiter = load(sAppContext);
+            }
+            return sArbiter;
+        }
+    }
+
+    private static BrightnessArbiter load(Context context) {
+        BrightnessArbiter a = new BrightnessArbiter();
+        PrefsValues pv = new PrefsValues(context);
+        if (a.decode(pv.getClaims())) return a;
+
+        // First run with arbitration: a saved brightness means we're docked.
+        int saved = pv.getSavedBrightness();
+        BrightnessState state = BrightnessState.getInstance(context);
+        int level = state.getLevel();
+        int current = level == BrightnessState.UNKNOWN ? saved :
+            pv.getBrightnessCurve().levelToPercent(level);
+        long now = System.currentTimeMillis();
+
+        if (saved != -1) {
+            a.setBase(saved, now);
+            a.claim(BrightnessArbiter.OWNER_DOCK, BrightnessArbiter.PRIORITY_DOCK, current, 0, now);
+            pv.setSavedBrightness(-1);
+        } else {
+            a.setBase(current, now);
+        }
+        pv.setClaims(a.encode());
+        return a;
+    }
+
+    /**
+     * Returns true for the sources that are manual changes, i.e. all but the
+     * ones the arbiter already knows about.
+     */
+    public static boolean isManual(int source) {
+        switch (source) {
+        case BrightnessJournal.SOURCE_DOCK:
+        case BrightnessJournal.SOURCE_SCHEDULE:
+        case BrightnessJournal.SOURCE_AUTO:
+        case BrightnessJournal.SOURCE_HOLD:
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a change from a manual source, c.f. {@link BrightnessArbiter#override}.
+     *
+     * @param holdMs If > 0, the change is a claim that expires after that
+     *   many milliseconds instead of an override.
+     */
+    public static void noteChange(Context context, int source, int percent, int holdMs) {
+        if (!isManual(source)) return;
+        BrightnessArbiter a = get(context);
+        long now = System.currentTimeMillis();
+        if (holdMs > 0) {
+            a.claim(BrightnessArbiter.OWNER_HOLD, BrightnessArbiter.PRIORITY_HOLD,
+                    percent, now + holdMs, now);
+        } else {
+            a.override(percent, now);
+        }
+        commit(context);
+    }
+
+    /** Persists the arbiter and schedules the next claim expiry. Call after each change. */
+    public static void commit(Context context) {
+        BrightnessArbiter a = get(context);
+        new PrefsValues(context).setClaims(a.encode());
+
+        final long next = a.getNextExpiry();
+        sHandler.post(new Runnable() {
+            public void run() {
+                sHandler.removeCallbacks(sExpire);
+                if (next > 0) {
+                    long delay = Math.max(0, next - System.currentTimeMillis());
+                    sHandler.postAtTime(sExpire, SystemClock.uptimeMillis() + delay);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the effective brightness if it differs from the current one.
+     *
+     * @param percent The effective brightness, NONE does nothing.
+     * @param source The reason, one of the BrightnessJournal.SOURCE_ values.
+     */
+    public static void apply(Context context, int percent, int source) {
+        if (percent == BrightnessArbiter.NONE) return;
+
+        BrightnessChanger bc = new BrightnessChanger(context);
+        // Several percents can give the same level, c.f. BrightnessCurve.
+        BrightnessCurve curve = bc.getCurve();
+        if (curve.percentToLevel(Math.round(100 * bc.getCurrentBrightness())) ==
+                curve.percentToLevel(percent)) return;
+        if (DEBUG) Log.d(TAG, "Apply " + Integer.toString(percent) + "% for source " +
+                BrightnessJournal.getSourceName(source));
+
+        float f = percent / 100.0f;
+        if (BrightnessChanger.canApplyHeadless() && bc.getRampDuration(new Intent()) <= 0) {
+            bc.setCurrentBrightness(f, null /*window*/, source);
+        } else {
+            // A ramp or an older platform needs a window.
+            Intent i = new Intent();
+            i.putExtra(ChangeBrightnessActivity.INTENT_SET_BRIGHTNESS, f);
+            i.putExtra(ChangeBrightnessActivity.INTENT_SOURCE, source);
+            BrightnessChanger.requestChange(context, i);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * Turns a stream of ambient light samples into brightness decisions.
+ * <p/>
+ * The lux stream is smoothed by a first-order low-pass filter in the log
+ * domain, which keeps moving toward the last sample between samples since
+ * light sensors only report changes. The filtered value is then mapped onto the [min..max] brightness percent range with a
+ * tunable curve exponent. A new value is only emitted when it differs from
+ * the last applied one by more than the hysteresis and enough time has
+ * passed since the last change.
+ * <p/>
+ * This class doesn't depend on Android and doesn't allocate once created.
+ * It is not thread-safe: feed it from a single thread.
+ */
+public class AutoBrightnessPolicy {
+
+    private int mMinPercent = 10;
+    private int mMaxPercent = 75;
+    /** Exponent applied to the normalized log-lux. 1 is linear in log-lux. */
+    private float mCurve = 1.0f;
+    private double mLogLuxLow  = Math.log10(1 + 10);
+    private double mLogLuxHigh = Math.log10(1 + 10000);
+    private long mTimeConstantMs = 2000;
+    private int mHysteresis = 5;
+    private long mMinIntervalMs = 1000;
+
+    private boolean mHasSample;
+    /** Last sample, as log10(1 + lux). */
+    private double mLastSample;
+    /** Filtered value, as log10(1 + lux). */
+    private double mFiltered;
+    /** Time up to which the filter has run. */
+    private long mFilteredMs;
+    private int mApplied = -1;
+    private long mAppliedMs;
+
+    public AutoBrightnessPolicy() {
+    }
+
+    /** Sets the brightness range, in percent, typically the min/max prefs. */
+    public void setRange(int minPercent, int maxPercent) {
+        if (minPercent > maxPercent) {
+            int t = minPercent;
+            minPercent = maxPercent;
+            maxPercent = t;
+        }
+        mMinPercent = minPercent;
+        mMaxPercent = maxPercent;
+    }
+
+    /**
+     * Sets the curve exponent. Values below 1 raise the brightness in dim
+     * rooms, values above 1 keep it low until the room gets bright.
+     */
+    public void setCurve(float exponent) {
+        mCurve = exponent > 0 ? exponent : 1.0f;
+    }
+
+    /** Sets the lux values mapped to the min and max brightness. */
+    public void setLuxRange(float luxLow, float luxHigh) {
+        mLogLuxLow  = Math.log10(1 + Math.max(0, luxLow));
+        mLogLuxHigh = Math.log10(1 + Math.max(luxLow + 1, luxHigh));
+    }
+
+    /** Sets the low-pass filter time constant. */
+    public void setTimeConstant(long ms) {
+        mTimeConstantMs = Math.max(0, ms);
+    }
+
+    /** Sets the minimum brightness change, in percent points, worth applying. */
+    public void setHysteresis(int percent) {
+        mHysteresis = Math.max(0, percent);
+    }
+
+    /** Sets the minimum delay between two applied changes. */
+    public void setMinInterval(long ms) {
+        mMinIntervalMs = Math.max(0, ms);
+    }
+
+    /** Forgets the filter state and the last applied value. */
+    public void reset() {
+        mHasSample = false;
+        mApplied = -1;
+    }
+
+    /**
+     * Tells the policy that the given brightness is currently applied,
+     * e.g. when the engine starts or after an external change.
+     */
+    public void setApplied(int percent, long timeMs) {
+        mApplied = percent;
+        mAppliedMs = timeMs;
+    }
+
+    /**
+     * Feeds a new light sensor sample.
+     *
+     * @param timeMs Monotonic time of the sample.
+     * @param lux The raw sensor value.
+     * @return The new brightness to apply in percent, or -1 if nothing should change.
+     */
+    public int onSample(long timeMs, float lux) {
+        double v = Math.log10(1 + Math.max(0, lux));
+        mLastSample = v;
+        if (!mHasSample) {
+            mFiltered = v;
+            mFilteredMs = timeMs;
+            mHasSample = true;
+        } else {
+            advance(timeMs);
+        }
+
+        return evaluate(timeMs);
+    }
+
+    /** Runs the filter toward the last sample up to the given time. */
+    private void advance(long timeMs) {
+        long dt = timeMs - mFilteredMs;
+        if (dt > 0) {
+            double alpha = (double) dt / (mTimeConstantMs + dt);
+            mFiltered += alpha * (mLastSample - mFiltered);
+            mFilteredMs = timeMs;
+        }
+    }
+
+    /**
+     * Moves the filter toward the last sample and re-evaluates it. Light sensors
+     * only report changes so this is needed to follow the filter after the last
+     * sample and to apply a change that was held back by the rate limit; see
+     * {@link #getNextEvaluationTime()}.
+     *
+     * @return The new brightness to apply in percent, or -1 if nothing should change.
+     */
+    public int evaluate(long timeMs) {
+        if (!mHasSample) return -1;
+        advance(timeMs);
+
+        int target = mapLogLux(mFiltered);
+        if (mApplied >= 0) {
+            if (!isWorthApplying(target) || timeMs - mAppliedMs < mMinIntervalMs) {
+                return -1;
+            }
+        }
+
+        mApplied = target;
+        mAppliedMs = timeMs;
+        return target;
+    }
+
+    /**
+     * Returns the time at which {@link #evaluate(long)} should be called because
+     * a change is being held back by the rate limit or the filter is still
+     * moving toward a value worth applying, or -1 if none is pending.
+     */
+    public long getNextEvaluationTime() {
+        if (!mHasSample || mApplied < 0) return -1;
+        // Where the filter ends up if no other sample comes.
+        if (!isWorthApplying(mapLogLux(mLastSample))) return -1;
+
+        long next = mAppliedMs + mMinIntervalMs;
+        if (!isWorthApplying(mapLogLux(mFiltered))) {
+            // Still converging, check again once the filter has moved on.
+            next = Math.max(next, mFilteredMs + Math.max(mMinIntervalMs, Math.max(1, mTimeConstantMs / 4)));
+        }
+        return next;
+    }
+
+    /** True if the target differs enough from the applied brightness. */
+    private boolean isWorthApplying(int target) {
+        int delta = target - mApplied;
+        if (delta < 0) delta = -delta;
+        if (delta == 0) return false;
+        return delta >= mHysteresis || target == mMinPercent || target == mMaxPercent;
+    }
+
+    /** Returns the filtered lux value. */
+    public float getFilteredLux() {
+        return mHasSample ? (float) (Math.pow(10, mFiltered) - 1) : -1;
+    }
+
+    /** Maps a lux value to a brightness percent, without filtering or hysteresis. */
+    public int map(float lux) {
+        return mapLogLux(Math.log10(1 + Math.max(0, lux)));
+    }
+
+    private int mapLogLux(double logLux) {
+        double t = (logLux - mLogLuxLow) / (mLogLuxHigh - mLogLuxLow);
+        if (t < 0) t = 0;
+        if (t > 1) t = 1;
+        if (mCurve != 1.0f) t = Math.pow(t, mCurve);
+        return (int) Math.round(mMinPercent + (mMaxPercent - mMinPercent) * t);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Runs the {@link AutoBrightnessPolicy} on the light sensor.
+ * <p/>
+ * Sensor events are delivered on a background thread. Listening stops while
+ * the screen is off so the engine doesn't wake the device up. Where the
+ * platform supports it, sensor events are batched.
+ */
+public class AutoBrightnessService extends Service
+        implements SensorEventListener, BrightnessCache.Listener {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = AutoBrightnessService.class.getSimpleName();
+
+    /** Sensor sampling period. */
+    private static final int SAMPLING_US = 250 * 1000;
+    /** Max batching latency, when the platform supports batching. */
+    private static final int BATCH_LATENCY_US = 1000 * 1000;
+
+    /** SensorManager.registerListener with a max report latency (API 19), if present. */
+    private static Method sRegisterBatched;
+    private static boolean sRegisterBatchedResolved;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private SensorManager mSensorManager;
+    private Sensor mLightSensor;
+    private boolean mListening;
+    private AutoBrightnessPolicy mPolicy;
+    private BrightnessChanger mChanger;
+    private PrefsValues mPrefs;
+    private BrightnessState mState;
+
+    private final Runnable mEvaluate = new Runnable() {
+        public void run() {
+            apply(mPolicy.evaluate(SystemClock.uptimeMillis()));
+        }
+    };
+
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                startListening();
+            } else if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                stopListening();
+            }
+        }
+    };
+
+    /** Starts the service if auto brightness is enabled, or stops it. */
+    public static void update(Context context) {
+        Intent i = new Intent(context, AutoBrightnessService.class);
+        if (new PrefsValues(context).getUseAutoBrightness() &&
+                BrightnessChanger.canApplyHeadless()) {
+            context.startService(i);
+        } else {
+            context.stopService(i);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mPrefs = new PrefsValues(this);
+        mChanger = new BrightnessChanger(this);
+        mPolicy = new AutoBrightnessPolicy();
+        mState = BrightnessState.getInstance(this);
+        mState.addListener(this);
+
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(mScreenReceiver, filter, null, mHandler);
+
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (pm.isScreenOn()) {
+            mHandler.post(new Runnable() {
+                public void run() {
+                    startListening();
+                }
+            });
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (mLightSensor == null) {
+            Log.w(TAG, "No light sensor");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mState.removeListener(this);
+        unregisterReceiver(mScreenReceiver);
+        mHandler.post(new Runnable() {
+            public void run() {
+                stopListening();
+                mThread.quit();
+            }
+        });
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.print("Listening: ");
+        pw.println(mListening);
+        pw.print("Filtered lux: ");
+        pw.println(mPolicy.getFilteredLux());
+        LatencyStats.dump(pw);
+    }
+
+    /** Runs on the main thread. */
+    public void onBrightnessChanged(final int level, int mode) {
+        if (level == BrightnessState.UNKNOWN) return;
+        // Someone else may have changed it: start from there rather than
+        // from what we last applied.
+        mHandler.post(new Runnable() {
+            public void run() {
+                mPolicy.setApplied(mChanger.getCurve().levelToPercent(level),
+                        SystemClock.uptimeMillis());
+            }
+        });
+    }
+
+    // --- runs on mThread ---
+
+    private void startListening() {
+        if (mListening || mLightSensor == null) return;
+
+        PrefsValues.Snapshot s = mPrefs.getSnapshot();
+        mPolicy.reset();
+        mPolicy.setRange(s.minBrightness, s.maxBrightness);
+        mPolicy.setCurve(s.autoCurve / 100.0f);
+        mPolicy.setApplied(Math.round(100 * mChanger.getCurrentBrightness()),
+                SystemClock.uptimeMillis());
+
+        mListening = registerBatched() ||
+            mSensorManager.registerListener(this,
+                    mLightSensor,
+                    SensorManager.SENSOR_DELAY_NORMAL,
+                    mHandler);
+        if (DEBUG) Log.d(TAG, "Listening: " + Boolean.toString(mListening));
+    }
+
+    private void stopListening() {
+        if (!mListening) return;
+        mSensorManager.unregisterListener(this);
+        mHandler.removeCallbacks(mEvaluate);
+        mListening = false;
+    }
+
+    private boolean registerBatched() {
+        synchronized (AutoBrightnessService.class) {
+            if (!sRegisterBatchedResolved) {
+                sRegisterBatchedResolved = true;
+                try {
+                    sRegisterBatched = SensorManager.class.getMethod("registerListener",
+                            new Class[] {
+                                SensorEventListener.class,
+                                Sensor.class,
+                                int.class,
+                                int.class,
+                                Handler.class });
+                } catch (Exception e) {
+                    // Not available before API 19.
+                }
+            }
+        }
+
+        if (sRegisterBatched != null) {
+            try {
+                Object r = sRegisterBatched.invoke(mSensorManager,
+                        new Object[] { this, mLightSensor, SAMPLING_US, BATCH_LATENCY_US, mHandler });
+                return Boolean.TRUE.equals(r);
+            } catch (Exception e) {
+                Log.w(TAG, "Batched registerListener failed", e);
+            }
+        }
+        return false;
+    }
+
+    public void onSensorChanged(SensorEvent event) {
+        PrefsValues.Snapshot s = mPrefs.getSnapshot();
+        mPolicy.setRange(s.minBrightness, s.maxBrightness);
+        mPolicy.setCurve(s.autoCurve / 100.0f);
+
+        apply(mPolicy.onSample(SystemClock.uptimeMillis(), event.values[0]));
+    }
+
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // pass
+    }
+
+    private void apply(int percent) {
+        if (mState.isSystemAuto()) {
+            // Don't fight the system automatic brightness.
+            percent = -1;
+        }
+        if (percent >= 0) {
+            BrightnessArbiter a = Arbitration.get(this);
+            a.setBase(percent, System.currentTimeMillis());
+            Arbitration.commit(this);
+            if (a.getClaimCount() == 0) {
+                // Otherwise a dock or hold claim wins, the value is used once it's gone.
+                mChanger.setCurrentBrightness(percent / 100.0f, null /*window*/,
+                        BrightnessJournal.SOURCE_AUTO);
+            }
+        }
+
+        // If a change is held back by the rate limit, check again later.
+        mHandler.removeCallbacks(mEvaluate);
+        long next = mPolicy.getNextEvaluationTime();
+        if (next >= 0) {
+            mHandler.postAtTime(mEvaluate, next);
+        }
+    }
+}
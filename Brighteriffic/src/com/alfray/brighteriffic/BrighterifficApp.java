@@ -28,6 +28,9 @@ public class BrighterifficApp extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        // Load the settings off the main thread before any receiver needs them.
+        PrefsValues.preload(this);
+        ChangeJournal.preload(this);
     }
 
     public boolean isFirstStart() {
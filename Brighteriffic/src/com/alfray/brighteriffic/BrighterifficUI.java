@@ -18,26 +18,36 @@
 
 package com.alfray.brighteriffic;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.Application;
 import android.content.Intent;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.view.ViewGroup;
+import android.view.ViewStub;
 import android.view.ViewTreeObserver;
+import android.view.WindowManager;
 import android.view.View.OnClickListener;
 import android.view.ViewTreeObserver.OnPreDrawListener;
+import android.view.ViewTreeObserver.OnScrollChangedListener;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
+import android.widget.ScrollView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.CompoundButton.OnCheckedChangeListener;
@@ -45,26 +55,91 @@ import android.widget.SeekBar.OnSeekBarChangeListener;
 
 public class BrighterifficUI extends Activity {
 
-    @SuppressWarnings("unused")
+    private static final boolean DEBUG = false;
     private static final String TAG = BrighterifficUI.class.getSimpleName();
 
-
-    private interface IMinMaxActions {
-        /** Returns the current pref. */
-        public int getPrefValue();
-        /** Set new pref value. */
-        public void setPrefValue(int percent);
-        /** Changes the brightness to the one from the current pref. */
-        public void applyValue();
+    /** Approximate display frame duration, for the live preview. */
+    private static final long FRAME_MS = 16;
+    /** Idle delay after which a seek bar change is persisted even if still tracking. */
+    private static final long PERSIST_IDLE_MS = 500;
+
+
+    private static final int PREF_MIN  = 0;
+    private static final int PREF_MAX  = 1;
+    private static final int PREF_CAR  = 2;
+    private static final int PREF_DESK = 3;
+
+    /** Describes one brightness section of the settings screen. */
+    private static class Profile {
+        /** One of the PREF_ values. */
+        final int pref;
+        /** Id of the part_minmax include or ViewStub. */
+        final int partId;
+        /** Id of the check box enabling the section, 0 if always shown. */
+        final int checkId;
+        final int titleId;
+        final int buttonId;
+        final int minApi;
+
+        Profile(int pref, int partId, int checkId, int titleId, int buttonId, int minApi) {
+            this.pref = pref;
+            this.partId = partId;
+            this.checkId = checkId;
+            this.titleId = titleId;
+            this.buttonId = buttonId;
+            this.minApi = minApi;
+        }
     }
 
+    private static final Profile[] PROFILES = {
+        new Profile(PREF_MIN,  R.id.part_min,  0, R.string.min_title, R.string.min_button_percent, 3),
+        new Profile(PREF_MAX,  R.id.part_max,  0, R.string.max_title, R.string.max_button_percent, 3),
+        // Dock events are only for API 5+
+        new Profile(PREF_CAR,  R.id.part_car,  R.id.check_car,
+                R.string.car_title,  R.string.car_button_percent,  5),
+        new Profile(PREF_DESK, R.id.part_desk, R.id.check_desk,
+                R.string.desk_title, R.string.desk_button_percent, 5),
+    };
+
     private View mToggleButton;
     private PrefsValues mPrefsValues;
+    private final Handler mHandler = new Handler();
+    private final DebouncedValue.Scheduler mScheduler = new DebouncedValue.Scheduler() {
+        public void schedule(Runnable r, long delayMs) {
+            mHandler.postDelayed(r, delayMs);
+        }
+        public void cancel(Runnable r) {
+            mHandler.removeCallbacks(r);
+        }
+    };
+    /** Enabled optional sections not inflated yet. */
+    private final ArrayList<Profile> mDeferred = new ArrayList<Profile>();
+    private final Rect mVisibleRect = new Rect();
+    private final Runnable mInflateDeferred = new Runnable() {
+        public void run() {
+            inflateVisibleParts();
+        }
+    };
+    private final OnScrollChangedListener mScrollListener = new OnScrollChangedListener() {
+        public void onScrollChanged() {
+            inflateVisibleParts();
+        }
+    };
+    private long mCreateMs;
+    private float mPreviewValue = -1;
+    private boolean mPreviewPending;
+    private final Runnable mPreviewFrame = new Runnable() {
+        public void run() {
+            mPreviewPending = false;
+            applyPreview();
+        }
+    };
 
     /** Called when the activity is first created. */
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        if (DEBUG) mCreateMs = SystemClock.uptimeMillis();
 
         setContentView(R.layout.main);
 
@@ -72,6 +147,19 @@ public class BrighterifficUI extends Activity {
 
         initUi();
         showIntroAtStartup();
+
+        // Brightness changes made from here show up on the widgets, if any.
+        WidgetUpdater.getInstance(this);
+    }
+
+    @Override
+    protected void onPause() {
+        // Persist any pending seek bar change and drop the window preview.
+        for (SeekBarPreview p = mSeekBarPreviews; p != null; p = p.mNext) {
+            p.persistNow();
+        }
+        setPreview(-1);
+        super.onPause();
     }
 
     private void initUi() {
@@ -85,120 +173,160 @@ public class BrighterifficUI extends Activity {
             }
         });
 
-        initMinMaxPart(R.id.part_min,
-                getString(R.string.min_title),
-                getString(R.string.min_button_percent),
-                new IMinMaxActions() {
-                    public int getPrefValue() {
-                        return mPrefsValues.getMinBrightness();
-                    }
-                    public void setPrefValue(int percent) {
-                        mPrefsValues.setMinBrightness(percent);
-                    }
-                    public void applyValue() {
-                        Intent i = new Intent(BrighterifficUI.this, ChangeBrightnessActivity.class);
-                        i.putExtra(ChangeBrightnessActivity.INTENT_SET_BRIGHTNESS,
-                                        getPrefValue() / 100.0f);
-                        i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                        startActivity(i);
-                    }
-                }
-        );
-
-        initMinMaxPart(R.id.part_max,
-                getString(R.string.max_title),
-                getString(R.string.max_button_percent),
-                new IMinMaxActions() {
-                    public int getPrefValue() {
-                        return mPrefsValues.getMaxBrightness();
-                    }
-                    public void setPrefValue(int percent) {
-                        mPrefsValues.setMaxBrightness(percent);
-                    }
-                    public void applyValue() {
-                        Intent i = new Intent(BrighterifficUI.this, ChangeBrightnessActivity.class);
-                        i.putExtra(ChangeBrightnessActivity.INTENT_SET_BRIGHTNESS,
-                                        getPrefValue() / 100.0f);
-                        i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                        startActivity(i);
-                    }
-                }
-        );
-
-        // Dock events are only for API 5+
-        if (Utils.getApiLevel() >= 5) {
-            final View carView = initMinMaxPart(R.id.part_car,
-                    getString(R.string.car_title),
-                    getString(R.string.car_button_percent),
-                    new IMinMaxActions() {
-                        public int getPrefValue() {
-                            return mPrefsValues.getCarBrightness();
-                        }
-                        public void setPrefValue(int percent) {
-                            mPrefsValues.setCarBrightness(percent);
-                        }
-                        public void applyValue() {
-                            Intent i = new Intent(BrighterifficUI.this, ChangeBrightnessActivity.class);
-                            i.putExtra(ChangeBrightnessActivity.INTENT_SET_BRIGHTNESS,
-                                            getPrefValue() / 100.0f);
-                            i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                            startActivity(i);
-                        }
-                    }
-            );
+        for (Profile p : PROFILES) {
+            initProfile(p);
+        }
 
-            CheckBox cb = (CheckBox) findViewById(R.id.check_car);
-            cb.setChecked(mPrefsValues.getUseCarBrightness());
-            enableView(carView, cb.isChecked());
-            cb.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+        if (!mDeferred.isEmpty()) {
+            // Inflate the enabled optional sections when they are scrolled
+            // into view, starting once the first frame is drawn.
+            final View root = getWindow().getDecorView();
+            root.getViewTreeObserver().addOnScrollChangedListener(mScrollListener);
+            root.getViewTreeObserver().addOnPreDrawListener(new OnPreDrawListener() {
                 @Override
-                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                    mPrefsValues.setUseCarBrightness(isChecked);
-                    enableView(carView, isChecked);
+                public boolean onPreDraw() {
+                    root.getViewTreeObserver().removeOnPreDrawListener(this);
+                    mHandler.post(mInflateDeferred);
+                    return true;
                 }
             });
+        }
 
-            final View deskView = initMinMaxPart(R.id.part_desk,
-                    getString(R.string.desk_title),
-                    getString(R.string.desk_button_percent),
-                    new IMinMaxActions() {
-                        public int getPrefValue() {
-                            return mPrefsValues.getDeskBrightness();
-                        }
-                        public void setPrefValue(int percent) {
-                            mPrefsValues.setDeskBrightness(percent);
-                        }
-                        public void applyValue() {
-                            Intent i = new Intent(BrighterifficUI.this, ChangeBrightnessActivity.class);
-                            i.putExtra(ChangeBrightnessActivity.INTENT_SET_BRIGHTNESS,
-                                            getPrefValue() / 100.0f);
-                            i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                            startActivity(i);
-                        }
+        CheckBox auto = (CheckBox) findViewById(R.id.check_auto);
+        if (auto != null) {
+            if (BrightnessChanger.canApplyHeadless()) {
+                auto.setChecked(mPrefsValues.getUseAutoBrightness());
+                auto.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+                    @Override
+                    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                        mPrefsValues.setUseAutoBrightness(isChecked);
+                        AutoBrightnessService.update(BrighterifficUI.this);
                     }
-            );
+                });
+            } else {
+                auto.setVisibility(View.GONE);
+            }
+        }
 
-            cb = (CheckBox) findViewById(R.id.check_desk);
-            cb.setChecked(mPrefsValues.getUseDeskBrightness());
-            enableView(deskView, cb.isChecked());
-            cb.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+        if (DEBUG) {
+            final View root = getWindow().getDecorView();
+            root.getViewTreeObserver().addOnPreDrawListener(new OnPreDrawListener() {
                 @Override
-                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                    mPrefsValues.setUseDeskBrightness(isChecked);
-                    enableView(deskView, isChecked);
+                public boolean onPreDraw() {
+                    root.getViewTreeObserver().removeOnPreDrawListener(this);
+                    Log.d(TAG, "Create-to-first-frame: " +
+                            Long.toString(SystemClock.uptimeMillis() - mCreateMs) + " ms");
+                    return true;
                 }
             });
         }
     }
 
-    private void enableView(View v, boolean enabled) {
-        v.setEnabled(enabled);
-        if (v instanceof ViewGroup) {
-            ViewGroup vg = (ViewGroup) v;
-            for (int n = vg.getChildCount() - 1; n >= 0; n--) {
-                enableView(vg.getChildAt(n), enabled);
+    /**
+     * Sets up one section of the {@link #PROFILES} table. Sections with a
+     * check box are ViewStubs: they are only inflated when enabled, and only
+     * once they are scrolled into view after the first frame.
+     */
+    private void initProfile(final Profile p) {
+        View part = findViewById(p.partId);
+        CheckBox cb = p.checkId == 0 ? null : (CheckBox) findViewById(p.checkId);
+
+        if (Utils.getApiLevel() < p.minApi) {
+            if (cb != null) cb.setVisibility(View.GONE);
+            return;
+        }
+        if (part == null) {
+            // e.g. the landscape layout has no dock sections.
+            return;
+        }
+        if (cb == null) {
+            bindPart(part, p);
+            return;
+        }
+
+        cb.setChecked(isProfileEnabled(p.pref));
+        if (cb.isChecked()) mDeferred.add(p);
+        cb.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                setProfileEnabled(p.pref, isChecked);
+                mDeferred.remove(p);
+                showPart(p, isChecked);
+            }
+        });
+    }
+
+    /**
+     * Inflates the deferred sections that are in view, i.e. whose check box,
+     * right below the section, is at least partly visible.
+     */
+    private void inflateVisibleParts() {
+        for (int i = mDeferred.size() - 1; i >= 0; i--) {
+            Profile p = mDeferred.get(i);
+            View cb = findViewById(p.checkId);
+            if (cb == null || cb.getGlobalVisibleRect(mVisibleRect)) {
+                mDeferred.remove(i);
+                showPart(p, isProfileEnabled(p.pref));
             }
         }
+        if (mDeferred.isEmpty()) {
+            ViewTreeObserver obs = getWindow().getDecorView().getViewTreeObserver();
+            obs.removeOnScrollChangedListener(mScrollListener);
+        }
+    }
+
+    /** Shows or hides an optional section, inflating it the first time it's shown. */
+    private void showPart(Profile p, boolean show) {
+        View v = findViewById(p.partId);
+        if (v instanceof ViewStub) {
+            if (!show) return;
+            v = ((ViewStub) v).inflate();
+            bindPart(v, p);
+        }
+        if (v != null) v.setVisibility(show ? View.VISIBLE : View.GONE);
+    }
+
+    private int getProfileValue(int pref) {
+        switch (pref) {
+        case PREF_MIN:  return mPrefsValues.getMinBrightness();
+        case PREF_MAX:  return mPrefsValues.getMaxBrightness();
+        case PREF_CAR:  return mPrefsValues.getCarBrightness();
+        case PREF_DESK: return mPrefsValues.getDeskBrightness();
+        }
+        return 0;
+    }
+
+    private void setProfileValue(int pref, int percent) {
+        switch (pref) {
+        case PREF_MIN:  mPrefsValues.setMinBrightness(percent);  break;
+        case PREF_MAX:  mPrefsValues.setMaxBrightness(percent);  break;
+        case PREF_CAR:  mPrefsValues.setCarBrightness(percent);  break;
+        case PREF_DESK: mPrefsValues.setDeskBrightness(percent); break;
+        }
+    }
+
+    private boolean isProfileEnabled(int pref) {
+        switch (pref) {
+        case PREF_CAR:  return mPrefsValues.getUseCarBrightness();
+        case PREF_DESK: return mPrefsValues.getUseDeskBrightness();
+        }
+        return true;
+    }
+
+    private void setProfileEnabled(int pref, boolean enabled) {
+        switch (pref) {
+        case PREF_CAR:  mPrefsValues.setUseCarBrightness(enabled);  break;
+        case PREF_DESK: mPrefsValues.setUseDeskBrightness(enabled); break;
+        }
+    }
+
+    /** Changes the brightness to the one from the profile's pref. */
+    private void applyProfileValue(int pref) {
+        Intent i = new Intent(this, ChangeBrightnessActivity.class);
+        i.putExtra(ChangeBrightnessActivity.INTENT_SET_BRIGHTNESS, getProfileValue(pref) / 100.0f);
+        i.putExtra(ChangeBrightnessActivity.INTENT_SOURCE, BrightnessJournal.SOURCE_UI);
+        i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        startActivity(i);
     }
 
     private BrighterifficApp getApp() {
@@ -239,57 +367,138 @@ public class BrighterifficUI extends Activity {
         }
     }
 
-    private View initMinMaxPart(
-            int id,
-            String title,
-            final String buttonLabel,
-            final IMinMaxActions actions) {
-
-        View group = findViewById(id);
+    private void bindPart(View group, final Profile p) {
+        int value = getProfileValue(p.pref);
+        String buttonLabel = getString(p.buttonId);
 
         TextView tv = (TextView) group.findViewById(R.id.minMaxTitle);
-        tv.setText(title);
+        tv.setText(p.titleId);
 
         final Button button = (Button) group.findViewById(R.id.minMaxSetButton);
-        button.setText(String.format(buttonLabel, actions.getPrefValue()));
+        button.setText(String.format(buttonLabel, value));
         button.setOnClickListener(new OnClickListener() {
             public void onClick(View v) {
-                actions.applyValue();
+                applyProfileValue(p.pref);
             }
         });
 
         SeekBar seekBar = (SeekBar) group.findViewById(R.id.minMaxSeekBar);
-        seekBar.setProgress(actions.getPrefValue());
-        seekBar.setOnSeekBarChangeListener(new OnSeekBarChangeListener() {
+        seekBar.setProgress(value);
+        seekBar.setOnSeekBarChangeListener(new SeekBarPreview(button, buttonLabel, p.pref, value));
+    }
 
-            public void onStopTrackingTouch(SeekBar seekBar) {
-                // pass
-            }
+    private SeekBarPreview mSeekBarPreviews;
+
+    /**
+     * Handles one min/max seek bar: previews the value on this window at most
+     * once per frame, updates the button label without allocating and only
+     * persists the pref when tracking stops or after a short idle delay.
+     */
+    private class SeekBarPreview implements OnSeekBarChangeListener {
+
+        private final Button mButton;
+        private final DebouncedValue mValue;
+        private final char[] mPrefix;
+        private final char[] mSuffix;
+        private final char[] mLabel;
+        private final SeekBarPreview mNext;
+
+        public SeekBarPreview(Button button, String format, final int pref, int value) {
+            mButton = button;
+            mValue = new DebouncedValue(mScheduler, new DebouncedValue.Writer() {
+                public void write(int v) {
+                    setProfileValue(pref, v);
+                }
+            }, PERSIST_IDLE_MS, value);
+
+            // Split the "... %d%% ..." format once so that updates don't
+            // need String.format.
+            int pos = format.indexOf("%d");
+            String prefix = pos < 0 ? format : format.substring(0, pos);
+            String suffix = pos < 0 ? "" : format.substring(pos + 2);
+            mPrefix = prefix.replace("%%", "%").toCharArray();
+            mSuffix = suffix.replace("%%", "%").toCharArray();
+            mLabel = new char[mPrefix.length + 3 + mSuffix.length];
+
+            mNext = mSeekBarPreviews;
+            mSeekBarPreviews = this;
+        }
+
+        public void onStartTrackingTouch(SeekBar seekBar) {
+            mValue.resetWrites();
+        }
 
-            public void onStartTrackingTouch(SeekBar seekBar) {
-                // pass
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            persistNow();
+            setPreview(-1);
+            if (DEBUG) {
+                Log.d(TAG, "Prefs writes for gesture: " + Integer.toString(mValue.getWrites()));
             }
+        }
 
-            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                actions.setPrefValue(progress);
-                button.setText(String.format(buttonLabel, actions.getPrefValue()));
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            mValue.set(progress);
+            updateLabel();
+            if (fromUser) {
+                setPreview((float) mPrefsValues.getBrightnessCurve().percentToLevel(progress)
+                        / BrightnessBackend.BR_MAX);
             }
-        });
+        }
+
+        public void persistNow() {
+            mValue.flush();
+        }
 
-        return group;
+        private void updateLabel() {
+            char[] label = mLabel;
+            int n = mPrefix.length;
+            System.arraycopy(mPrefix, 0, label, 0, n);
+            int v = mValue.getValue();
+            if (v >= 100) label[n++] = (char) ('0' + v / 100);
+            if (v >= 10)  label[n++] = (char) ('0' + (v / 10) % 10);
+            label[n++] = (char) ('0' + v % 10);
+            System.arraycopy(mSuffix, 0, label, n, mSuffix.length);
+            n += mSuffix.length;
+            mButton.setText(label, 0, n);
+        }
     }
 
-    public String longVersion() {
-        PackageManager pm = getPackageManager();
-        PackageInfo pi;
-        try {
-            pi = pm.getPackageInfo(getPackageName(), 0);
-            return pi.versionName;
-        } catch (NameNotFoundException e) {
-            return "??"; // failed, ignored
+    /**
+     * Requests a window-level brightness preview. Several requests within the
+     * same frame are coalesced into one window update.
+     *
+     * @param f Backlight level / BR_MAX or -1 to remove the preview.
+     */
+    private void setPreview(float f) {
+        mPreviewValue = f;
+        if (f < 0) {
+            mHandler.removeCallbacks(mPreviewFrame);
+            mPreviewPending = false;
+            applyPreview();
+        } else if (!mPreviewPending) {
+            mPreviewPending = true;
+            mHandler.postAtTime(mPreviewFrame, SystemClock.uptimeMillis() + FRAME_MS);
         }
     }
 
+    private void applyPreview() {
+        float f = mPreviewValue;
+        if (f >= 0 && f * BrightnessBackend.BR_MAX < BrightnessBackend.BR_MIN) {
+            // never preview a backlight that is too dark
+            f = (float) BrightnessBackend.BR_MIN / BrightnessBackend.BR_MAX;
+        }
+        WindowManager.LayoutParams lp = getWindow().getAttributes();
+        if (lp.screenBrightness != f) {
+            lp.screenBrightness = f;
+            getWindow().setAttributes(lp);
+        }
+    }
+
+    public String longVersion() {
+        String v = Utils.getVersionName(this);
+        return v.length() == 0 ? "??" : v;
+    }
+
     private void installToggleShortcut() {
 
         // The intent we generate
@@ -318,6 +527,8 @@ public class BrighterifficUI extends Activity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         menu.add(0, R.string.about,  0, R.string.about).setIcon(R.drawable.ic_menu_help);
+        menu.add(0, R.string.latency_stats, 0, R.string.latency_stats)
+            .setIcon(android.R.drawable.ic_menu_info_details);
 
         return super.onCreateOptionsMenu(menu);
     }
@@ -328,7 +539,34 @@ public class BrighterifficUI extends Activity {
         case R.string.about:
             showIntro(true /*force*/);
             break;
+        case R.string.latency_stats:
+            showLatencyStats();
+            break;
         }
         return super.onOptionsItemSelected(item);
     }
+
+    /**
+     * Shows the {@link LatencyStats} histograms of this process. Unlike the
+     * services' dumpsys output, this doesn't need auto mode or a bound client.
+     */
+    private void showLatencyStats() {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        LatencyStats.dump(pw);
+        pw.flush();
+
+        TextView tv = new TextView(this);
+        tv.setTypeface(Typeface.MONOSPACE);
+        tv.setTextSize(10);
+        tv.setText(sw.toString());
+        ScrollView sv = new ScrollView(this);
+        sv.addView(tv);
+
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.latency_stats)
+            .setView(sv)
+            .setPositiveButton(android.R.string.ok, null)
+            .show();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,306 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decides which brightness wins when several sources want one.
+ * <p/>
+ * There's a base brightness, set by the schedule and the auto mode, and a
+ * stack of claims. Each claim has an owner, a priority and an optional expiry.
+ * The effective brightness is the one of the highest priority claim (the most
+ * recent one on ties) or the base when there are no claims. Releasing a claim
+ * thus restores whatever was in effect below it, e.g. undocking restores the
+ * brightness from before docking.
+ * <p/>
+ * A manual change, e.g. from the widget, changes the top claim, or the base
+ * when there are no claims, so it lasts as long as what it replaces.
+ * <p/>
+ * The state is immutable and swapped with a compare-and-set: reads are a
+ * volatile read and no call ever blocks. Use {@link #encode()} and
+ * {@link #decode(String)} to persist it. Doesn't depend on Android.
+ */
+public class BrightnessArbiter {
+
+    /** Claim owners. */
+    public static final int OWNER_DOCK = 1;
+    public static final int OWNER_HOLD = 2;
+
+    /** Claim priorities. Higher wins. */
+    public static final int PRIORITY_DOCK = 30;
+    public static final int PRIORITY_HOLD = 50;
+
+    /** Max number of claims; the lowest ones are dropped. */
+    public static final int MAX_CLAIMS = 8;
+
+    /** No brightness, e.g. no base yet. */
+    public static final int NONE = -1;
+
+    private static final String VERSION = "1";
+
+    /** An immutable arbitration state. Claims are sorted, the top one is last. */
+    private static final class State {
+        final int mBase;
+        final int mCount;
+        final int[] mOwners;
+        final int[] mPriorities;
+        final int[] mPercents;
+        final long[] mExpiries;
+
+        State(int base, int count) {
+            mBase = base;
+            mCount = count;
+            mOwners = new int[count];
+            mPriorities = new int[count];
+            mPercents = new int[count];
+            mExpiries = new long[count];
+        }
+
+        /** A copy with another base. The claim arrays are shared, they never change. */
+        State(State s, int base) {
+            mBase = base;
+            mCount = s.mCount;
+            mOwners = s.mOwners;
+            mPriorities = s.mPriorities;
+            mPercents = s.mPercents;
+            mExpiries = s.mExpiries;
+        }
+
+        int getEffective() {
+            return mCount > 0 ? mPercents[mCount - 1] : mBase;
+        }
+
+        int indexOf(int owner) {
+            for (int i = 0; i < mCount; i++) {
+                if (mOwners[i] == owner) return i;
+            }
+            return -1;
+        }
+
+        void set(int i, State from, int j) {
+            mOwners[i] = from.mOwners[j];
+            mPriorities[i] = from.mPriorities[j];
+            mPercents[i] = from.mPercents[j];
+            mExpiries[i] = from.mExpiries[j];
+        }
+    }
+
+    private final AtomicReference<State> mState =
+        new AtomicReference<State>(new State(NONE, 0));
+
+    /** Returns the effective brightness in percent, or NONE. */
+    public int getEffective() {
+        return mState.get().getEffective();
+    }
+
+    /** Returns the base brightness in percent, or NONE. */
+    public int getBase() {
+        return mState.get().mBase;
+    }
+
+    /** Returns true if the owner has a claim. */
+    public boolean hasClaim(int owner) {
+        return mState.get().indexOf(owner) >= 0;
+    }
+
+    /** Returns the number of claims. */
+    public int getClaimCount() {
+        return mState.get().mCount;
+    }
+
+    /** Returns the earliest claim expiry, or 0 if no claim expires. */
+    public long getNextExpiry() {
+        State s = mState.get();
+        long next = 0;
+        for (int i = 0; i < s.mCount; i++) {
+            long e = s.mExpiries[i];
+            if (e > 0 && (next == 0 || e < next)) next = e;
+        }
+        return next;
+    }
+
+    /**
+     * Sets the base brightness, the one in effect without claims.
+     *
+     * @return The new effective brightness.
+     */
+    public int setBase(int percent, long nowMs) {
+        while (true) {
+            State s = mState.get();
+            State n = new State(expire(s, nowMs), percent);
+            if (mState.compareAndSet(s, n)) return n.getEffective();
+        }
+    }
+
+    /**
+     * Adds a claim or replaces the owner's claim.
+     *
+     * @param expiresAtMs When the claim goes away by itself, 0 for never.
+     * @return The new effective brightness.
+     */
+    public int claim(int owner, int priority, int percent, long expiresAtMs, long nowMs) {
+        while (true) {
+            State s = mState.get();
+            State n = withClaim(expire(s, nowMs), owner, priority, percent, expiresAtMs);
+            if (mState.compareAndSet(s, n)) return n.getEffective();
+        }
+    }
+
+    /**
+     * Removes the owner's claim, if any.
+     *
+     * @return The new effective brightness.
+     */
+    public int release(int owner, long nowMs) {
+        while (true) {
+            State s = mState.get();
+            State e = expire(s, nowMs);
+            State n = without(e, e.indexOf(owner));
+            if (n == s) return s.getEffective();
+            if (mState.compareAndSet(s, n)) return n.getEffective();
+        }
+    }
+
+    /**
+     * Applies a manual change: changes the top claim's brightness, or the base
+     * if there are no claims.
+     *
+     * @return The new effective brightness, i.e. percent.
+     */
+    public int override(int percent, long nowMs) {
+        while (true) {
+            State s = mState.get();
+            State e = expire(s, nowMs);
+            State n;
+            if (e.mCount == 0) {
+                n = new State(e, percent);
+            } else {
+                n = new State(e.mBase, e.mCount);
+                for (int i = 0; i < e.mCount; i++) n.set(i, e, i);
+                n.mPercents[n.mCount - 1] = percent;
+            }
+            if (mState.compareAndSet(s, n)) return n.getEffective();
+        }
+    }
+
+    /**
+     * Removes the expired claims.
+     *
+     * @return The new effective brightness.
+     */
+    public int expire(long nowMs) {
+        while (true) {
+            State s = mState.get();
+            State n = expire(s, nowMs);
+            if (n == s || mState.compareAndSet(s, n)) return n.getEffective();
+        }
+    }
+
+    /**
+     * Returns the state as a string: "1;base;owner:priority:percent:expiry,..."
+     * with claims from the lowest to the top one.
+     */
+    public String encode() {
+        State s = mState.get();
+        StringBuilder sb = new StringBuilder(16 + 24 * s.mCount);
+        sb.append(VERSION).append(';').append(s.mBase).append(';');
+        for (int i = 0; i < s.mCount; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(s.mOwners[i]).append(':')
+              .append(s.mPriorities[i]).append(':')
+              .append(s.mPercents[i]).append(':')
+              .append(s.mExpiries[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Restores a state saved by {@link #encode()}.
+     *
+     * @return False if the string is empty or invalid, in which case the
+     *   state is not changed.
+     */
+    public boolean decode(String encoded) {
+        if (encoded == null) return false;
+        String[] parts = encoded.split(";", -1);
+        if (parts.length != 3 || !VERSION.equals(parts[0])) return false;
+
+        try {
+            int base = Integer.parseInt(parts[1]);
+            String[] claims = parts[2].length() == 0 ? new String[0] : parts[2].split(",");
+            State n = new State(base, Math.min(claims.length, MAX_CLAIMS));
+            int skip = claims.length - n.mCount;
+            for (int i = 0; i < n.mCount; i++) {
+                String[] f = claims[i + skip].split(":");
+                if (f.length != 4) return false;
+                n.mOwners[i] = Integer.parseInt(f[0]);
+                n.mPriorities[i] = Integer.parseInt(f[1]);
+                n.mPercents[i] = Integer.parseInt(f[2]);
+                n.mExpiries[i] = Long.parseLong(f[3]);
+            }
+            mState.set(n);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static State expire(State s, long nowMs) {
+        State n = s;
+        for (int i = s.mCount - 1; i >= 0; i--) {
+            long e = s.mExpiries[i];
+            if (e > 0 && e <= nowMs) n = without(n, n.indexOf(s.mOwners[i]));
+        }
+        return n;
+    }
+
+    /** Returns a copy without claim i, or s itself if i < 0. */
+    private static State without(State s, int i) {
+        if (i < 0) return s;
+        State n = new State(s.mBase, s.mCount - 1);
+        for (int j = 0, k = 0; j < s.mCount; j++) {
+            if (j != i) n.set(k++, s, j);
+        }
+        return n;
+    }
+
+    private static State withClaim(State s, int owner, int priority, int percent, long expiry) {
+        s = without(s, s.indexOf(owner));
+
+        // Insert after all claims of the same or lower priority: newer wins ties.
+        int pos = s.mCount;
+        while (pos > 0 && s.mPriorities[pos - 1] > priority) pos--;
+
+        // Drop the lowest claim if full, which may be the new one.
+        int drop = s.mCount >= MAX_CLAIMS ? 1 : 0;
+        if (pos < drop) return s;
+
+        State n = new State(s.mBase, s.mCount + 1 - drop);
+        int k = 0;
+        for (int j = drop; j < pos; j++) n.set(k++, s, j);
+        n.mOwners[k] = owner;
+        n.mPriorities[k] = priority;
+        n.mPercents[k] = percent;
+        n.mExpiries[k] = expiry;
+        k++;
+        for (int j = pos; j < s.mCount; j++) n.set(k++, s, j);
+        return n;
+    }
+}
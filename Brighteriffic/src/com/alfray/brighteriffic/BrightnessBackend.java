@@ -0,0 +1,44 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * One way of pushing a backlight level to the display.
+ * <p/>
+ * Implementations do all their lookups when created so that
+ * {@link #setBrightness(int, float)} is cheap enough for the toggle path.
+ * Use {@link BrightnessBackends} to get the ones matching this platform.
+ */
+public interface BrightnessBackend {
+
+    /** Using 0 will actually turn the screen off! */
+    public static final int BR_MIN = 1;
+    /** Max brightness from the API (c.f. PowerManager source, constant
+     *  is not public.) */
+    public static final int BR_MAX = 255;
+
+    /**
+     * Applies the given brightness.
+     *
+     * @param level The backlight level in range {@link #BR_MIN}..{@link #BR_MAX}.
+     * @param fraction The same value expressed in range 0..1.
+     * @return True if the brightness was changed.
+     */
+    public boolean setBrightness(int level, float fraction);
+}
@@ -0,0 +1,113 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import android.content.Context;
+import android.provider.Settings;
+import android.view.Window;
+
+/**
+ * Picks the {@link BrightnessBackend}s to use on this platform.
+ * <p/>
+ * The choice only depends on the API level so it is made once per process.
+ */
+public final class BrightnessBackends {
+
+    /** The {@link Settings.System} write is all it takes (API 17+). */
+    public static final int MODE_HEADLESS = 0;
+    /** The setting must be followed by a window attribute change (API 3-16). */
+    public static final int MODE_WINDOW = 1;
+    /** The setting must be followed by a hardware service call (API < 3). */
+    public static final int MODE_HARDWARE = 2;
+
+    /**
+     * Starting with Jelly Bean MR1 the power manager observes
+     * {@link Settings.System#SCREEN_BRIGHTNESS} and applies changes by itself
+     * so there's no need for a visible window to make the new value effective.
+     * Before that a direct write is only picked up on the next screen-on or
+     * window attribute change, so API 3-16 keep going through the activity.
+     */
+    private static final int HEADLESS_MIN_API = 17;
+
+    private static final int sMode;
+    private static HardwareBackend sHardware;
+    private static boolean sHardwareResolved;
+
+    static {
+        int api = Utils.getApiLevel();
+        if (api >= HEADLESS_MIN_API) {
+            sMode = MODE_HEADLESS;
+        } else if (api >= 3) {
+            sMode = MODE_WINDOW;
+        } else {
+            sMode = MODE_HARDWARE;
+        }
+    }
+
+    private BrightnessBackends() {
+    }
+
+    /** Returns one of the MODE_ constants. */
+    public static int getMode() {
+        return sMode;
+    }
+
+    /** Returns the backend that writes the global setting. */
+    public static BrightnessBackend createSettingsBackend(Context context) {
+        return new SettingsBackend(context.getContentResolver());
+    }
+
+    /**
+     * Returns the backend that makes a new setting visible, if any.
+     *
+     * @param window The window of the calling activity or null if headless.
+     * @return Null if no extra step is needed (headless mode) or if there's
+     *   no way to do it, e.g. no window in window mode.
+     */
+    public static BrightnessBackend createDisplayBackend(Window window) {
+        switch (sMode) {
+        case MODE_WINDOW:
+            return window == null ? null : new WindowBackend(window);
+        case MODE_HARDWARE:
+            return getHardwareBackend();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a backend that can be updated at each frame of a {@link BrightnessRamp}
+     * without touching the global setting, if any.
+     *
+     * @param window The window of the calling activity or null if headless.
+     */
+    public static BrightnessBackend createFrameBackend(Window window) {
+        if (sMode == MODE_HARDWARE) {
+            return getHardwareBackend();
+        }
+        return window == null ? null : new WindowBackend(window);
+    }
+
+    private static synchronized HardwareBackend getHardwareBackend() {
+        if (!sHardwareResolved) {
+            sHardware = HardwareBackend.create();
+            sHardwareResolved = true;
+        }
+        return sHardware;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.util.ArrayList;
+
+/**
+ * Cache of the brightness level and mode, kept current by change
+ * notifications from a {@link Source}, c.f. {@link BrightnessState}.
+ * <p/>
+ * The source is only observed while there are listeners. Then readers get
+ * the values with a volatile read. Otherwise each read goes to the source,
+ * so the values are never stale.
+ * <p/>
+ * Doesn't depend on Android.
+ */
+public class BrightnessCache {
+
+    /** Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC, API 8. */
+    public static final int MODE_AUTOMATIC = 1;
+    public static final int MODE_MANUAL = 0;
+
+    /** Value of {@link #getLevel()} when the setting doesn't exist. */
+    public static final int UNKNOWN = -1;
+
+    /** Notified on the main thread when the settings change. */
+    public interface Listener {
+        /**
+         * @param level The new level in range 0..255 or {@link #UNKNOWN}.
+         * @param mode MODE_MANUAL or MODE_AUTOMATIC.
+         */
+        public void onBrightnessChanged(int level, int mode);
+    }
+
+    /** Where the values come from. */
+    public interface Source {
+        /** Returns the level in range 0..255 or {@link #UNKNOWN}. */
+        public int readLevel();
+        /** Returns MODE_MANUAL or MODE_AUTOMATIC. */
+        public int readMode();
+        /** Starts calling onChange, on any thread, when a value may have changed. */
+        public void register(Runnable onChange);
+        /** Stops calling it. */
+        public void unregister();
+        /** Runs the runnable on the main thread. */
+        public void post(Runnable r);
+    }
+
+    private final Source mSource;
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private volatile boolean mObserving;
+    private volatile int mLevel = UNKNOWN;
+    private volatile int mMode = MODE_MANUAL;
+
+    private final Runnable mNotify = new Runnable() {
+        public void run() {
+            notifyListeners();
+        }
+    };
+
+    private final Runnable mOnChange = new Runnable() {
+        public void run() {
+            // Re-read right away so that the cache is current as soon as
+            // possible, then notify on the main thread.
+            if (reload()) mSource.post(mNotify);
+        }
+    };
+
+    public BrightnessCache(Source source) {
+        mSource = source;
+    }
+
+    /** Returns the brightness level in range 0..255 or {@link #UNKNOWN}. */
+    public int getLevel() {
+        if (!mObserving) reload();
+        return mLevel;
+    }
+
+    /** Returns the brightness mode, MODE_MANUAL or MODE_AUTOMATIC. */
+    public int getMode() {
+        if (!mObserving) reload();
+        return mMode;
+    }
+
+    /** Returns true if the system automatic brightness is on. */
+    public boolean isSystemAuto() {
+        return getMode() == MODE_AUTOMATIC;
+    }
+
+    /** Returns true while the source is observed, i.e. while there are listeners. */
+    public boolean isObserving() {
+        return mObserving;
+    }
+
+    /**
+     * Updates the cache right after this process wrote the level, without
+     * waiting for the source. The source still confirms it later.
+     */
+    public void setWritten(int level) {
+        if (mLevel != level) {
+            mLevel = level;
+            mSource.post(mNotify);
+        }
+    }
+
+    /** Adds a listener. The first one starts observing the source. Main thread only. */
+    public void addListener(Listener listener) {
+        if (mListeners.contains(listener)) return;
+        mListeners.add(listener);
+        if (!mObserving) {
+            // Register before reading so that no change can be missed.
+            mSource.register(mOnChange);
+            mObserving = true;
+            reload();
+        }
+    }
+
+    /** Removes a listener. The last one stops observing the source. Main thread only. */
+    public void removeListener(Listener listener) {
+        if (mListeners.remove(listener) && mListeners.isEmpty() && mObserving) {
+            mObserving = false;
+            mSource.unregister();
+        }
+    }
+
+    private void notifyListeners() {
+        int level = mLevel;
+        int mode = mMode;
+        for (int i = mListeners.size() - 1; i >= 0; i--) {
+            mListeners.get(i).onBrightnessChanged(level, mode);
+        }
+    }
+
+    /** Reads the values. Returns true if one changed. */
+    private synchronized boolean reload() {
+        int level = mSource.readLevel();
+        int mode = mSource.readMode();
+        boolean changed = level != mLevel || mode != mMode;
+        mLevel = level;
+        mMode = mode;
+        return changed;
+    }
+}
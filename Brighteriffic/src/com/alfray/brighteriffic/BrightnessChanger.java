@@ -0,0 +1,252 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import android.view.Window;
+
+/**
+ * Applies the brightness change described by an intent using the
+ * {@link ChangeBrightnessActivity} extras contract.
+ * <p/>
+ * This is shared by {@link ChangeBrightnessActivity}, which can also update
+ * its window attributes, and by the headless {@link BrightnessReceiver}.
+ */
+public class BrightnessChanger {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "BrightnessChanger";
+
+    private static final int BR_MIN = BrightnessBackend.BR_MIN;
+    private static final int BR_MAX = BrightnessBackend.BR_MAX;
+
+    private final Context mContext;
+    private final BrightnessBackend mSettings;
+    private final BrightnessState mState;
+    private long mReceiveNs;
+
+    public BrightnessChanger(Context context) {
+        mContext = context;
+        mSettings = BrightnessBackends.createSettingsBackend(context);
+        mState = BrightnessState.getInstance(context);
+    }
+
+    /**
+     * Returns true if a brightness change can be applied without showing
+     * a window, i.e. from a {@link BrightnessReceiver}.
+     */
+    public static boolean canApplyHeadless() {
+        return BrightnessBackends.getMode() == BrightnessBackends.MODE_HEADLESS;
+    }
+
+    /**
+     * Sends a brightness change request using the {@link ChangeBrightnessActivity}
+     * extras. Uses the headless {@link BrightnessReceiver} when possible and
+     * only falls back to starting {@link ChangeBrightnessActivity} on older
+     * platforms.
+     */
+    public static void requestChange(Context context, Intent extras) {
+        if (canApplyHeadless() &&
+                extras.getIntExtra(ChangeBrightnessActivity.INTENT_RAMP_MS, 0) <= 0) {
+            Intent i = new Intent(context, BrightnessReceiver.class);
+            i.setAction(BrightnessReceiver.ACTION_APPLY_BRIGHTNESS);
+            i.putExtras(extras);
+            context.sendBroadcast(i);
+        } else {
+            Intent i = new Intent(context, ChangeBrightnessActivity.class);
+            i.setAction(ChangeBrightnessActivity.ACTION_TOGGLE_BRIGHTNESS);
+            i.putExtras(extras);
+            i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            context.startActivity(i);
+        }
+    }
+
+    /**
+     * Processes the set/save/toggle extras of the given intent.
+     *
+     * @param window The window to update, if any. Can be null for headless changes.
+     * @return The new brightness in range 0..1 or -1 if nothing was changed.
+     */
+    public float applyIntent(Intent i, Window window) {
+        float f = resolveTarget(i);
+        if (f >= 0) {
+            int source = i.getIntExtra(ChangeBrightnessActivity.INTENT_SOURCE,
+                    BrightnessJournal.SOURCE_OTHER);
+            float result = setCurrentBrightness(f, window, source);
+            if (result >= 0) {
+                Arbitration.noteChange(mContext, source, Math.round(100 * result),
+                        i.getIntExtra(ChangeBrightnessActivity.INTENT_HOLD_MS, 0));
+            }
+            return result;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets when the intent being processed was received, as a
+     * {@link LatencyStats#now()} time, to measure the receive and applied stages.
+     */
+    public void setReceiveTime(long ns) {
+        mReceiveNs = ns;
+    }
+
+    /**
+     * Processes the save extra and computes the brightness requested by the
+     * set, toggle, cycle or preset extras of the given intent, without applying it.
+     *
+     * @return The target brightness in range 0..1 or -1 if nothing should change.
+     */
+    public float resolveTarget(Intent i) {
+        long t = LatencyStats.now();
+        PrefsValues prefValues = new PrefsValues(mContext);
+        PrefsValues.Snapshot s = prefValues.getSnapshot();
+        LatencyStats.record(LatencyStats.STAGE_PREFS, t);
+
+        if (i.getBooleanExtra(ChangeBrightnessActivity.INTENT_SAVE_BRIGHTNESS, false)) {
+            float f = getCurrentBrightness();
+            prefValues.setSavedBrightness(Math.round(100 * f));
+        }
+
+        float f = i.getFloatExtra(ChangeBrightnessActivity.INTENT_SET_BRIGHTNESS, -1);
+
+        float result = -1;
+
+        if (f >= 0) {
+            result = f;
+
+        } else if (i.getBooleanExtra(ChangeBrightnessActivity.INTENT_TOGGLE_BRIGHTNESS, false)) {
+
+            result = BrightnessRules.toggle(getCurrentBrightness(),
+                    s.minBrightness,
+                    s.maxBrightness);
+
+        } else if (i.hasExtra(ChangeBrightnessActivity.INTENT_CYCLE_PRESET)) {
+
+            BrightnessPresets presets = prefValues.getBrightnessPresets();
+            int current = Math.round(100 * getCurrentBrightness());
+            int p = i.getIntExtra(ChangeBrightnessActivity.INTENT_CYCLE_PRESET, 1) >= 0 ?
+                    presets.next(current) :
+                    presets.previous(current);
+            if (p >= 0) result = p / 100.0f;
+
+        } else if (i.hasExtra(ChangeBrightnessActivity.INTENT_JUMP_PRESET)) {
+
+            BrightnessPresets presets = prefValues.getBrightnessPresets();
+            int index = i.getIntExtra(ChangeBrightnessActivity.INTENT_JUMP_PRESET, -1);
+            if (index >= 0 && index < presets.size()) {
+                result = presets.get(index) / 100.0f;
+            }
+        }
+
+        if (mReceiveNs != 0) {
+            LatencyStats.record(LatencyStats.STAGE_RECEIVE, mReceiveNs);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ramp duration requested by the intent or, if not specified,
+     * the one from the preferences.
+     */
+    public int getRampDuration(Intent i) {
+        int ms = i.getIntExtra(ChangeBrightnessActivity.INTENT_RAMP_MS, -1);
+        if (ms < 0) {
+            ms = new PrefsValues(mContext).getRampDuration();
+        }
+        return ms;
+    }
+
+    /** Returns the percent to backlight curve from the prefs. */
+    public BrightnessCurve getCurve() {
+        return new PrefsValues(mContext).getBrightnessCurve();
+    }
+
+    /**
+     * Converts a brightness in range 0..1 to the backlight level / BR_MAX
+     * expected by {@link BrightnessRamp} and the window attributes.
+     */
+    public float toLevelFraction(float f) {
+        return (float) getCurve().fractionToLevel(f) / BR_MAX;
+    }
+
+    /** Returns the backend writing the global brightness setting. */
+    public BrightnessBackend getSettingsBackend() {
+        return mSettings;
+    }
+
+    /** Sets the actual brightness. Enforce that you never set it to zero.
+     * Returns float > 0 if actually managed to change the brightness.
+     * The change is recorded in the {@link ChangeJournal}.
+     *
+     * @param source Who requested the change, one of the BrightnessJournal.SOURCE_ values.
+     */
+    public float setCurrentBrightness(float f, Window window, int source) {
+        long startNs = LatencyStats.now();
+        int old = mState.getLevel();
+
+        // The curve never goes below BR_MIN, i.e. never sets the backlight too dark.
+        BrightnessCurve curve = getCurve();
+        int v = curve.fractionToLevel(f);
+        f = curve.levelToPercent(v) / 100.0f;
+        float lf = (float) v / BR_MAX;
+
+        if (mSettings.setBrightness(v, lf)) {
+            mState.setWritten(v);
+        }
+
+        float result = -1;
+        if (BrightnessBackends.getMode() == BrightnessBackends.MODE_HEADLESS) {
+            // The setting is all it takes.
+            result = f;
+        } else {
+            BrightnessBackend display = BrightnessBackends.createDisplayBackend(window);
+            if (display != null && display.setBrightness(v, lf)) {
+                result = f;
+            } else {
+                if (DEBUG) Log.d(TAG, "No display backend to apply brightness");
+            }
+        }
+
+        if (result >= 0) {
+            long t = LatencyStats.record(LatencyStats.STAGE_APPLY, startNs);
+            if (mReceiveNs != 0) {
+                LatencyStats.record(LatencyStats.STAGE_APPLIED, mReceiveNs);
+            }
+            ChangeJournal.record(mContext, source, old, v, (int) ((t - startNs) / 1000));
+        }
+        return result;
+    }
+
+    /**
+     * Returns screen brightness in range 0..1%, i.e. the percent given by the
+     * {@link BrightnessCurve} / 100.
+     * This reads the {@link BrightnessState} cache and does no IPC.
+     */
+    public float getCurrentBrightness() {
+        int v = mState.getLevel();
+        if (v == BrightnessState.UNKNOWN) {
+            // If not found, return some default
+            Log.w(TAG, "No brightness setting, using default");
+            return 0.75f;
+        }
+        return getCurve().levelToPercent(v) / 100.0f;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * Collects brightness commands from any number of threads and reduces them
+ * to a single change when drained.
+ * <p/>
+ * Each command has a sequence number chosen by its client. Commands from a
+ * client whose seq is not above the last one accepted from that client are
+ * dropped, so a late or replayed batch never undoes a newer one. Pending
+ * commands are replayed in arrival order when drained and only the resulting
+ * brightness is applied: last writer wins.
+ * <p/>
+ * Arrays only grow, so steady-state use doesn't allocate.
+ * Doesn't depend on Android.
+ */
+public class BrightnessCommandQueue {
+
+    /** Sets the brightness. value: percent. */
+    public static final int OP_SET = 1;
+    /** Ramps to the brightness. value: percent, durationMs: the ramp duration. */
+    public static final int OP_RAMP = 2;
+    /** Saves the current brightness on the profile stack then sets value. */
+    public static final int OP_PUSH = 3;
+    /** Restores the brightness saved by the last push. */
+    public static final int OP_POP = 4;
+    /** Toggles between the min and max brightness, c.f. {@link BrightnessRules#toggle}. */
+    public static final int OP_TOGGLE = 5;
+
+    /** Max depth of the profile stack; older entries are dropped. */
+    public static final int MAX_STACK = 16;
+
+    /** The outcome of {@link BrightnessCommandQueue#drain}. */
+    public static class Result {
+        /** The brightness to apply in percent, -1 if nothing changes. */
+        public int percent;
+        /** The ramp duration, 0 for none. */
+        public int rampMs;
+        /** Number of commands reduced. */
+        public int count;
+        /** Seq of the last command reduced. */
+        public long lastSeq;
+        /** Client of the last command reduced. */
+        public int lastClient;
+    }
+
+    private final Object mLock = new Object();
+
+    // Pending commands, double-buffered so that draining doesn't block offers.
+    private int[] mClients = new int[16];
+    private int[] mOps = new int[16];
+    private long[] mSeqs = new long[16];
+    private int[] mValues = new int[16];
+    private int[] mDurations = new int[16];
+    private int mCount;
+
+    private int[] mDClients = new int[16];
+    private int[] mDOps = new int[16];
+    private long[] mDSeqs = new long[16];
+    private int[] mDValues = new int[16];
+    private int[] mDDurations = new int[16];
+
+    // Last seq accepted per client.
+    private int[] mSeqClients = new int[4];
+    private long[] mClientSeqs = new long[4];
+    private int mClientCount;
+
+    // Profile stack, only used by drain.
+    private final int[] mStack = new int[MAX_STACK];
+    private int mStackSize;
+
+    /**
+     * Adds a command. Thread-safe.
+     *
+     * @param client Identifies the client, e.g. its uid.
+     * @return True if the queue was empty, i.e. a drain should be scheduled.
+     *   False if a drain is already due or the command was dropped as stale.
+     */
+    public boolean offer(int client, int op, long seq, int value, int durationMs) {
+        synchronized (mLock) {
+            if (!acceptSeq(client, seq)) return false;
+
+            int n = mCount;
+            if (n == mOps.length) grow();
+            mClients[n] = client;
+            mOps[n] = op;
+            mSeqs[n] = seq;
+            mValues[n] = value;
+            mDurations[n] = durationMs;
+            mCount = n + 1;
+            return n == 0;
+        }
+    }
+
+    /** Returns the number of pending commands. */
+    public int size() {
+        synchronized (mLock) {
+            return mCount;
+        }
+    }
+
+    /**
+     * Reduces all pending commands to one change. Must always be called from
+     * the same thread.
+     *
+     * @param currentPercent The current brightness, the starting point.
+     * @param minPercent Min brightness, for toggles.
+     * @param maxPercent Max brightness, for toggles.
+     * @param out Receives the change.
+     * @return True if there's a change to apply.
+     */
+    public boolean drain(int currentPercent, int minPercent, int maxPercent, Result out) {
+        // An offer can grow() and replace the drain buffers as soon as the lock
+        // is released, so the loop below only reads these locals.
+        int n;
+        int[] clients, ops, values, durations;
+        long[] seqs;
+        synchronized (mLock) {
+            n = mCount;
+            clients = mClients; mClients = mDClients; mDClients = clients;
+            ops = mOps; mOps = mDOps; mDOps = ops;
+            seqs = mSeqs; mSeqs = mDSeqs; mDSeqs = seqs;
+            values = mValues; mValues = mDValues; mDValues = values;
+            durations = mDurations; mDurations = mDDurations; mDDurations = durations;
+            mCount = 0;
+        }
+
+        out.percent = -1;
+        out.rampMs = 0;
+        out.count = n;
+        if (n == 0) return false;
+
+        int cur = currentPercent;
+        int ramp = 0;
+        boolean changed = false;
+
+        for (int i = 0; i < n; i++) {
+            int v = clamp(values[i]);
+            switch (ops[i]) {
+            case OP_SET:
+                cur = v;
+                ramp = 0;
+                changed = true;
+                break;
+            case OP_RAMP:
+                cur = v;
+                ramp = Math.max(0, durations[i]);
+                changed = true;
+                break;
+            case OP_PUSH:
+                push(cur);
+                cur = v;
+                ramp = 0;
+                changed = true;
+                break;
+            case OP_POP:
+                if (mStackSize > 0) {
+                    cur = mStack[--mStackSize];
+                    ramp = 0;
+                    changed = true;
+                }
+                break;
+            case OP_TOGGLE:
+                cur = Math.round(100 * BrightnessRules.toggle(cur / 100.0f, minPercent, maxPercent));
+                ramp = 0;
+                changed = true;
+                break;
+            }
+        }
+
+        out.lastSeq = seqs[n - 1];
+        out.lastClient = clients[n - 1];
+        if (!changed) return false;
+
+        out.percent = cur;
+        out.rampMs = ramp;
+        return true;
+    }
+
+    /**
+     * Forgets the last seq accepted from a client, e.g. when it unbinds or
+     * dies, so that it can start again from any seq. Thread-safe.
+     */
+    public void resetClient(int client) {
+        synchronized (mLock) {
+            for (int i = 0; i < mClientCount; i++) {
+                if (mSeqClients[i] == client) {
+                    mClientCount--;
+                    mSeqClients[i] = mSeqClients[mClientCount];
+                    mClientSeqs[i] = mClientSeqs[mClientCount];
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Forgets the last seq accepted from all clients. Thread-safe. */
+    public void resetClients() {
+        synchronized (mLock) {
+            mClientCount = 0;
+        }
+    }
+
+    /** Returns the profile stack depth. */
+    public int getStackSize() {
+        return mStackSize;
+    }
+
+    private void push(int percent) {
+        if (mStackSize == MAX_STACK) {
+            System.arraycopy(mStack, 1, mStack, 0, MAX_STACK - 1);
+            mStackSize--;
+        }
+        mStack[mStackSize++] = percent;
+    }
+
+    private boolean acceptSeq(int client, long seq) {
+        for (int i = 0; i < mClientCount; i++) {
+            if (mSeqClients[i] == client) {
+                if (seq <= mClientSeqs[i]) return false;
+                mClientSeqs[i] = seq;
+                return true;
+            }
+        }
+        if (mClientCount == mSeqClients.length) {
+            int[] c = new int[mClientCount * 2];
+            long[] s = new long[mClientCount * 2];
+            System.arraycopy(mSeqClients, 0, c, 0, mClientCount);
+            System.arraycopy(mClientSeqs, 0, s, 0, mClientCount);
+            mSeqClients = c;
+            mClientSeqs = s;
+        }
+        mSeqClients[mClientCount] = client;
+        mClientSeqs[mClientCount] = seq;
+        mClientCount++;
+        return true;
+    }
+
+    private void grow() {
+        int size = mOps.length * 2;
+        mClients = copyOf(mClients, size);
+        mOps = copyOf(mOps, size);
+        mValues = copyOf(mValues, size);
+        mDurations = copyOf(mDurations, size);
+        long[] s = new long[size];
+        System.arraycopy(mSeqs, 0, s, 0, mCount);
+        mSeqs = s;
+        // Keep the drain buffers the same size for the next swap.
+        mDClients = new int[size];
+        mDOps = new int[size];
+        mDSeqs = new long[size];
+        mDValues = new int[size];
+        mDDurations = new int[size];
+    }
+
+    private int[] copyOf(int[] a, int size) {
+        int[] b = new int[size];
+        System.arraycopy(a, 0, b, 0, mCount);
+        return b;
+    }
+
+    private static int clamp(int percent) {
+        return percent < 0 ? 0 : (percent > 100 ? 100 : percent);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Lets other apps drive the brightness through {@link IBrightnessCommands}.
+ * <p/>
+ * Commands are queued by the binder threads in a {@link BrightnessCommandQueue}
+ * and applied on a background thread at most once per frame, so that a
+ * client can send hundreds of commands per second. Ramps need a window and
+ * are forwarded to {@link ChangeBrightnessActivity}.
+ * <p/>
+ * Bind with the {@link #ACTION_BIND} action. Clients need the
+ * com.alfray.brighteriffic.permission.CHANGE_BRIGHTNESS permission.
+ */
+public class BrightnessCommandService extends Service {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = BrightnessCommandService.class.getSimpleName();
+
+    /** Action to bind to this service. */
+    public static final String ACTION_BIND = "com.alfray.brighteriffic.BRIGHTNESS_COMMANDS";
+
+    /** Min delay between two applies. */
+    private static final long MIN_INTERVAL_MS = 16;
+
+    private final BrightnessCommandQueue mQueue = new BrightnessCommandQueue();
+    private final BrightnessCommandQueue.Result mResult = new BrightnessCommandQueue.Result();
+    private final RemoteCallbackList<IBrightnessCallback> mCallbacks =
+        new RemoteCallbackList<IBrightnessCallback>() {
+            @Override
+            public void onCallbackDied(IBrightnessCallback callback, Object cookie) {
+                // A dead client may come back with a fresh seq. The cookie is only
+                // set on API 4+, where RemoteCallbackList supports them.
+                if (cookie instanceof Integer) mQueue.resetClient((Integer) cookie);
+            }
+        };
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private BrightnessChanger mChanger;
+    private PrefsValues mPrefs;
+    private volatile long mLastApplyMs;
+
+    private final Runnable mDrain = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    private final IBrightnessCommands.Stub mBinder = new IBrightnessCommands.Stub() {
+        public void submit(int[] ops, long[] seqs, int[] values, int[] durations) {
+            if (ops == null || seqs == null || values == null || durations == null) return;
+            int n = Math.min(Math.min(ops.length, seqs.length),
+                             Math.min(values.length, durations.length));
+            int client = Binder.getCallingUid();
+
+            boolean schedule = false;
+            for (int i = 0; i < n; i++) {
+                schedule |= mQueue.offer(client, ops[i], seqs[i], values[i], durations[i]);
+            }
+            if (schedule) {
+                long at = Math.max(SystemClock.uptimeMillis(), mLastApplyMs + MIN_INTERVAL_MS);
+                mHandler.postAtTime(mDrain, at);
+            }
+        }
+
+        public void registerCallback(IBrightnessCallback callback) {
+            if (callback == null) return;
+            if (Utils.getApiLevel() >= 4) {
+                mCallbacks.register(callback, Integer.valueOf(Binder.getCallingUid()));
+            } else {
+                mCallbacks.register(callback);
+            }
+        }
+
+        public void unregisterCallback(IBrightnessCallback callback) {
+            if (callback == null) return;
+            mCallbacks.unregister(callback);
+            mQueue.resetClient(Binder.getCallingUid());
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mPrefs = new PrefsValues(this);
+        mChanger = new BrightnessChanger(this);
+
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        // All clients are gone, the next ones start their seqs over.
+        mQueue.resetClients();
+        return false;
+    }
+
+    @Override
+    public void onDestroy() {
+        mCallbacks.kill();
+        mHandler.post(new Runnable() {
+            public void run() {
+                // Apply anything still queued before going away.
+                drain();
+                mThread.quit();
+            }
+        });
+        super.onDestroy();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.print("Pending commands: ");
+        pw.println(mQueue.size());
+        pw.print("Profile stack: ");
+        pw.println(mQueue.getStackSize());
+        LatencyStats.dump(pw);
+    }
+
+    // --- runs on mThread ---
+
+    private void drain() {
+        long t = LatencyStats.now();
+        PrefsValues.Snapshot s = mPrefs.getSnapshot();
+        int current = Math.round(100 * mChanger.getCurrentBrightness());
+        BrightnessCommandQueue.Result r = mResult;
+
+        if (!mQueue.drain(current, s.minBrightness, s.maxBrightness, r)) return;
+        mLastApplyMs = SystemClock.uptimeMillis();
+
+        if (DEBUG) {
+            Log.d(TAG, "Reduced " + Integer.toString(r.count) + " commands to " +
+                    Integer.toString(r.percent) + "%");
+        }
+
+        if (r.rampMs > 0 || !BrightnessChanger.canApplyHeadless()) {
+            Intent i = new Intent();
+            i.putExtra(ChangeBrightnessActivity.INTENT_SET_BRIGHTNESS, r.percent / 100.0f);
+            i.putExtra(ChangeBrightnessActivity.INTENT_RAMP_MS, r.rampMs);
+            i.putExtra(ChangeBrightnessActivity.INTENT_SOURCE, BrightnessJournal.SOURCE_REMOTE);
+            BrightnessChanger.requestChange(this, i);
+        } else {
+            float f = mChanger.setCurrentBrightness(r.percent / 100.0f, null /*window*/,
+                    BrightnessJournal.SOURCE_REMOTE);
+            if (f >= 0) {
+                Arbitration.noteChange(this, BrightnessJournal.SOURCE_REMOTE,
+                        Math.round(100 * f), 0 /*holdMs*/);
+            }
+            LatencyStats.record(LatencyStats.STAGE_TOTAL, t);
+        }
+
+        notifyApplied(r.lastSeq, r.percent);
+    }
+
+    private void notifyApplied(long seq, int percent) {
+        int n = mCallbacks.beginBroadcast();
+        for (int i = 0; i < n; i++) {
+            try {
+                mCallbacks.getBroadcastItem(i).onApplied(seq, percent);
+            } catch (RemoteException e) {
+                // The RemoteCallbackList removes dead callbacks.
+            }
+        }
+        mCallbacks.finishBroadcast();
+    }
+}
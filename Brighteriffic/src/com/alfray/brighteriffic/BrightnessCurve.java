@@ -0,0 +1,253 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * Maps the brightness percent shown to the user to the backlight level.
+ * <p/>
+ * A curve is written as a spec string:
+ * <ul>
+ * <li> "" or "linear": level proportional to percent, the historical mapping.
+ * <li> "gamma:G": level proportional to percent^G, e.g. "gamma:2.2".
+ * <li> "cie": percent is the CIE 1976 lightness L*.
+ * <li> "spline:P=L,P=L,...": a monotone cubic spline through the given
+ *      percent=level points, e.g. "spline:0=1,50=40,100=255".
+ * </ul>
+ * Curves are precomputed into two tables, percent to level and level to
+ * percent, so that a conversion is one array index.
+ * <p/>
+ * Levels are never moved to make the curve strictly increasing: a steep
+ * curve like "gamma:2.2" has several percents on the same level at the low
+ * end, and so does any level clamped to BR_MIN. Such a plateau of percents
+ * all give the same backlight, and a level maps back to the lowest percent
+ * of its plateau.
+ * <p/>
+ * So round trips are only lossless per level: percent to level to percent
+ * gives the lowest percent of the plateau, not always the percent given,
+ * and that percent converts to the same level again. Only the linear curve
+ * has no plateau. Splines whose levels go down are rejected.
+ * Doesn't depend on Android.
+ */
+public class BrightnessCurve {
+
+    private static final int BR_MIN = BrightnessBackend.BR_MIN;
+    private static final int BR_MAX = BrightnessBackend.BR_MAX;
+
+    public static final BrightnessCurve LINEAR = createLinear();
+
+    /** The last curve returned by {@link #forSpec(String)}. */
+    private static volatile Cached sCached = new Cached("", LINEAR);
+
+    private static class Cached {
+        final String mSpec;
+        final BrightnessCurve mCurve;
+
+        Cached(String spec, BrightnessCurve curve) {
+            mSpec = spec;
+            mCurve = curve;
+        }
+    }
+
+    /** Percent 0..100 to level BR_MIN..BR_MAX */
+    private final short[] mLevels = new short[101];
+    /** Level 0..BR_MAX to percent 0..100 */
+    private final byte[] mPercents = new byte[BR_MAX + 1];
+
+    private BrightnessCurve(double[] levels) {
+        int n = mLevels.length;
+        int[] t = new int[n];
+        for (int p = 0; p < n; p++) {
+            int v = (int) Math.round(levels[p]);
+            v = v < BR_MIN ? BR_MIN : (v > BR_MAX ? BR_MAX : v);
+            // The curves are monotone, this only guards against rounding.
+            t[p] = p > 0 && v < t[p - 1] ? t[p - 1] : v;
+        }
+
+        // Each level maps to the largest percent whose level is not above it,
+        // then to the lowest percent of that level.
+        int p = 0;
+        int first = 0;
+        for (int level = 0; level <= BR_MAX; level++) {
+            while (p + 1 < n && t[p + 1] <= level) {
+                p++;
+                if (t[p] != t[p - 1]) first = p;
+            }
+            mPercents[level] = (byte) first;
+        }
+        for (p = 0; p < n; p++) {
+            mLevels[p] = (short) t[p];
+        }
+    }
+
+    /** Converts a percent 0..100 to a backlight level. Out of range values are clamped. */
+    public int percentToLevel(int percent) {
+        if (percent < 0) percent = 0;
+        if (percent > 100) percent = 100;
+        return mLevels[percent];
+    }
+
+    /** Converts a backlight level 0..255 to a percent. Out of range values are clamped. */
+    public int levelToPercent(int level) {
+        if (level < 0) level = 0;
+        if (level > BR_MAX) level = BR_MAX;
+        return mPercents[level];
+    }
+
+    /** Converts a brightness in range 0..1, i.e. a percent / 100, to a level. */
+    public int fractionToLevel(float f) {
+        return percentToLevel(Math.round(100 * f));
+    }
+
+    /**
+     * Returns the curve for a spec, see class doc. The last curve is cached.
+     * Invalid specs give the linear curve.
+     */
+    public static BrightnessCurve forSpec(String spec) {
+        if (spec == null) spec = "";
+        Cached c = sCached;
+        if (c.mSpec == spec || c.mSpec.equals(spec)) return c.mCurve;
+
+        BrightnessCurve curve = parse(spec);
+        if (curve == null) curve = LINEAR;
+        sCached = new Cached(spec, curve);
+        return curve;
+    }
+
+    /** Parses a spec, see class doc. Returns null if invalid. */
+    public static BrightnessCurve parse(String spec) {
+        spec = spec.trim();
+        try {
+            if (spec.length() == 0 || spec.equals("linear")) {
+                return LINEAR;
+            } else if (spec.equals("cie")) {
+                return createCieLightness();
+            } else if (spec.startsWith("gamma:")) {
+                double g = Double.parseDouble(spec.substring(6));
+                if (g <= 0 || g > 10) return null;
+                return createGamma(g);
+            } else if (spec.startsWith("spline:")) {
+                String[] entries = spec.substring(7).split(",");
+                int n = entries.length;
+                if (n < 2) return null;
+                double[] xs = new double[n];
+                double[] ys = new double[n];
+                for (int i = 0; i < n; i++) {
+                    String e = entries[i].trim();
+                    int eq = e.indexOf('=');
+                    if (eq < 1) return null;
+                    xs[i] = Integer.parseInt(e.substring(0, eq));
+                    ys[i] = Integer.parseInt(e.substring(eq + 1));
+                    if (xs[i] < 0 || xs[i] > 100) return null;
+                    if (i > 0 && xs[i] <= xs[i - 1]) return null;
+                    if (ys[i] < 0 || ys[i] > BR_MAX) return null;
+                    if (i > 0 && ys[i] < ys[i - 1]) return null;
+                }
+                return createSpline(xs, ys);
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        return null;
+    }
+
+    private static BrightnessCurve createLinear() {
+        double[] levels = new double[101];
+        for (int p = 0; p <= 100; p++) {
+            // Truncate like the historical (int) (BR_MAX * f).
+            levels[p] = (BR_MAX * p) / 100;
+        }
+        return new BrightnessCurve(levels);
+    }
+
+    public static BrightnessCurve createGamma(double gamma) {
+        double[] levels = new double[101];
+        for (int p = 0; p <= 100; p++) {
+            levels[p] = BR_MAX * Math.pow(p / 100.0, gamma);
+        }
+        return new BrightnessCurve(levels);
+    }
+
+    public static BrightnessCurve createCieLightness() {
+        double[] levels = new double[101];
+        for (int p = 0; p <= 100; p++) {
+            // Inverse of CIE 1976 L*, with L* = p.
+            double y = p > 8 ? Math.pow((p + 16) / 116.0, 3) : p / 903.3;
+            levels[p] = BR_MAX * y;
+        }
+        return new BrightnessCurve(levels);
+    }
+
+    /**
+     * Creates a monotone cubic (Fritsch-Carlson) spline through the given
+     * points. Outside of the points the end values are extended.
+     *
+     * @param xs Percents, strictly increasing.
+     * @param ys Levels, one per percent, not decreasing.
+     */
+    public static BrightnessCurve createSpline(double[] xs, double[] ys) {
+        int n = xs.length;
+        double[] d = new double[n - 1];
+        double[] m = new double[n];
+
+        for (int i = 0; i < n - 1; i++) {
+            d[i] = (ys[i + 1] - ys[i]) / (xs[i + 1] - xs[i]);
+        }
+        m[0] = d[0];
+        m[n - 1] = d[n - 2];
+        for (int i = 1; i < n - 1; i++) {
+            m[i] = d[i - 1] * d[i] <= 0 ? 0 : (d[i - 1] + d[i]) / 2;
+        }
+        for (int i = 0; i < n - 1; i++) {
+            if (d[i] == 0) {
+                m[i] = 0;
+                m[i + 1] = 0;
+                continue;
+            }
+            double a = m[i] / d[i];
+            double b = m[i + 1] / d[i];
+            double h = a * a + b * b;
+            if (h > 9) {
+                double t = 3 / Math.sqrt(h);
+                m[i] = t * a * d[i];
+                m[i + 1] = t * b * d[i];
+            }
+        }
+
+        double[] levels = new double[101];
+        int k = 0;
+        for (int p = 0; p <= 100; p++) {
+            if (p <= xs[0]) {
+                levels[p] = ys[0];
+            } else if (p >= xs[n - 1]) {
+                levels[p] = ys[n - 1];
+            } else {
+                while (p > xs[k + 1]) k++;
+                double h = xs[k + 1] - xs[k];
+                double t = (p - xs[k]) / h;
+                double t2 = t * t;
+                double t3 = t2 * t;
+                levels[p] = (2 * t3 - 3 * t2 + 1) * ys[k]
+                        + (t3 - 2 * t2 + t) * h * m[k]
+                        + (-2 * t3 + 3 * t2) * ys[k + 1]
+                        + (t3 - t2) * h * m[k + 1];
+            }
+        }
+        return new BrightnessCurve(levels);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded journal of applied brightness changes, kept in a memory-mapped
+ * ring file so that it survives process death.
+ * <p/>
+ * The file is a 32-byte header followed by fixed-size 32-byte records:
+ * <pre>
+ * header: int magic, int version, int recordSize, int capacity, long nextSeq
+ * record: long seq+1 (0 if empty), long timeMs, int latencyUs,
+ *         short source, short oldLevel, short newLevel, 6 bytes reserved
+ * </pre>
+ * All values are big endian. Levels are in range 0..255, -1 if unknown.
+ * <p/>
+ * Writing a record takes a slot with an atomic counter and only does absolute
+ * puts in the mapped buffer: it never locks nor allocates. A record's seq is
+ * written last so that readers skip a record being written.
+ * Doesn't depend on Android.
+ */
+public class BrightnessJournal {
+
+    public static final int SOURCE_OTHER = 0;
+    public static final int SOURCE_WIDGET = 1;
+    public static final int SOURCE_DOCK = 2;
+    public static final int SOURCE_UI = 3;
+    public static final int SOURCE_SCHEDULE = 4;
+    public static final int SOURCE_AUTO = 5;
+    public static final int SOURCE_REMOTE = 6;
+    public static final int SOURCE_HOLD = 7;
+
+    private static final String[] SOURCE_NAMES = {
+        "other", "widget", "dock", "ui", "schedule", "auto", "remote", "hold"
+    };
+
+    /** "BrJ1" */
+    private static final int MAGIC = 0x42724A31;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+    private static final int OFS_NEXT_SEQ = 16;
+
+    /** Default number of records kept. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** Receives the records read by {@link BrightnessJournal#read(Visitor)}. */
+    public interface Visitor {
+        public void onRecord(long seq, long timeMs, int source,
+                int oldLevel, int newLevel, int latencyUs);
+    }
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final AtomicLong mNextSeq;
+
+    private BrightnessJournal(ByteBuffer buffer, int capacity, long nextSeq) {
+        mBuffer = buffer;
+        mCapacity = capacity;
+        mNextSeq = new AtomicLong(nextSeq);
+    }
+
+    /**
+     * Opens or creates a journal file for writing. An existing file with a
+     * different layout or capacity is reset.
+     */
+    public static BrightnessJournal open(File file, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean reset = raf.length() != size;
+            raf.setLength(size);
+            FileChannel fc = raf.getChannel();
+            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.order(ByteOrder.BIG_ENDIAN);
+
+            if (reset ||
+                    buf.getInt(0) != MAGIC ||
+                    buf.getInt(4) != VERSION ||
+                    buf.getInt(8) != RECORD_SIZE ||
+                    buf.getInt(12) != capacity) {
+                for (int i = 0; i < size; i += 8) {
+                    buf.putLong(i, 0);
+                }
+                buf.putInt(0, MAGIC);
+                buf.putInt(4, VERSION);
+                buf.putInt(8, RECORD_SIZE);
+                buf.putInt(12, capacity);
+            }
+
+            return new BrightnessJournal(buf, capacity, buf.getLong(OFS_NEXT_SEQ));
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens an existing journal file read-only, e.g. from a plain JVM.
+     *
+     * @throws IOException if the file is not a journal.
+     */
+    public static BrightnessJournal openReadOnly(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long size = raf.length();
+            if (size < HEADER_SIZE) throw new IOException("Not a journal: " + file);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.BIG_ENDIAN);
+
+            int capacity = buf.getInt(12);
+            if (buf.getInt(0) != MAGIC ||
+                    buf.getInt(4) != VERSION ||
+                    buf.getInt(8) != RECORD_SIZE ||
+                    capacity <= 0 ||
+                    size != HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+                throw new IOException("Not a journal: " + file);
+            }
+
+            return new BrightnessJournal(buf, capacity, buf.getLong(OFS_NEXT_SEQ));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Returns the name of a SOURCE_ value. */
+    public static String getSourceName(int source) {
+        if (source >= 0 && source < SOURCE_NAMES.length) return SOURCE_NAMES[source];
+        return Integer.toString(source);
+    }
+
+    /**
+     * Records an applied change. Thread-safe, lock-free and allocation-free.
+     *
+     * @param timeMs Wall clock time of the change.
+     * @param source One of the SOURCE_ values.
+     * @param oldLevel The level before the change, 0..255 or -1.
+     * @param newLevel The level applied, 0..255.
+     * @param latencyUs How long applying took, in microseconds.
+     */
+    public void record(long timeMs, int source, int oldLevel, int newLevel, int latencyUs) {
+        long seq = mNextSeq.getAndIncrement();
+        int pos = HEADER_SIZE + (int) (seq % mCapacity) * RECORD_SIZE;
+        ByteBuffer b = mBuffer;
+
+        b.putLong(pos, 0);
+        b.putLong(pos + 8, timeMs);
+        b.putInt(pos + 16, latencyUs);
+        b.putShort(pos + 20, (short) source);
+        b.putShort(pos + 22, (short) oldLevel);
+        b.putShort(pos + 24, (short) newLevel);
+        b.putLong(pos, seq + 1);
+
+        // Racing writers may briefly store an older value, readers
+        // check each record's seq anyway.
+        b.putLong(OFS_NEXT_SEQ, seq + 1);
+    }
+
+    /** Returns the max number of records kept. */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Visits the records still in the ring, oldest first.
+     *
+     * @return The number of records visited.
+     */
+    public int read(Visitor visitor) {
+        ByteBuffer b = mBuffer;
+        long next = Math.max(mNextSeq.get(), b.getLong(OFS_NEXT_SEQ));
+        long seq = next > mCapacity ? next - mCapacity : 0;
+        int n = 0;
+
+        for (; seq < next; seq++) {
+            int pos = HEADER_SIZE + (int) (seq % mCapacity) * RECORD_SIZE;
+            if (b.getLong(pos) != seq + 1) continue;
+
+            long timeMs = b.getLong(pos + 8);
+            int latencyUs = b.getInt(pos + 16);
+            int source = b.getShort(pos + 20);
+            int oldLevel = b.getShort(pos + 22);
+            int newLevel = b.getShort(pos + 24);
+
+            // Skip a record overwritten while it was being read.
+            if (b.getLong(pos) != seq + 1) continue;
+
+            visitor.onRecord(seq, timeMs, source, oldLevel, newLevel, latencyUs);
+            n++;
+        }
+        return n;
+    }
+}
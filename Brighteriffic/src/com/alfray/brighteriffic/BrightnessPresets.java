@@ -0,0 +1,130 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * An ordered list of up to {@link #MAX_PRESETS} brightness presets in percent.
+ * <p/>
+ * The list is stored packed in a single long: byte i holds preset i + 1, or 0
+ * when unused. Presets are kept sorted and distinct so that finding the next
+ * or previous preset is a binary search.
+ * Doesn't depend on Android.
+ */
+public class BrightnessPresets {
+
+    public static final int MAX_PRESETS = 8;
+
+    private final int[] mPercents;
+    private final int mCount;
+
+    /** Unpacks a list created by {@link #pack(int[], int)}. */
+    public BrightnessPresets(long packed) {
+        int[] p = new int[MAX_PRESETS];
+        int n = 0;
+        for (int i = 0; i < MAX_PRESETS; i++) {
+            int b = (int) ((packed >>> (8 * i)) & 0xFF);
+            if (b > 0 && b <= 101) p[n++] = b - 1;
+        }
+        mCount = sortUnique(p, n);
+        mPercents = p;
+    }
+
+    /**
+     * Packs presets into a long. Values are clamped to 0..100, sorted and
+     * duplicates removed. Only the first {@link #MAX_PRESETS} are used.
+     */
+    public static long pack(int[] percents, int count) {
+        int[] p = new int[MAX_PRESETS];
+        int n = Math.min(count, MAX_PRESETS);
+        for (int i = 0; i < n; i++) {
+            p[i] = Math.max(0, Math.min(100, percents[i]));
+        }
+        n = sortUnique(p, n);
+
+        long packed = 0;
+        for (int i = 0; i < n; i++) {
+            packed |= (long) (p[i] + 1) << (8 * i);
+        }
+        return packed;
+    }
+
+    /** Returns the number of presets. */
+    public int size() {
+        return mCount;
+    }
+
+    /** Returns the preset at index 0..size()-1, sorted ascending. */
+    public int get(int index) {
+        return mPercents[index];
+    }
+
+    /**
+     * Returns the first preset above the current brightness, wrapping to the
+     * lowest one. Returns -1 if there are no presets.
+     */
+    public int next(int currentPercent) {
+        if (mCount == 0) return -1;
+        int i = upperBound(currentPercent);
+        return mPercents[i < mCount ? i : 0];
+    }
+
+    /**
+     * Returns the last preset below the current brightness, wrapping to the
+     * highest one. Returns -1 if there are no presets.
+     */
+    public int previous(int currentPercent) {
+        if (mCount == 0) return -1;
+        int i = upperBound(currentPercent - 1) - 1;
+        return mPercents[i >= 0 ? i : mCount - 1];
+    }
+
+    /** Returns the index of the first preset > key. */
+    private int upperBound(int key) {
+        int lo = 0;
+        int hi = mCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mPercents[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Sorts a[0..n[ and removes duplicates. Returns the new count. */
+    private static int sortUnique(int[] a, int n) {
+        // Insertion sort, there are at most 8 values.
+        for (int i = 1; i < n; i++) {
+            int v = a[i];
+            int j = i;
+            while (j > 0 && a[j - 1] > v) {
+                a[j] = a[j - 1];
+                j--;
+            }
+            a[j] = v;
+        }
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || a[m - 1] != a[i]) a[m++] = a[i];
+        }
+        return m;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Smoothly moves the brightness from its current value to a target.
+ * <p/>
+ * Each frame pushes one value to a "frame" backend (typically the window
+ * attribute) and the "commit" backend (typically the global setting) is
+ * only written once when the ramp ends. The ramp interpolates in perceived
+ * lightness rather than in backlight level so that the fade looks even.
+ * <p/>
+ * There's a single ramp per process. Starting a new ramp while one is running
+ * retargets it from its current value. Frames run on the main looper and
+ * don't allocate.
+ */
+public class BrightnessRamp {
+
+    /** Approximate display frame duration. */
+    private static final long FRAME_MS = 16;
+    /** Display gamma used to go from backlight fraction to perceived lightness. */
+    private static final double GAMMA = 2.2;
+
+    private static final int BR_MIN = BrightnessBackend.BR_MIN;
+    private static final int BR_MAX = BrightnessBackend.BR_MAX;
+
+    /** Notified when a ramp ends. */
+    public interface RampListener {
+        /**
+         * Called on the main thread when the ramp stops.
+         *
+         * @param completed True if the target was reached and committed, false
+         *   if the ramp was cancelled or handed over to another listener.
+         */
+        public void onRampEnd(boolean completed);
+    }
+
+    private static BrightnessRamp sInstance;
+
+    private final Handler mHandler;
+    private final Runnable mFrame;
+
+    private boolean mRunning;
+    private long mStartMs;
+    private long mDurationMs;
+    /** Start and end expressed in perceived lightness 0..1 */
+    private double mFromL;
+    private double mToL;
+    private float mTarget;
+    private float mCurrent;
+    private int mLastLevel;
+    private BrightnessBackend mFrameBackend;
+    private BrightnessBackend mCommitBackend;
+    private RampListener mListener;
+
+    /** Returns the process-wide ramp. Must be called on the main thread. */
+    public static BrightnessRamp getInstance() {
+        if (sInstance == null) {
+            sInstance = new BrightnessRamp();
+        }
+        return sInstance;
+    }
+
+    private BrightnessRamp() {
+        mHandler = new Handler(Looper.getMainLooper());
+        mFrame = new Runnable() {
+            public void run() {
+                onFrame();
+            }
+        };
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /** Returns the brightness last pushed by the ramp, as a backlight level / BR_MAX */
+    public float getCurrent() {
+        return mCurrent;
+    }
+
+    /**
+     * Starts a ramp or retargets the running one.
+     *
+     * @param from The current brightness in range 0..1. Ignored if a ramp is
+     *   already running, in which case the ramp continues from where it is.
+     * @param target The target brightness in range 0..1
+     * @param durationMs The ramp duration. Zero or less commits right away.
+     * @param frameBackend The backend updated at each frame. Can be null in
+     *   which case the target is committed right away.
+     * @param commitBackend The backend written once at the end.
+     * @param listener Optional listener. If a previous ramp had a different
+     *   listener, that one is told the ramp ended without completing.
+     */
+    public void start(float from,
+            float target,
+            long durationMs,
+            BrightnessBackend frameBackend,
+            BrightnessBackend commitBackend,
+            RampListener listener) {
+
+        if (mRunning) {
+            from = mCurrent;
+            mHandler.removeCallbacks(mFrame);
+        } else {
+            mLastLevel = -1;
+        }
+
+        RampListener previous = mListener;
+        mListener = listener;
+        if (previous != null && previous != listener) {
+            previous.onRampEnd(false);
+        }
+
+        mFrameBackend = frameBackend;
+        mCommitBackend = commitBackend;
+        mTarget = target;
+        mCurrent = from;
+
+        if (durationMs <= 0 || frameBackend == null) {
+            mRunning = true;
+            end();
+            return;
+        }
+
+        mFromL = toLightness(from);
+        mToL = toLightness(target);
+        mDurationMs = durationMs;
+        mStartMs = SystemClock.uptimeMillis();
+        mRunning = true;
+        mHandler.post(mFrame);
+    }
+
+    /**
+     * Stops the running ramp, if any, and leaves the brightness where it is.
+     * Nothing is committed.
+     */
+    public void cancel() {
+        if (!mRunning) return;
+        mRunning = false;
+        mHandler.removeCallbacks(mFrame);
+        notifyEnd(false);
+    }
+
+    /**
+     * Jumps to the target and commits it if the running ramp belongs to the
+     * given listener. Use when the frame backend is going away, e.g. when
+     * the activity owning the window is destroyed.
+     */
+    public void finishNow(RampListener owner) {
+        if (mRunning && mListener == owner) {
+            mHandler.removeCallbacks(mFrame);
+            end();
+        }
+    }
+
+    private void onFrame() {
+        if (!mRunning) return;
+
+        long elapsed = SystemClock.uptimeMillis() - mStartMs;
+        if (elapsed >= mDurationMs) {
+            end();
+            return;
+        }
+
+        double t = (double) elapsed / mDurationMs;
+        // smoothstep ease-in-out
+        t = t * t * (3 - 2 * t);
+        double l = mFromL + (mToL - mFromL) * t;
+        mCurrent = fromLightness(l);
+
+        pushFrame(mCurrent);
+
+        mHandler.postAtTime(mFrame, SystemClock.uptimeMillis() + FRAME_MS);
+    }
+
+    private void end() {
+        mCurrent = mTarget;
+        if (mFrameBackend != null) pushFrame(mTarget);
+        if (mCommitBackend != null) {
+            mCommitBackend.setBrightness(toLevel(mTarget), mTarget);
+        }
+        mRunning = false;
+        notifyEnd(true);
+    }
+
+    private void pushFrame(float f) {
+        int level = toLevel(f);
+        if (level != mLastLevel) {
+            // only push when the backlight would actually change
+            mLastLevel = level;
+            mFrameBackend.setBrightness(level, (float) level / BR_MAX);
+        }
+    }
+
+    private void notifyEnd(boolean completed) {
+        RampListener l = mListener;
+        mListener = null;
+        mFrameBackend = null;
+        mCommitBackend = null;
+        if (l != null) l.onRampEnd(completed);
+    }
+
+    private static int toLevel(float f) {
+        int v = Math.round(BR_MAX * f);
+        return v < BR_MIN ? BR_MIN : (v > BR_MAX ? BR_MAX : v);
+    }
+
+    private static double toLightness(float f) {
+        return f <= 0 ? 0 : Math.pow(f, 1 / GAMMA);
+    }
+
+    private static float fromLightness(double l) {
+        return l <= 0 ? 0 : (float) Math.pow(l, GAMMA);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+/**
+ * Headless version of {@link ChangeBrightnessActivity}: accepts the same
+ * set/save/toggle extras but applies the brightness without showing a window.
+ * <p/>
+ * Only usable when {@link BrightnessChanger#canApplyHeadless()} is true.
+ *
+ * For debugging:
+ * $ adb -d shell am broadcast -a com.alfray.brighteriffic.APPLY_BRIGHTNESS --ez toggle true
+ */
+public class BrightnessReceiver extends BroadcastReceiver {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = BrightnessReceiver.class.getSimpleName();
+
+    /** Action to invoke this receiver. */
+    public static final String ACTION_APPLY_BRIGHTNESS = "com.alfray.brighteriffic.APPLY_BRIGHTNESS";
+
+    public BrightnessReceiver() {
+        // Nothing here. This is constructed for *each* call.
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!ACTION_APPLY_BRIGHTNESS.equals(intent.getAction())) {
+            if (DEBUG) Log.d(TAG, "Unknown intent: " + intent.getAction());
+            return;
+        }
+
+        long start = DEBUG ? SystemClock.uptimeMillis() : 0;
+        long receiveNs = LatencyStats.now();
+
+        BrightnessChanger bc = new BrightnessChanger(context);
+        bc.setReceiveTime(receiveNs);
+
+        int rampMs = bc.getRampDuration(intent);
+        if (rampMs > 0) {
+            // A ramp needs a window to show the intermediate steps.
+            Intent i = new Intent(context, ChangeBrightnessActivity.class);
+            i.setAction(ChangeBrightnessActivity.ACTION_TOGGLE_BRIGHTNESS);
+            i.putExtras(intent);
+            i.putExtra(ChangeBrightnessActivity.INTENT_RAMP_MS, rampMs);
+            i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            context.startActivity(i);
+            return;
+        }
+
+        float result = bc.applyIntent(intent, null /*window*/);
+
+        if (DEBUG) {
+            Log.d(TAG, "Receive-to-applied: " +
+                    Long.toString(SystemClock.uptimeMillis() - start) + " ms");
+        }
+
+        if (result >= 0) {
+            Toast
+                .makeText(context,
+                    context.getString(R.string.brightness_changed_toast, Math.round(100*result)),
+                    Toast.LENGTH_SHORT)
+                .show();
+        }
+
+        LatencyStats.record(LatencyStats.STAGE_TOTAL, receiveNs);
+    }
+}
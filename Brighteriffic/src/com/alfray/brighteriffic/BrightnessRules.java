@@ -0,0 +1,143 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * The brightness decisions taken by the toggle and the dock receiver.
+ * <p/>
+ * This class doesn't depend on Android so that the same code can be replayed
+ * on a plain JVM, c.f. the PolicySimulator of SimTools.
+ */
+public final class BrightnessRules {
+
+    /** Same values as Intent.EXTRA_DOCK_STATE_UNDOCKED and friends. */
+    public static final int DOCK_UNDOCKED = 0;
+    public static final int DOCK_DESK = 1;
+    public static final int DOCK_CAR = 2;
+    public static final int DOCK_LE_DESK = 3;
+    public static final int DOCK_HE_DESK = 4;
+
+    /** Dock profile presets. */
+    private static final int PRESET_CAR = 1;
+    private static final int PRESET_DESK = 2;
+    private static final int PRESET_SAVED = 3;
+
+    /** Dock profile save/restore policies. */
+    /** Save the current brightness before applying the preset. */
+    private static final int POLICY_SAVE = 1;
+    /** Apply and forget the saved brightness. */
+    private static final int POLICY_RESTORE = 2;
+
+    /** Dock profile table, indexed by dock state. */
+    private static final int[] DOCK_PRESET = {
+        PRESET_SAVED,   // DOCK_UNDOCKED
+        PRESET_DESK,    // DOCK_DESK
+        PRESET_CAR,     // DOCK_CAR
+        PRESET_DESK,    // DOCK_LE_DESK
+        PRESET_DESK,    // DOCK_HE_DESK
+    };
+    private static final int[] DOCK_POLICY = {
+        POLICY_RESTORE, // DOCK_UNDOCKED
+        POLICY_SAVE,    // DOCK_DESK
+        POLICY_SAVE,    // DOCK_CAR
+        POLICY_SAVE,    // DOCK_LE_DESK
+        POLICY_SAVE,    // DOCK_HE_DESK
+    };
+
+    /** Result of {@link BrightnessRules#decideDock}. Meant to be reused. */
+    public static class DockDecision {
+        /** The brightness to apply in percent or -1 for none. */
+        public int value;
+        /** True if the current brightness must be saved before applying. */
+        public boolean save;
+        /** True if the saved brightness must be cleared. */
+        public boolean clearSaved;
+    }
+
+    private BrightnessRules() {
+    }
+
+    /**
+     * Picks the toggle target: min if the current brightness is above the
+     * min/max median, max otherwise.
+     *
+     * @param current The current brightness in range 0..1
+     * @param minPercent The min pref, in percent.
+     * @param maxPercent The max pref, in percent.
+     * @return The new brightness in range 0..1
+     */
+    public static float toggle(float current, int minPercent, int maxPercent) {
+        float _min = minPercent / 100.0f;
+        float _max = maxPercent / 100.0f;
+        if (_min > _max) {
+            float t = _min;
+            _min = _max;
+            _max = t;
+        }
+
+        float median = (_min + _max) / 2;
+
+        return current > median ? _min : _max;
+    }
+
+    /**
+     * Decides what to do on a dock event, using the dock profile table.
+     *
+     * @param state One of the DOCK_ constants. Unknown states do nothing.
+     * @param saved The saved brightness pref, -1 if none.
+     * @param out Receives the decision.
+     * @return True if there's a brightness to apply, i.e. out.value is valid.
+     */
+    public static boolean decideDock(int state,
+            boolean useCar, int car,
+            boolean useDesk, int desk,
+            int saved,
+            DockDecision out) {
+        out.value = -1;
+        out.save = false;
+        out.clearSaved = false;
+
+        if (state < 0 || state >= DOCK_PRESET.length) return false;
+
+        switch (DOCK_PRESET[state]) {
+        case PRESET_CAR:
+            if (useCar) out.value = car;
+            break;
+        case PRESET_DESK:
+            if (useDesk) out.value = desk;
+            break;
+        case PRESET_SAVED:
+            out.value = saved;
+            break;
+        }
+
+        switch (DOCK_POLICY[state]) {
+        case POLICY_SAVE:
+            // Only save the user's brightness, never a preset that is
+            // already applied, e.g. when going from desk to car.
+            out.save = out.value >= 0 && saved == -1;
+            break;
+        case POLICY_RESTORE:
+            out.clearSaved = saved != -1;
+            break;
+        }
+
+        return out.value >= 0 && out.value <= 100;
+    }
+}
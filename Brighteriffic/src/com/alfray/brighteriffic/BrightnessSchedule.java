@@ -0,0 +1,216 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * A daily list of brightness transitions.
+ * <p/>
+ * A schedule is written as a comma-separated list of "Kmm=pp" entries where K
+ * is T for a fixed time, R for sunrise or S for sunset, mm is a number of
+ * minutes (minutes of the day for T, a signed offset for R and S) and pp is
+ * the brightness in percent. For example "T420=75,S-30=40,T1380=10".
+ * <p/>
+ * For a given day the entries are resolved into a table sorted by time so
+ * that looking up the current value or the next transition is a binary search.
+ * The last two resolved days are cached. Doesn't depend on Android.
+ */
+public class BrightnessSchedule {
+
+    public static final int KIND_TIME = 0;
+    public static final int KIND_SUNRISE = 1;
+    public static final int KIND_SUNSET = 2;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final int[] mKinds;
+    private final int[] mOffsets;
+    private final int[] mValues;
+    private final SolarCalculator mSolar;
+
+    // Two cache slots of resolved day tables.
+    private final int[] mDayKeys = { -1, -1 };
+    private final int[] mDayTz = new int[2];
+    private final int[][] mDayMinutes;
+    private final int[][] mDayValues;
+    private final int[] mDayCount = new int[2];
+    private int mNextSlot;
+
+    private BrightnessSchedule(int[] kinds, int[] offsets, int[] values, SolarCalculator solar) {
+        mKinds = kinds;
+        mOffsets = offsets;
+        mValues = values;
+        mSolar = solar;
+        int n = kinds.length;
+        mDayMinutes = new int[][] { new int[n], new int[n] };
+        mDayValues  = new int[][] { new int[n], new int[n] };
+    }
+
+    /**
+     * Parses a schedule spec.
+     *
+     * @param spec The schedule, see class doc.
+     * @param solar The calculator for R and S entries. If null, those entries are ignored.
+     * @return Null if the spec is empty or invalid.
+     */
+    public static BrightnessSchedule parse(String spec, SolarCalculator solar) {
+        if (spec == null) return null;
+        spec = spec.trim();
+        if (spec.length() == 0) return null;
+
+        String[] entries = spec.split(",");
+        int n = entries.length;
+        int[] kinds = new int[n];
+        int[] offsets = new int[n];
+        int[] values = new int[n];
+
+        try {
+            for (int i = 0; i < n; i++) {
+                String e = entries[i].trim();
+                int eq = e.indexOf('=');
+                if (e.length() < 2 || eq < 2) return null;
+
+                switch (e.charAt(0)) {
+                case 'T':
+                    kinds[i] = KIND_TIME;
+                    break;
+                case 'R':
+                    kinds[i] = KIND_SUNRISE;
+                    break;
+                case 'S':
+                    kinds[i] = KIND_SUNSET;
+                    break;
+                default:
+                    return null;
+                }
+
+                String off = e.substring(1, eq);
+                if (off.startsWith("+")) off = off.substring(1);
+                offsets[i] = Integer.parseInt(off);
+                values[i] = Integer.parseInt(e.substring(eq + 1));
+
+                if (values[i] < 0 || values[i] > 100) return null;
+                if (kinds[i] == KIND_TIME &&
+                        (offsets[i] < 0 || offsets[i] >= MINUTES_PER_DAY)) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return new BrightnessSchedule(kinds, offsets, values, solar);
+    }
+
+    /**
+     * Returns the brightness in effect at the given minute of the day, or -1
+     * if the schedule has no transition that day. Before the first transition
+     * of the day, the last transition of the same day is used as an
+     * approximation of the previous evening.
+     *
+     * @param dayKey A value identifying the day, e.g. year * 1000 + dayOfYear.
+     * @param dayOfYear 1..366
+     * @param tzOffsetMinutes Local time offset from UTC for that day.
+     * @param minute The local minute of the day, 0..1439
+     */
+    public int getValueAt(int dayKey, int dayOfYear, int tzOffsetMinutes, int minute) {
+        int slot = resolve(dayKey, dayOfYear, tzOffsetMinutes);
+        int n = mDayCount[slot];
+        if (n == 0) return -1;
+        int i = upperBound(mDayMinutes[slot], n, minute) - 1;
+        if (i < 0) i = n - 1;
+        return mDayValues[slot][i];
+    }
+
+    /**
+     * Returns the minute of the first transition strictly after the given
+     * minute on that day, or -1 if there's none. Use minute -1 to get the
+     * first transition of the day.
+     *
+     * @see #getValueAt(int, int, int, int)
+     */
+    public int getNextTransition(int dayKey, int dayOfYear, int tzOffsetMinutes, int minute) {
+        int slot = resolve(dayKey, dayOfYear, tzOffsetMinutes);
+        int n = mDayCount[slot];
+        int i = upperBound(mDayMinutes[slot], n, minute);
+        return i < n ? mDayMinutes[slot][i] : -1;
+    }
+
+    /** Returns the index of the first element > key in a[0..n[ */
+    private static int upperBound(int[] a, int n, int key) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int resolve(int dayKey, int dayOfYear, int tz) {
+        for (int s = 0; s < 2; s++) {
+            if (mDayKeys[s] == dayKey && mDayTz[s] == tz) return s;
+        }
+
+        int slot = mNextSlot;
+        mNextSlot = 1 - slot;
+
+        int[] minutes = mDayMinutes[slot];
+        int[] values = mDayValues[slot];
+        int count = 0;
+
+        for (int i = 0; i < mKinds.length; i++) {
+            int m;
+            if (mKinds[i] == KIND_TIME) {
+                m = mOffsets[i];
+            } else {
+                if (mSolar == null) continue;
+                int base = mKinds[i] == KIND_SUNRISE ?
+                        mSolar.getSunrise(dayKey, dayOfYear, tz) :
+                        mSolar.getSunset(dayKey, dayOfYear, tz);
+                if (base == SolarCalculator.NONE) continue;
+                m = base + mOffsets[i];
+                if (m < 0) m = 0;
+                if (m >= MINUTES_PER_DAY) m = MINUTES_PER_DAY - 1;
+            }
+
+            // Insertion sort, there are only a few entries. A later entry at
+            // the same minute replaces the earlier one.
+            int j = count;
+            while (j > 0 && minutes[j - 1] > m) j--;
+            if (j > 0 && minutes[j - 1] == m) {
+                values[j - 1] = mValues[i];
+                continue;
+            }
+            System.arraycopy(minutes, j, minutes, j + 1, count - j);
+            System.arraycopy(values, j, values, j + 1, count - j);
+            minutes[j] = m;
+            values[j] = mValues[i];
+            count++;
+        }
+
+        mDayKeys[slot] = dayKey;
+        mDayTz[slot] = tz;
+        mDayCount[slot] = count;
+        return slot;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+import android.provider.Settings.SettingNotFoundException;
+import android.util.Log;
+
+/**
+ * Process-wide cache of the system brightness settings.
+ * <p/>
+ * While there are listeners, a {@link ContentObserver} on
+ * {@link Settings.System#SCREEN_BRIGHTNESS} and SCREEN_BRIGHTNESS_MODE keeps
+ * the cached values current, whoever changes them, so that readers get them
+ * with a volatile read and no IPC. The observer is registered by the first
+ * listener, i.e. again after process death, and unregistered with the last
+ * one. The cache logic is in {@link BrightnessCache}.
+ */
+public class BrightnessState extends BrightnessCache {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = BrightnessState.class.getSimpleName();
+
+    /** Settings.System.SCREEN_BRIGHTNESS_MODE, API 8. */
+    private static final String SCREEN_BRIGHTNESS_MODE = "screen_brightness_mode";
+
+    private static BrightnessState sInstance;
+
+    public static synchronized BrightnessState getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BrightnessState(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private BrightnessState(Context appContext) {
+        super(new SettingsSource(appContext.getContentResolver()));
+    }
+
+    /** Reads and observes the system settings. */
+    private static class SettingsSource implements Source {
+
+        private final ContentResolver mResolver;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private ContentObserver mObserver;
+
+        public SettingsSource(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        public int readLevel() {
+            try {
+                int level = Settings.System.getInt(mResolver, Settings.System.SCREEN_BRIGHTNESS);
+                if (DEBUG) Log.d(TAG, "Brightness " + Integer.toString(level));
+                return level;
+            } catch (SettingNotFoundException e) {
+                return UNKNOWN;
+            }
+        }
+
+        public int readMode() {
+            if (Utils.getApiLevel() < 8) return MODE_MANUAL;
+            return Settings.System.getInt(mResolver, SCREEN_BRIGHTNESS_MODE, MODE_MANUAL);
+        }
+
+        public void register(final Runnable onChange) {
+            // Callbacks come on a binder thread.
+            mObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    onChange.run();
+                }
+            };
+            mResolver.registerContentObserver(
+                    Settings.System.getUriFor(Settings.System.SCREEN_BRIGHTNESS),
+                    false, mObserver);
+            if (Utils.getApiLevel() >= 8) {
+                mResolver.registerContentObserver(
+                        Settings.System.getUriFor(SCREEN_BRIGHTNESS_MODE),
+                        false, mObserver);
+            }
+        }
+
+        public void unregister() {
+            if (mObserver != null) {
+                mResolver.unregisterContentObserver(mObserver);
+                mObserver = null;
+            }
+        }
+
+        public void post(Runnable r) {
+            mHandler.post(r);
+        }
+    }
+}
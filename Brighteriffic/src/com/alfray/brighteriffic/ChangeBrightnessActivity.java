@@ -18,34 +18,22 @@
 
 package com.alfray.brighteriffic;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-
 import android.app.Activity;
 import android.content.Intent;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.IHardwareService;
 import android.os.Message;
-import android.os.ServiceManager;
-import android.provider.Settings;
-import android.provider.Settings.SettingNotFoundException;
+import android.os.SystemClock;
 import android.util.Log;
-import android.view.Window;
-import android.view.WindowManager.LayoutParams;
 import android.widget.Toast;
 
+import com.alfray.brighteriffic.BrightnessRamp.RampListener;
+
 public class ChangeBrightnessActivity extends Activity {
 
+    private static final boolean DEBUG = false;
     private static final String TAG = "ChangeBrightness";
 
-    /** Using 0 will actually turn the screen off! */
-    private static final int BR_MIN = 1;
-    /** Max brightness from the API (c.f. PowerManager source, constant
-     *  is not public.) */
-    private static final int BR_MAX = 255;
-
     /** Action to invoke this activity. */
     public static final String ACTION_TOGGLE_BRIGHTNESS = "com.alfray.brighteriffic.TOGGLE_BRIGHTNESS";
 
@@ -60,7 +48,36 @@ public class ChangeBrightnessActivity extends Activity {
     /** Toggle between preset min and max brightness values. Must be boolean True. */
     public static final String INTENT_TOGGLE_BRIGHTNESS = "toggle";
 
+    /** Cycle through the brightness presets. Int: 1 for the next higher
+     * preset, -1 for the next lower one. Both wrap around.
+     */
+    public static final String INTENT_CYCLE_PRESET = "cycle";
+
+    /** Jump to a brightness preset. Int: the preset index, from 0 for the lowest. */
+    public static final String INTENT_JUMP_PRESET = "preset";
+
+    /** Duration of the brightness ramp in milliseconds. Int.
+     * Defaults to {@link PrefsValues#getRampDuration()}. Zero changes
+     * the brightness in one step.
+     */
+    public static final String INTENT_RAMP_MS = "ramp";
+
+    /** Who requested the change, one of the BrightnessJournal.SOURCE_ values. Int.
+     * Defaults to {@link BrightnessJournal#SOURCE_OTHER}.
+     */
+    public static final String INTENT_SOURCE = "source";
+
+    /** Keep the new brightness for that many milliseconds, over the dock, schedule
+     * and auto brightness, then go back to what they want. Int. Defaults to 0:
+     * the change is permanent.
+     */
+    public static final String INTENT_HOLD_MS = "hold";
+
     private Handler mHandler;
+    private long mStartMs;
+    /** {@link LatencyStats#now()} time of onCreate, 0 once finished. */
+    private long mReceiveNs;
+    private RampListener mRampListener;
 
     public ChangeBrightnessActivity() {
         mHandler = new Handler() {
@@ -79,129 +96,114 @@ public class ChangeBrightnessActivity extends Activity {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        setContentView(R.layout.empty);
+        if (DEBUG) mStartMs = SystemClock.uptimeMillis();
+        mReceiveNs = LatencyStats.now();
 
         Intent i = getIntent();
-
-        if (i.getBooleanExtra(INTENT_SAVE_BRIGHTNESS, false)) {
-            float f = getCurrentBrightness();
-            PrefsValues pv = new PrefsValues(this);
-            pv.setSavedBrightness((int) (100 * f));
-        }
-
-        float f = i.getFloatExtra(INTENT_SET_BRIGHTNESS, -1);
+        BrightnessChanger bc = new BrightnessChanger(this);
+        bc.setReceiveTime(mReceiveNs);
 
         float result = -1;
+        int rampMs = bc.getRampDuration(i);
 
-        if (f >= 0) {
-            result = setCurrentBrightness(f);
-
-        } else if (i.getBooleanExtra(INTENT_TOGGLE_BRIGHTNESS, false)) {
-
-            PrefsValues prefValues = new PrefsValues(this);
-            float _min = prefValues.getMinBrightness() / 100.0f;
-            float _max = prefValues.getMaxBrightness() / 100.0f;
-            if (_min > _max) {
-                float t = _min;
-                _min = _max;
-                _max = t;
-            }
+        if (rampMs > 0) {
+            setContentView(R.layout.empty);
+            startRamp(bc, i, rampMs);
+            return;
+        }
 
-            float median = (_min + _max) / 2;
+        if (BrightnessChanger.canApplyHeadless()) {
+            // No need for a window, the setting change is enough.
+            result = bc.applyIntent(i, null /*window*/);
+            showToast(result);
+            finish();
+            return;
+        }
 
-            if (getCurrentBrightness() > median) {
-                result = setCurrentBrightness(_min);
-            } else {
-                result = setCurrentBrightness(_max);
-            }
+        setContentView(R.layout.empty);
 
-        }
+        result = bc.applyIntent(i, getWindow());
 
         Message msg = mHandler.obtainMessage(42);
         mHandler.sendMessageDelayed(msg, 1000); // this makes it all work
 
-        if (result >= 0) {
-            Toast
-                .makeText(this,
-                    getString(R.string.brightness_changed_toast, (int)(100*result)),
-                    Toast.LENGTH_SHORT)
-                .show();
-        }
+        showToast(result);
     }
 
-    /** Sets the actual brightness. Enforce that you never set it to zero.
-     * Returns float > 0 if actually managed to change the brightness */
-    private float setCurrentBrightness(float f) {
-
-        int v = (int) (BR_MAX * f);
-        if (v < BR_MIN) {
-            // never set backlight too dark
-            v = BR_MIN;
-            f = (float)v / BR_MAX;
+    @Override
+    protected void onDestroy() {
+        if (mRampListener != null) {
+            // The window is going away, don't leave the ramp half-way.
+            BrightnessRamp.getInstance().finishNow(mRampListener);
+            mRampListener = null;
         }
+        super.onDestroy();
+    }
 
-        Settings.System.putInt(this.getContentResolver(),
-                Settings.System.SCREEN_BRIGHTNESS,
-                v);
-
-        int sdk = -1;
-        try {
-            sdk = Integer.parseInt(Build.VERSION.SDK);
-        } catch (Exception e) {
-            Log.i(TAG, String.format("Failed to parse SDK Version '%s'", Build.VERSION.SDK));
+    private void startRamp(BrightnessChanger bc, Intent i, int rampMs) {
+        float target = bc.resolveTarget(i);
+        if (target < 0) {
+            finish();
+            return;
         }
-        if (sdk >= 3) {
-
-            try {
-                Window win = getWindow();
-                LayoutParams attr = win.getAttributes();
-                Field field = attr.getClass().getField("screenBrightness");
-                field.setFloat(attr, f);
-
-                win.setAttributes(attr);
-
-                Log.i(TAG, String.format("Changed brightness to %.2f [SDK 3+]", f));
-
-                return f;
-
-            } catch (Throwable t) {
-                Log.e(TAG, String.format("Failed to set brightness to %.2f [SDK 3+]", f), t);
-            }
 
-        } else {
-            // Older SDKs
-            try {
-                IHardwareService hs = IHardwareService.Stub.asInterface(
-                        ServiceManager.getService("hardware"));
-                if (hs != null) {
-                    Method m = hs.getClass().getMethod("setScreenBacklight", new Class[] { int.class });
-                    if (m != null) {
-                        m.invoke(hs, new Object[] { v });
-                        Log.i(TAG, String.format("Changed brightness to %d [SDK<3]", v));
-                        return f;
-                    }
+        final int source = i.getIntExtra(INTENT_SOURCE, BrightnessJournal.SOURCE_OTHER);
+        final int fromLevel = BrightnessState.getInstance(this).getLevel();
+        final long startNs = LatencyStats.now();
+
+        mRampListener = new RampListener() {
+            public void onRampEnd(boolean completed) {
+                mRampListener = null;
+                long t = mReceiveNs == 0 ? LatencyStats.now() :
+                    LatencyStats.record(LatencyStats.STAGE_RAMP, mReceiveNs);
+                ChangeJournal.record(ChangeBrightnessActivity.this,
+                        source,
+                        fromLevel,
+                        BrightnessState.getInstance(ChangeBrightnessActivity.this).getLevel(),
+                        (int) ((t - startNs) / 1000));
+                if (BrightnessChanger.canApplyHeadless()) {
+                    finish();
+                } else {
+                    Message msg = mHandler.obtainMessage(42);
+                    mHandler.sendMessageDelayed(msg, 1000); // this makes it all work
                 }
-            } catch (Throwable t) {
-                Log.e(TAG, String.format("Failed to set brightness to %d [SDK<3]", v), t);
             }
-        }
+        };
 
-        return -1;
+        // The ramp works on backlight levels.
+        BrightnessRamp.getInstance().start(
+                bc.toLevelFraction(bc.getCurrentBrightness()),
+                bc.toLevelFraction(target),
+                rampMs,
+                BrightnessBackends.createFrameBackend(getWindow()),
+                bc.getSettingsBackend(),
+                mRampListener);
+
+        Arbitration.noteChange(this, source, Math.round(100 * target),
+                i.getIntExtra(INTENT_HOLD_MS, 0));
+        showToast(target);
     }
 
-    /**
-     * Returns screen brightness in range 0..1%.
-     */
-    public float getCurrentBrightness() {
-        try {
-            int v = Settings.System.getInt(getContentResolver(),
-                    Settings.System.SCREEN_BRIGHTNESS);
-
-            return (float)v / BR_MAX;
-        } catch (SettingNotFoundException e) {
-            // If not found, return some default
-            return 0.75f;
+    @Override
+    public void finish() {
+        super.finish();
+        if (mReceiveNs != 0) {
+            LatencyStats.record(LatencyStats.STAGE_TOTAL, mReceiveNs);
+            mReceiveNs = 0;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Create-to-finish: " +
+                    Long.toString(SystemClock.uptimeMillis() - mStartMs) + " ms");
         }
     }
 
+    private void showToast(float result) {
+        if (result >= 0) {
+            Toast
+                .makeText(this,
+                    getString(R.string.brightness_changed_toast, Math.round(100*result)),
+                    Toast.LENGTH_SHORT)
+                .show();
+        }
+    }
 }
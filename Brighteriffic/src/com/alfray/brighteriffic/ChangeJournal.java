@@ -0,0 +1,92 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Process-wide access to the app's {@link BrightnessJournal} file.
+ * <p/>
+ * Call {@link #preload(Context)} early so that the file is mapped off the
+ * main thread. To pull the journal from a device:
+ * $ adb -d pull /data/data/com.alfray.brighteriffic/files/journal.bin
+ */
+public class ChangeJournal {
+
+    private static final String TAG = ChangeJournal.class.getSimpleName();
+
+    private static final String FILE_NAME = "journal.bin";
+
+    private static final Object sLock = new Object();
+    private static volatile BrightnessJournal sJournal;
+    private static boolean sFailed;
+
+    /** Opens the journal in a background thread. */
+    public static void preload(Context context) {
+        final Context appContext = context.getApplicationContext();
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                get(appContext);
+            }
+        }, "ChangeJournal-preload");
+        t.start();
+    }
+
+    /** Returns the journal file. */
+    public static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Returns the journal, opening it if {@link #preload(Context)} hasn't
+     * done it yet. Returns null if the file can't be mapped.
+     */
+    public static BrightnessJournal get(Context context) {
+        BrightnessJournal j = sJournal;
+        if (j != null) return j;
+
+        synchronized (sLock) {
+            if (sJournal == null && !sFailed) {
+                try {
+                    sJournal = BrightnessJournal.open(getFile(context),
+                            BrightnessJournal.DEFAULT_CAPACITY);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to open journal", e);
+                    sFailed = true;
+                }
+            }
+            return sJournal;
+        }
+    }
+
+    /**
+     * Records an applied change.
+     * @see BrightnessJournal#record(long, int, int, int, int)
+     */
+    public static void record(Context context, int source, int oldLevel, int newLevel, int latencyUs) {
+        BrightnessJournal j = get(context);
+        if (j != null) {
+            j.record(System.currentTimeMillis(), source, oldLevel, newLevel, latencyUs);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * Writes an int value behind: changes only update the memory copy, and the
+ * last one is written once when {@link #flush()} is called or after an idle
+ * delay without changes.
+ * <p/>
+ * Used by the settings seek bars so that a drag writes its pref once.
+ * Time and delays go through a {@link Scheduler} so that the class can be
+ * driven by a fake clock. Doesn't depend on Android. Not thread-safe: all
+ * calls, including the scheduled ones, must happen on the same thread.
+ */
+public class DebouncedValue implements Runnable {
+
+    /** Source of delayed execution. */
+    public interface Scheduler {
+        /** Runs the runnable after the given delay. */
+        public void schedule(Runnable r, long delayMs);
+        /** Removes any pending run of the runnable. */
+        public void cancel(Runnable r);
+    }
+
+    /** Persists the value. */
+    public interface Writer {
+        public void write(int value);
+    }
+
+    private final Scheduler mScheduler;
+    private final Writer mWriter;
+    private final long mIdleMs;
+    private int mValue;
+    private boolean mDirty;
+    private int mWrites;
+
+    /**
+     * @param idleMs Delay without changes after which the value is written.
+     * @param value The current value, already persisted.
+     */
+    public DebouncedValue(Scheduler scheduler, Writer writer, long idleMs, int value) {
+        mScheduler = scheduler;
+        mWriter = writer;
+        mIdleMs = idleMs;
+        mValue = value;
+    }
+
+    /** Changes the value and restarts the idle delay. */
+    public void set(int value) {
+        mValue = value;
+        mDirty = true;
+        mScheduler.cancel(this);
+        mScheduler.schedule(this, mIdleMs);
+    }
+
+    public int getValue() {
+        return mValue;
+    }
+
+    /** Writes the value now if it changed since the last write. */
+    public void flush() {
+        mScheduler.cancel(this);
+        if (mDirty) {
+            mDirty = false;
+            mWriter.write(mValue);
+            mWrites++;
+        }
+    }
+
+    /** Idle delay expired. */
+    public void run() {
+        flush();
+    }
+
+    /** Number of writes since the last {@link #resetWrites()}. */
+    public int getWrites() {
+        return mWrites;
+    }
+
+    public void resetWrites() {
+        mWrites = 0;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * Coalesces bursts of dock events into a single stable state change.
+ * <p/>
+ * Each event restarts a settle window. When the window expires without a
+ * new event, the listener is called once with the last state, and only if it
+ * differs from the previous stable state. A cradle bouncing between docked
+ * and undocked thus results in exactly one apply, or none at all if it ends
+ * up where it started.
+ * <p/>
+ * Time and delays go through a {@link Scheduler} so that the class can be
+ * driven by a fake clock. Doesn't depend on Android. Not thread-safe: all
+ * calls, including the scheduled ones, must happen on the same thread.
+ */
+public class DockDebouncer {
+
+    /** Source of time and delayed execution. */
+    public interface Scheduler {
+        /** Runs the runnable after the given delay, replacing any pending run of it. */
+        public void schedule(Runnable r, long delayMs);
+        /** Removes any pending run of the runnable. */
+        public void cancel(Runnable r);
+    }
+
+    /** Notified when the dock state has settled. */
+    public interface Listener {
+        /**
+         * A settle window opens, or is extended by a new event.
+         *
+         * @param windowMs Time until it closes if no other event comes.
+         */
+        public void onSettleWindowOpened(long windowMs);
+
+        /**
+         * @param state The new stable dock state.
+         * @param previous The previous stable dock state, -1 if unknown.
+         */
+        public void onDockStateSettled(int state, int previous);
+
+        /** The settle window closed, after {@link #onDockStateSettled} if the state changed. */
+        public void onSettleWindowClosed();
+    }
+
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+    private long mDockSettleMs = 1500;
+    private long mUndockSettleMs = 1500;
+
+    private int mStable = -1;
+    private int mPending = -1;
+    private boolean mOpen;
+
+    private final Runnable mSettle = new Runnable() {
+        public void run() {
+            settle();
+        }
+    };
+
+    public DockDebouncer(Scheduler scheduler, Listener listener) {
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    /**
+     * Sets the settle windows.
+     *
+     * @param dockMs Window used when the last event is a docked state.
+     * @param undockMs Window used when the last event is the undocked state.
+     */
+    public void setSettleWindows(long dockMs, long undockMs) {
+        mDockSettleMs = dockMs;
+        mUndockSettleMs = undockMs;
+    }
+
+    /** Returns the last stable state, -1 if none yet. */
+    public int getStableState() {
+        return mStable;
+    }
+
+    /** Returns true while a settle window is open. */
+    public boolean isSettling() {
+        return mOpen;
+    }
+
+    /**
+     * Feeds a new dock event from any thread. The event is recorded on the
+     * scheduler thread, then done runs there. This is all the work
+     * DockReceiver.onReceive does after validating the intent.
+     *
+     * @param done Run once the event is recorded, e.g. to finish the broadcast.
+     *   Can be null.
+     */
+    public void post(final int state, final Runnable done) {
+        mScheduler.schedule(new Runnable() {
+            public void run() {
+                onDockEvent(state);
+                if (done != null) done.run();
+            }
+        }, 0);
+    }
+
+    /** Feeds a new dock event. Must be called on the scheduler thread. */
+    public void onDockEvent(int state) {
+        mPending = state;
+        mOpen = true;
+        long windowMs = state == BrightnessRules.DOCK_UNDOCKED ? mUndockSettleMs : mDockSettleMs;
+        mListener.onSettleWindowOpened(windowMs);
+        mScheduler.cancel(mSettle);
+        mScheduler.schedule(mSettle, windowMs);
+    }
+
+    private void settle() {
+        if (!mOpen) return;
+        mOpen = false;
+
+        int state = mPending;
+        int previous = mStable;
+        try {
+            if (state != previous) {
+                mStable = state;
+                mListener.onDockStateSettled(state, previous);
+            }
+        } finally {
+            mListener.onSettleWindowClosed();
+        }
+    }
+}
@@ -23,6 +23,11 @@ import android.appwidget.AppWidgetManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.RemoteViews;
 
@@ -35,6 +40,20 @@ public class DockReceiver extends BroadcastReceiver {
     private static boolean DEBUG = false;
     private static String TAG = DockReceiver.class.getSimpleName();
 
+    /** Runs the dock work off the main thread, one event at a time. */
+    private static Handler sHandler;
+    private static DockDebouncer sDebouncer;
+    private static Context sAppContext;
+    /**
+     * Keeps the CPU awake while a settle window is open. Without it the
+     * window could close long after the broadcast is finished, or never
+     * if the process is dropped meanwhile.
+     */
+    private static PowerManager.WakeLock sWakeLock;
+
+    /** How long the wake lock may outlive the settle window, as a bound. */
+    private static final long WAKE_LOCK_MARGIN_MS = 5000;
+
     public DockReceiver() {
         // Nothing here. This is constructed for *each* call.
     }
@@ -59,6 +78,8 @@ public class DockReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
+        long start = DEBUG ? SystemClock.uptimeMillis() : 0;
+
         if (!Intent.ACTION_DOCK_EVENT.equals(intent.getAction())) {
             if (DEBUG) Log.d(TAG, "Unknown intent: " + intent.getAction());
             return;
@@ -71,46 +92,108 @@ public class DockReceiver extends BroadcastReceiver {
             return;
         }
 
-        PrefsValues pv = new PrefsValues(context);
-        int value = -1;
-        boolean save = false;
-
-        switch (state) {
-        case Intent.EXTRA_DOCK_STATE_CAR:
-            // I'm in a car
-            if (pv.getUseCarBrightness()) {
-                value = pv.getCarBrightness();
-                save = true;
-                if (DEBUG) Log.d(TAG, "Use car brightness: " + Integer.toString(value));
-            }
-            break;
-        case Intent.EXTRA_DOCK_STATE_DESK:
-            // I'm at a desk
-            if (pv.getUseDeskBrightness()) {
-                value = pv.getDeskBrightness();
-                save = true;
-                if (DEBUG) Log.d(TAG, "Use desk brightness: " + Integer.toString(value));
-            }
-            break;
-        case Intent.EXTRA_DOCK_STATE_UNDOCKED:
-            // I'm free!
-            value = pv.getSavedBrightness();
-            if (value != -1) {
-                pv.setSavedBrightness(-1);
-                if (DEBUG) Log.d(TAG, "Reset saved brightness: " + Integer.toString(value));
-            }
-            break;
+        DockDebouncer d = getDebouncer(context);
+
+        // Do the work in the background and return right away. The broadcast
+        // is only kept alive until the event is recorded: the settle window
+        // has its own deadline on sHandler and its own wake lock, and a
+        // flapping dock would otherwise keep the broadcast pending past the
+        // receiver timeout.
+        Runnable done = null;
+        if (Utils.getApiLevel() >= 11) {
+            final Object result = goAsync();
+            done = new Runnable() {
+                public void run() {
+                    ((PendingResult) result).finish();
+                }
+            };
         }
+        d.post(state, done);
 
-        if (value >= 0 && value <= 100) {
-            Intent i = new Intent(ChangeBrightnessActivity.ACTION_TOGGLE_BRIGHTNESS);
-            i.putExtra(ChangeBrightnessActivity.INTENT_SET_BRIGHTNESS, value / 100.0f);
-            i.putExtra(ChangeBrightnessActivity.INTENT_SAVE_BRIGHTNESS, save);
-            i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            context.startActivity(i);
-        } else if (DEBUG) {
-            Log.d(TAG, "Brightness out of bounds: " + Integer.toString(value));
+        if (DEBUG) {
+            Log.d(TAG, "onReceive wall time: " +
+                    Long.toString(SystemClock.uptimeMillis() - start) + " ms");
         }
+    }
+
+    private static synchronized DockDebouncer getDebouncer(Context context) {
+        if (sHandler == null) {
+            sAppContext = context.getApplicationContext();
+
+            HandlerThread t = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            t.start();
+            final Handler h = new Handler(t.getLooper());
+
+            PowerManager pm = (PowerManager) sAppContext.getSystemService(Context.POWER_SERVICE);
+            sWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+            sWakeLock.setReferenceCounted(false);
+
+            DockDebouncer.Scheduler scheduler = new DockDebouncer.Scheduler() {
+                public void schedule(Runnable r, long delayMs) {
+                    h.postDelayed(r, delayMs);
+                }
+                public void cancel(Runnable r) {
+                    h.removeCallbacks(r);
+                }
+            };
+
+            DockDebouncer.Listener listener = new DockDebouncer.Listener() {
+                public void onSettleWindowOpened(long windowMs) {
+                    // Restarts the timeout when the window is extended.
+                    sWakeLock.acquire(windowMs + WAKE_LOCK_MARGIN_MS);
+                }
+                public void onDockStateSettled(int state, int previous) {
+                    if (DEBUG) Log.d(TAG, "Settled from " + Integer.toString(previous) +
+                            " to " + Integer.toString(state));
+                    handleDockState(sAppContext, state);
+                }
+                public void onSettleWindowClosed() {
+                    if (sWakeLock.isHeld()) sWakeLock.release();
+                }
+            };
+
+            sDebouncer = new DockDebouncer(scheduler, listener);
+            h.post(new Runnable() {
+                public void run() {
+                    // Read the prefs on the handler thread, before any event.
+                    int settleMs = new PrefsValues(sAppContext).getDockSettleDelay();
+                    sDebouncer.setSettleWindows(settleMs, settleMs);
+                }
+            });
+            sHandler = h;
+        }
+        return sDebouncer;
+    }
 
+    private static void handleDockState(Context context, int state) {
+        PrefsValues pv = new PrefsValues(context);
+        PrefsValues.Snapshot s = pv.getSnapshot();
+        BrightnessRules.DockDecision d = new BrightnessRules.DockDecision();
+
+        // The arbiter keeps the undocked brightness as its base, there's
+        // nothing to save or restore here.
+        boolean valid = BrightnessRules.decideDock(state,
+                s.useCarBrightness, s.carBrightness,
+                s.useDeskBrightness, s.deskBrightness,
+                -1 /*saved*/,
+                d);
+
+        BrightnessArbiter a = Arbitration.get(context);
+        long now = System.currentTimeMillis();
+        int effective;
+        if (valid) {
+            if (a.getClaimCount() == 0) {
+                // Going back to this on undock, including changes made by other apps.
+                a.setBase(Math.round(100 * new BrightnessChanger(context).getCurrentBrightness()),
+                        now);
+            }
+            effective = a.claim(BrightnessArbiter.OWNER_DOCK, BrightnessArbiter.PRIORITY_DOCK,
+                    d.value, 0 /*expiresAtMs*/, now);
+        } else {
+            if (DEBUG) Log.d(TAG, "No brightness for dock state " + Integer.toString(state));
+            effective = a.release(BrightnessArbiter.OWNER_DOCK, now);
+        }
+        Arbitration.commit(context);
+        Arbitration.apply(context, effective, BrightnessJournal.SOURCE_DOCK);
     }
 }
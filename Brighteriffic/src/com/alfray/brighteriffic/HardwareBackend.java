@@ -0,0 +1,70 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.lang.reflect.Method;
+
+import android.os.IHardwareService;
+import android.os.ServiceManager;
+import android.util.Log;
+
+/**
+ * Legacy path for SDK < 3: calls the hidden IHardwareService.setScreenBacklight.
+ * <p/>
+ * The service and the method are looked up once, in {@link #create()}.
+ */
+class HardwareBackend implements BrightnessBackend {
+
+    private static final String TAG = "HardwareBackend";
+
+    private final IHardwareService mService;
+    private final Method mSetBacklight;
+
+    private HardwareBackend(IHardwareService service, Method setBacklight) {
+        mService = service;
+        mSetBacklight = setBacklight;
+    }
+
+    /** Returns a new backend or null if the hardware service is not available. */
+    public static HardwareBackend create() {
+        try {
+            IHardwareService hs = IHardwareService.Stub.asInterface(
+                    ServiceManager.getService("hardware"));
+            if (hs != null) {
+                Method m = hs.getClass().getMethod("setScreenBacklight", new Class[] { int.class });
+                if (m != null) {
+                    return new HardwareBackend(hs, m);
+                }
+            }
+        } catch (Throwable t) {
+            Log.e(TAG, "Failed to find setScreenBacklight [SDK<3]", t);
+        }
+        return null;
+    }
+
+    public boolean setBrightness(int level, float fraction) {
+        try {
+            mSetBacklight.invoke(mService, new Object[] { level });
+            return true;
+        } catch (Throwable t) {
+            Log.e(TAG, "Failed to set brightness [SDK<3]", t);
+        }
+        return false;
+    }
+}
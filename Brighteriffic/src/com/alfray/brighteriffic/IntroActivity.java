@@ -24,9 +24,6 @@ import java.util.Locale;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.AssetManager;
 import android.os.Bundle;
 import android.util.Log;
@@ -50,26 +47,14 @@ public class IntroActivity extends Activity {
 
     private class JSTimerifficVersion {
 
-        private String mVersion;
-
         public String longVersion() {
-            if (mVersion == null) {
-                PackageManager pm = getPackageManager();
-                PackageInfo pi;
-                try {
-                    pi = pm.getPackageInfo(getPackageName(), 0);
-                    mVersion = pi.versionName;
-                } catch (NameNotFoundException e) {
-                    mVersion = ""; // failed, ignored
-                }
-            }
-            return mVersion;
+            return Utils.getVersionName(IntroActivity.this);
         }
 
         public String shortVersion() {
             String v = longVersion();
-            v = v.substring(0, v.lastIndexOf('.'));
-            return v;
+            int pos = v.lastIndexOf('.');
+            return pos < 0 ? v : v.substring(0, pos);
         }
     }
 
@@ -0,0 +1,131 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free histogram of durations in nanoseconds.
+ * <p/>
+ * Buckets are log-linear: each power of two is split into 8 linear
+ * sub-buckets, so a bucket is at most 12.5% wide. Values from 0 to about
+ * 2^43 ns (2.4 hours) are tracked; larger ones go in the last bucket.
+ * Recording is a few atomic adds and never allocates.
+ * Doesn't depend on Android.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_SHIFT = 40;
+    /** Number of buckets. */
+    public static final int BUCKETS = (MAX_SHIFT + 2) * SUB_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /** An immutable copy of a histogram. */
+    public static class Snapshot {
+        public final long[] counts = new long[BUCKETS];
+        public long count;
+        public long sumNs;
+        public long maxNs;
+
+        /** Returns the mean in ns, 0 if empty. */
+        public long getMean() {
+            return count == 0 ? 0 : sumNs / count;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile in ns, 0 if empty.
+         *
+         * @param p The percentile in range 0..100.
+         */
+        public long getPercentile(double p) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(count * p / 100);
+            if (rank < 1) rank = 1;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(getBucketMax(i), maxNs);
+            }
+            return maxNs;
+        }
+    }
+
+    /** Records a duration. Negative values count as zero. */
+    public void record(long ns) {
+        if (ns < 0) ns = 0;
+        mCounts.incrementAndGet(getBucket(ns));
+        mCount.incrementAndGet();
+        mSum.addAndGet(ns);
+
+        long max = mMax.get();
+        while (ns > max && !mMax.compareAndSet(max, ns)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Copies the histogram into the given snapshot. Concurrent records may be
+     * partially included.
+     */
+    public Snapshot getSnapshot(Snapshot s) {
+        if (s == null) s = new Snapshot();
+        for (int i = 0; i < BUCKETS; i++) {
+            s.counts[i] = mCounts.get(i);
+        }
+        s.count = mCount.get();
+        s.sumNs = mSum.get();
+        s.maxNs = mMax.get();
+        return s;
+    }
+
+    /** Clears the histogram. Not atomic with respect to concurrent records. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /** Returns the bucket index of a duration. */
+    public static int getBucket(long ns) {
+        if (ns < SUB_COUNT) return (int) ns;
+        int msb = 63 - Long.numberOfLeadingZeros(ns);
+        int shift = msb - SUB_BITS;
+        if (shift > MAX_SHIFT) return BUCKETS - 1;
+        return ((shift + 1) << SUB_BITS) + (int) ((ns >>> shift) & (SUB_COUNT - 1));
+    }
+
+    /** Returns the largest duration that falls in the given bucket. */
+    public static long getBucketMax(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        if (bucket >= BUCKETS - 1) return Long.MAX_VALUE;
+        int shift = (bucket >> SUB_BITS) - 1;
+        long sub = SUB_COUNT + (bucket & (SUB_COUNT - 1));
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.io.PrintWriter;
+
+/**
+ * Process-wide latency histograms of the brightness change stages.
+ * <p/>
+ * Usage on a hot path:
+ * <pre>
+ * long t = LatencyStats.now();
+ * ...
+ * t = LatencyStats.record(LatencyStats.STAGE_PREFS, t);
+ * </pre>
+ * Times come from {@link System#nanoTime()}, i.e. CLOCK_MONOTONIC on Android,
+ * which stops in deep sleep. That's fine for the short stages measured here.
+ * It is not the clock behind SystemClock.elapsedRealtimeNanos (API 17+),
+ * which is CLOCK_BOOTTIME and keeps counting in deep sleep.
+ * <p/>
+ * The histograms can be read from the "Latency stats" menu of
+ * {@link BrighterifficUI}, or with the services' dump() while they run, e.g.
+ * $ adb -d shell dumpsys activity service com.alfray.brighteriffic/.AutoBrightnessService
+ * Doesn't depend on Android.
+ */
+public class LatencyStats {
+
+    /** From intent receipt to the target brightness being resolved. */
+    public static final int STAGE_RECEIVE = 0;
+    /** Reading the prefs needed to resolve the target. */
+    public static final int STAGE_PREFS = 1;
+    /** Writing the setting and applying it with the backends. */
+    public static final int STAGE_APPLY = 2;
+    /** From intent receipt to activity finish or receiver return. */
+    public static final int STAGE_TOTAL = 3;
+    /** From intent receipt to the end of a ramp. */
+    public static final int STAGE_RAMP = 4;
+    /**
+     * From intent receipt to the brightness being applied, on both the
+     * headless path of {@link BrightnessReceiver} and the window path of
+     * {@link ChangeBrightnessActivity}. This is the tap-to-applied time minus
+     * the launch of the component, i.e. the activity launch isn't counted.
+     */
+    public static final int STAGE_APPLIED = 5;
+
+    public static final int STAGE_COUNT = 6;
+
+    private static final String[] STAGE_NAMES = {
+        "receive", "prefs", "apply", "total", "ramp", "applied"
+    };
+
+    private static final LatencyHistogram[] sHistograms = new LatencyHistogram[STAGE_COUNT];
+    static {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            sHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /** Returns the current time in ns for stage timings. */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of a stage that started at startNs.
+     *
+     * @return The current time, to chain the next stage.
+     */
+    public static long record(int stage, long startNs) {
+        long t = System.nanoTime();
+        sHistograms[stage].record(t - startNs);
+        return t;
+    }
+
+    /** Returns a copy of the histogram of a stage. */
+    public static LatencyHistogram.Snapshot getSnapshot(int stage) {
+        return sHistograms[stage].getSnapshot(null);
+    }
+
+    /** Returns the name of a STAGE_ value. */
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /** Clears all histograms. */
+    public static void reset() {
+        for (LatencyHistogram h : sHistograms) {
+            h.reset();
+        }
+    }
+
+    /**
+     * Measures the cost of recording one stage, in ns, using a scratch
+     * histogram so that the real ones are not affected.
+     */
+    public static long measureOverhead(int iterations) {
+        LatencyHistogram h = new LatencyHistogram();
+        long t = System.nanoTime();
+        long start = t;
+        for (int i = 0; i < iterations; i++) {
+            long t2 = System.nanoTime();
+            h.record(t2 - t);
+            t = t2;
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    /** Prints all histograms: count, mean, p50, p90, p99 and max in microseconds. */
+    public static void dump(PrintWriter pw) {
+        LatencyHistogram.Snapshot s = new LatencyHistogram.Snapshot();
+        pw.println("Brightness change latency (us):");
+        pw.println("  stage      count     mean      p50      p90      p99      max");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            sHistograms[i].getSnapshot(s);
+            pw.print("  ");
+            pad(pw, STAGE_NAMES[i], -8);
+            pad(pw, Long.toString(s.count), 8);
+            pad(pw, toUs(s.getMean()), 9);
+            pad(pw, toUs(s.getPercentile(50)), 9);
+            pad(pw, toUs(s.getPercentile(90)), 9);
+            pad(pw, toUs(s.getPercentile(99)), 9);
+            pad(pw, toUs(s.maxNs), 9);
+            pw.println();
+        }
+        pw.print("  recording overhead: ");
+        pw.print(measureOverhead(10000));
+        pw.println(" ns/stage");
+    }
+
+    private static String toUs(long ns) {
+        long tenths = ns / 100;
+        return Long.toString(tenths / 10) + "." + Long.toString(tenths % 10);
+    }
+
+    /** Prints s padded to width; negative width pads on the right. */
+    private static void pad(PrintWriter pw, String s, int width) {
+        int n = Math.abs(width) - s.length();
+        if (width < 0) pw.print(s);
+        for (; n > 0; n--) pw.print(' ');
+        if (width > 0) pw.print(s);
+    }
+}
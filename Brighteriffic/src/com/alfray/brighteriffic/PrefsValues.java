@@ -24,76 +24,529 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.preference.PreferenceManager;
 
+/**
+ * Access to the Brighteriffic settings.
+ * <p/>
+ * All values are kept in a process-wide immutable {@link Snapshot} which is
+ * read without locking. Changes go through a {@link Transaction} so that
+ * several values can be written with a single editor and a single flush.
+ * Call {@link #preload(Context)} early so that the snapshot is loaded
+ * off the main thread.
+ */
 public class PrefsValues {
 
-    private SharedPreferences mPrefs;
+    private static final String KEY_MIN = "minBrightness";
+    private static final String KEY_MAX = "maxBrightness";
+    private static final String KEY_CAR = "carBrightness";
+    private static final String KEY_USE_CAR = "useCarBrightness";
+    private static final String KEY_DESK = "deskBrightness";
+    private static final String KEY_USE_DESK = "useDeskBrightness";
+    private static final String KEY_SAVED = "savedBrightness";
+    private static final String KEY_RAMP = "rampDuration";
+    private static final String KEY_INTRO = "dismiss_intro";
+    private static final String KEY_USE_AUTO = "useAutoBrightness";
+    private static final String KEY_AUTO_CURVE = "autoCurve";
+    private static final String KEY_SCHEDULE = "schedule";
+    private static final String KEY_LATITUDE = "latitude";
+    private static final String KEY_LONGITUDE = "longitude";
+    private static final String KEY_DOCK_SETTLE = "dockSettleDelay";
+    private static final String KEY_CURVE = "brightnessCurve";
+    private static final String KEY_PRESETS = "presets";
+    private static final String KEY_CLAIMS = "claims";
+
+    private static final int F_MIN      = 1 << 0;
+    private static final int F_MAX      = 1 << 1;
+    private static final int F_CAR      = 1 << 2;
+    private static final int F_USE_CAR  = 1 << 3;
+    private static final int F_DESK     = 1 << 4;
+    private static final int F_USE_DESK = 1 << 5;
+    private static final int F_SAVED    = 1 << 6;
+    private static final int F_RAMP     = 1 << 7;
+    private static final int F_INTRO    = 1 << 8;
+    private static final int F_USE_AUTO = 1 << 9;
+    private static final int F_AUTO_CURVE = 1 << 10;
+    private static final int F_SCHEDULE = 1 << 11;
+    private static final int F_LOCATION = 1 << 12;
+    private static final int F_DOCK_SETTLE = 1 << 13;
+    private static final int F_CURVE    = 1 << 14;
+    private static final int F_PRESETS  = 1 << 15;
+    private static final int F_CLAIMS   = 1 << 16;
+
+    private static final Object sLock = new Object();
+    private static SharedPreferences sPrefs;
+    private static volatile Snapshot sSnapshot;
+
+    private final SharedPreferences mPrefs;
+
+    /** An immutable copy of all the settings. */
+    public static class Snapshot {
+        public final int minBrightness;
+        public final int maxBrightness;
+        public final int carBrightness;
+        public final boolean useCarBrightness;
+        public final int deskBrightness;
+        public final boolean useDeskBrightness;
+        public final int savedBrightness;
+        public final int rampDuration;
+        public final boolean introDismissed;
+        public final boolean useAutoBrightness;
+        /** Auto brightness curve exponent, in percent. 100 is linear in log-lux. */
+        public final int autoCurve;
+        /** Brightness schedule, c.f. {@link BrightnessSchedule}. Empty if none. */
+        public final String schedule;
+        /** Location for sunrise/sunset schedules. 0,0 if not set. */
+        public final float latitude;
+        public final float longitude;
+        /** Delay in milliseconds for dock events to settle. */
+        public final int dockSettleDelay;
+        /** Percent to backlight curve, c.f. {@link BrightnessCurve}. Empty for linear. */
+        public final String curve;
+        /** Brightness presets packed by {@link BrightnessPresets#pack(int[], int)}. 0 if none. */
+        public final long presets;
+        /** Brightness arbiter state, c.f. {@link BrightnessArbiter#encode()}. Empty if none. */
+        public final String claims;
+
+        private Snapshot(SharedPreferences prefs) {
+            minBrightness     = prefs.getInt(KEY_MIN, 10);
+            maxBrightness     = prefs.getInt(KEY_MAX, 75);
+            carBrightness     = prefs.getInt(KEY_CAR, 90);
+            useCarBrightness  = prefs.getBoolean(KEY_USE_CAR, false);
+            deskBrightness    = prefs.getInt(KEY_DESK, 50);
+            useDeskBrightness = prefs.getBoolean(KEY_USE_DESK, false);
+            savedBrightness   = prefs.getInt(KEY_SAVED, -1);
+            rampDuration      = prefs.getInt(KEY_RAMP, 0);
+            introDismissed    = prefs.getBoolean(KEY_INTRO, false);
+            useAutoBrightness = prefs.getBoolean(KEY_USE_AUTO, false);
+            autoCurve         = prefs.getInt(KEY_AUTO_CURVE, 100);
+            schedule          = prefs.getString(KEY_SCHEDULE, "");
+            latitude          = prefs.getFloat(KEY_LATITUDE, 0);
+            longitude         = prefs.getFloat(KEY_LONGITUDE, 0);
+            dockSettleDelay   = prefs.getInt(KEY_DOCK_SETTLE, 1500);
+            curve             = prefs.getString(KEY_CURVE, "");
+            presets           = prefs.getLong(KEY_PRESETS, 0);
+            claims            = prefs.getString(KEY_CLAIMS, "");
+        }
+
+        private Snapshot(Transaction t) {
+            minBrightness     = t.mMin;
+            maxBrightness     = t.mMax;
+            carBrightness     = t.mCar;
+            useCarBrightness  = t.mUseCar;
+            deskBrightness    = t.mDesk;
+            useDeskBrightness = t.mUseDesk;
+            savedBrightness   = t.mSaved;
+            rampDuration      = t.mRamp;
+            introDismissed    = t.mIntro;
+            useAutoBrightness = t.mUseAuto;
+            autoCurve         = t.mAutoCurve;
+            schedule          = t.mSchedule;
+            latitude          = t.mLatitude;
+            longitude         = t.mLongitude;
+            dockSettleDelay   = t.mDockSettle;
+            curve             = t.mCurve;
+            presets           = t.mPresets;
+            claims            = t.mClaims;
+        }
+    }
+
+    /**
+     * Accumulates changes to several settings. Nothing is written until
+     * {@link #commit()} is called.
+     */
+    public static class Transaction {
+        private int mChanged;
+        private int mMin;
+        private int mMax;
+        private int mCar;
+        private boolean mUseCar;
+        private int mDesk;
+        private boolean mUseDesk;
+        private int mSaved;
+        private int mRamp;
+        private boolean mIntro;
+        private boolean mUseAuto;
+        private int mAutoCurve;
+        private String mSchedule;
+        private float mLatitude;
+        private float mLongitude;
+        private int mDockSettle;
+        private String mCurve;
+        private long mPresets;
+        private String mClaims;
+
+        private final SharedPreferences mPrefs;
+
+        private Transaction(SharedPreferences prefs) {
+            mPrefs = prefs;
+        }
+
+        public Transaction setMinBrightness(int brightness) {
+            mMin = brightness;
+            mChanged |= F_MIN;
+            return this;
+        }
+
+        public Transaction setMaxBrightness(int brightness) {
+            mMax = brightness;
+            mChanged |= F_MAX;
+            return this;
+        }
+
+        public Transaction setCarBrightness(int brightness) {
+            mCar = brightness;
+            mChanged |= F_CAR;
+            return this;
+        }
+
+        public Transaction setUseCarBrightness(boolean use) {
+            mUseCar = use;
+            mChanged |= F_USE_CAR;
+            return this;
+        }
+
+        public Transaction setDeskBrightness(int brightness) {
+            mDesk = brightness;
+            mChanged |= F_DESK;
+            return this;
+        }
+
+        public Transaction setUseDeskBrightness(boolean use) {
+            mUseDesk = use;
+            mChanged |= F_USE_DESK;
+            return this;
+        }
+
+        public Transaction setSavedBrightness(int brightness) {
+            mSaved = brightness;
+            mChanged |= F_SAVED;
+            return this;
+        }
+
+        public Transaction setRampDuration(int durationMs) {
+            mRamp = durationMs;
+            mChanged |= F_RAMP;
+            return this;
+        }
+
+        public Transaction setIntroDismissed(boolean dismiss) {
+            mIntro = dismiss;
+            mChanged |= F_INTRO;
+            return this;
+        }
+
+        public Transaction setUseAutoBrightness(boolean use) {
+            mUseAuto = use;
+            mChanged |= F_USE_AUTO;
+            return this;
+        }
+
+        public Transaction setAutoCurve(int curvePercent) {
+            mAutoCurve = curvePercent;
+            mChanged |= F_AUTO_CURVE;
+            return this;
+        }
+
+        public Transaction setSchedule(String schedule) {
+            mSchedule = schedule == null ? "" : schedule;
+            mChanged |= F_SCHEDULE;
+            return this;
+        }
+
+        public Transaction setLocation(float latitude, float longitude) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mChanged |= F_LOCATION;
+            return this;
+        }
+
+        public Transaction setDockSettleDelay(int delayMs) {
+            mDockSettle = delayMs;
+            mChanged |= F_DOCK_SETTLE;
+            return this;
+        }
+
+        public Transaction setCurve(String curve) {
+            mCurve = curve == null ? "" : curve;
+            mChanged |= F_CURVE;
+            return this;
+        }
+
+        public Transaction setPresets(long packed) {
+            mPresets = packed;
+            mChanged |= F_PRESETS;
+            return this;
+        }
+
+        public Transaction setClaims(String claims) {
+            mClaims = claims == null ? "" : claims;
+            mChanged |= F_CLAIMS;
+            return this;
+        }
+
+        /**
+         * Publishes the new values in the snapshot and writes all the changed
+         * ones using a single editor.
+         */
+        public void commit() {
+            if (mChanged == 0) return;
+
+            synchronized (sLock) {
+                Snapshot s = getSnapshot(mPrefs);
+                int c = mChanged;
+                Editor e = mPrefs.edit();
+
+                if ((c & F_MIN)      != 0) e.putInt(KEY_MIN, mMin);
+                else mMin = s.minBrightness;
+                if ((c & F_MAX)      != 0) e.putInt(KEY_MAX, mMax);
+                else mMax = s.maxBrightness;
+                if ((c & F_CAR)      != 0) e.putInt(KEY_CAR, mCar);
+                else mCar = s.carBrightness;
+                if ((c & F_USE_CAR)  != 0) e.putBoolean(KEY_USE_CAR, mUseCar);
+                else mUseCar = s.useCarBrightness;
+                if ((c & F_DESK)     != 0) e.putInt(KEY_DESK, mDesk);
+                else mDesk = s.deskBrightness;
+                if ((c & F_USE_DESK) != 0) e.putBoolean(KEY_USE_DESK, mUseDesk);
+                else mUseDesk = s.useDeskBrightness;
+                if ((c & F_SAVED)    != 0) e.putInt(KEY_SAVED, mSaved);
+                else mSaved = s.savedBrightness;
+                if ((c & F_RAMP)     != 0) e.putInt(KEY_RAMP, mRamp);
+                else mRamp = s.rampDuration;
+                if ((c & F_INTRO)    != 0) e.putBoolean(KEY_INTRO, mIntro);
+                else mIntro = s.introDismissed;
+                if ((c & F_USE_AUTO) != 0) e.putBoolean(KEY_USE_AUTO, mUseAuto);
+                else mUseAuto = s.useAutoBrightness;
+                if ((c & F_AUTO_CURVE) != 0) e.putInt(KEY_AUTO_CURVE, mAutoCurve);
+                else mAutoCurve = s.autoCurve;
+                if ((c & F_SCHEDULE) != 0) e.putString(KEY_SCHEDULE, mSchedule);
+                else mSchedule = s.schedule;
+                if ((c & F_LOCATION) != 0) {
+                    e.putFloat(KEY_LATITUDE, mLatitude);
+                    e.putFloat(KEY_LONGITUDE, mLongitude);
+                } else {
+                    mLatitude = s.latitude;
+                    mLongitude = s.longitude;
+                }
+                if ((c & F_DOCK_SETTLE) != 0) e.putInt(KEY_DOCK_SETTLE, mDockSettle);
+                else mDockSettle = s.dockSettleDelay;
+                if ((c & F_CURVE)    != 0) e.putString(KEY_CURVE, mCurve);
+                else mCurve = s.curve;
+                if ((c & F_PRESETS)  != 0) e.putLong(KEY_PRESETS, mPresets);
+                else mPresets = s.presets;
+                if ((c & F_CLAIMS)   != 0) e.putString(KEY_CLAIMS, mClaims);
+                else mClaims = s.claims;
+
+                sSnapshot = new Snapshot(this);
+                mChanged = 0;
+                apply(e);
+            }
+        }
+    }
 
     public PrefsValues(Context context) {
-        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mPrefs = getSharedPrefs(context);
+    }
+
+    /**
+     * Loads the settings snapshot on a background thread.
+     * Typically called once from {@link BrighterifficApp#onCreate()}.
+     */
+    public static void preload(Context context) {
+        final Context appContext = context.getApplicationContext();
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                getSnapshot(getSharedPrefs(appContext));
+            }
+        }, "PrefsValues-preload");
+        t.start();
+    }
+
+    private static SharedPreferences getSharedPrefs(Context context) {
+        synchronized (sLock) {
+            if (sPrefs == null) {
+                sPrefs = PreferenceManager.getDefaultSharedPreferences(
+                        context.getApplicationContext());
+            }
+            return sPrefs;
+        }
+    }
+
+    private static Snapshot getSnapshot(SharedPreferences prefs) {
+        Snapshot s = sSnapshot;
+        if (s == null) {
+            synchronized (sLock) {
+                s = sSnapshot;
+                if (s == null) {
+                    s = new Snapshot(prefs);
+                    sSnapshot = s;
+                }
+            }
+        }
+        return s;
     }
 
     public SharedPreferences getPrefs() {
         return mPrefs;
     }
 
+    /** Returns the current immutable copy of all the settings. */
+    public Snapshot getSnapshot() {
+        return getSnapshot(mPrefs);
+    }
+
+    /** Starts a new transaction to change several settings at once. */
+    public Transaction edit() {
+        return new Transaction(mPrefs);
+    }
+
     public int getMinBrightness() {
-        return mPrefs.getInt("minBrightness", 10);
+        return getSnapshot().minBrightness;
     }
 
     public void setMinBrightness(int brightness) {
-        apply(mPrefs.edit().putInt("minBrightness", brightness));
+        edit().setMinBrightness(brightness).commit();
     }
 
     public int getMaxBrightness() {
-        return mPrefs.getInt("maxBrightness", 75);
+        return getSnapshot().maxBrightness;
     }
 
     public void setMaxBrightness(int brightness) {
-        apply(mPrefs.edit().putInt("maxBrightness", brightness));
+        edit().setMaxBrightness(brightness).commit();
     }
 
     public int getCarBrightness() {
-        return mPrefs.getInt("carBrightness", 90);
+        return getSnapshot().carBrightness;
     }
 
     public void setCarBrightness(int brightness) {
-        apply(mPrefs.edit().putInt("carBrightness", brightness));
+        edit().setCarBrightness(brightness).commit();
     }
 
     public boolean getUseCarBrightness() {
-        return mPrefs.getBoolean("useCarBrightness", false);
+        return getSnapshot().useCarBrightness;
     }
 
     public void setUseCarBrightness(boolean use) {
-        apply(mPrefs.edit().putBoolean("useCarBrightness", use));
+        edit().setUseCarBrightness(use).commit();
     }
 
     public int getDeskBrightness() {
-        return mPrefs.getInt("deskBrightness", 50);
+        return getSnapshot().deskBrightness;
     }
 
     public void setDeskBrightness(int brightness) {
-        apply(mPrefs.edit().putInt("deskBrightness", brightness));
+        edit().setDeskBrightness(brightness).commit();
     }
 
     public boolean getUseDeskBrightness() {
-        return mPrefs.getBoolean("useDeskBrightness", false);
+        return getSnapshot().useDeskBrightness;
     }
 
     public void setUseDeskBrightness(boolean use) {
-        apply(mPrefs.edit().putBoolean("useDeskBrightness", use));
+        edit().setUseDeskBrightness(use).commit();
     }
 
     public int getSavedBrightness() {
-        return mPrefs.getInt("savedBrightness", -1);
+        return getSnapshot().savedBrightness;
     }
 
     public void setSavedBrightness(int brightness) {
-        apply(mPrefs.edit().putInt("savedBrightness", brightness));
+        edit().setSavedBrightness(brightness).commit();
+    }
+
+    /** Duration in milliseconds of brightness changes. 0 for instant changes. */
+    public int getRampDuration() {
+        return getSnapshot().rampDuration;
+    }
+
+    public void setRampDuration(int durationMs) {
+        edit().setRampDuration(durationMs).commit();
+    }
+
+    public boolean getUseAutoBrightness() {
+        return getSnapshot().useAutoBrightness;
+    }
+
+    public void setUseAutoBrightness(boolean use) {
+        edit().setUseAutoBrightness(use).commit();
+    }
+
+    /** Auto brightness curve exponent, in percent. 100 is linear in log-lux. */
+    public int getAutoCurve() {
+        return getSnapshot().autoCurve;
+    }
+
+    public void setAutoCurve(int curvePercent) {
+        edit().setAutoCurve(curvePercent).commit();
+    }
+
+    /** Brightness schedule, c.f. {@link BrightnessSchedule}. Empty if none. */
+    public String getSchedule() {
+        return getSnapshot().schedule;
+    }
+
+    /**
+     * Changes the brightness schedule and location at once.
+     * Call {@link ScheduleReceiver#update(Context)} afterwards.
+     */
+    public void setSchedule(String schedule, float latitude, float longitude) {
+        edit().setSchedule(schedule).setLocation(latitude, longitude).commit();
+    }
+
+    /** Delay in milliseconds for dock events to settle. */
+    public int getDockSettleDelay() {
+        return getSnapshot().dockSettleDelay;
+    }
+
+    public void setDockSettleDelay(int delayMs) {
+        edit().setDockSettleDelay(delayMs).commit();
+    }
+
+    /** Percent to backlight curve spec, c.f. {@link BrightnessCurve}. Empty for linear. */
+    public String getCurve() {
+        return getSnapshot().curve;
+    }
+
+    public void setCurve(String curve) {
+        edit().setCurve(curve).commit();
+    }
+
+    /** Brightness presets packed by {@link BrightnessPresets#pack(int[], int)}. 0 if none. */
+    public long getPresets() {
+        return getSnapshot().presets;
+    }
+
+    public void setPresets(long packed) {
+        edit().setPresets(packed).commit();
+    }
+
+    /** Brightness arbiter state, c.f. {@link BrightnessArbiter#encode()}. Empty if none. */
+    public String getClaims() {
+        return getSnapshot().claims;
+    }
+
+    public void setClaims(String claims) {
+        edit().setClaims(claims).commit();
+    }
+
+    /**
+     * Returns the brightness presets. Without user presets, these are the
+     * min and max brightness.
+     */
+    public BrightnessPresets getBrightnessPresets() {
+        Snapshot s = getSnapshot();
+        if (s.presets != 0) return new BrightnessPresets(s.presets);
+        return new BrightnessPresets(BrightnessPresets.pack(
+                new int[] { s.minBrightness, s.maxBrightness }, 2));
+    }
+
+    /** Returns the percent to backlight curve. */
+    public BrightnessCurve getBrightnessCurve() {
+        return BrightnessCurve.forSpec(getSnapshot().curve);
     }
 
     public boolean isIntroDismissed() {
-        return mPrefs.getBoolean("dismiss_intro", false);
+        return getSnapshot().introDismissed;
     }
 
     /**
@@ -101,12 +554,12 @@ public class PrefsValues {
      * @return true if value was successfully changed if the prefs
      */
     public void setIntroDismissed(boolean dismiss) {
-        apply(mPrefs.edit().putBoolean("dismiss_intro", dismiss));
+        edit().setIntroDismissed(dismiss).commit();
     }
 
     // ---
 
-    private void apply(Editor editor) {
+    private static void apply(Editor editor) {
         if (Utils.getApiLevel() >= 9) {
             editor.apply();
         } else {
@@ -0,0 +1,155 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import java.util.Calendar;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Applies the {@link BrightnessSchedule} and keeps exactly one alarm pending
+ * for its next transition.
+ * <p/>
+ * The alarm is not a wakeup alarm: if the device sleeps through a transition
+ * it is applied when the device wakes up.
+ *
+ * For debugging:
+ * $ adb -d shell am broadcast -a com.alfray.brighteriffic.SCHEDULE
+ */
+public class ScheduleReceiver extends BroadcastReceiver {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = ScheduleReceiver.class.getSimpleName();
+
+    /** Action of the schedule alarm. */
+    public static final String ACTION_SCHEDULE = "com.alfray.brighteriffic.SCHEDULE";
+
+    private static BrightnessSchedule sSchedule;
+    private static String sScheduleKey;
+
+    public ScheduleReceiver() {
+        // Nothing here. This is constructed for *each* call.
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (DEBUG) Log.d(TAG, "Received " + action);
+
+        if (ACTION_SCHEDULE.equals(action)) {
+            update(context);
+        } else {
+            // Boot, time or time zone change: the brightness was restored by the
+            // system or set by the user since the last transition, so only rearm
+            // for the next one.
+            arm(context, getSchedule(context));
+        }
+    }
+
+    /**
+     * Applies the current scheduled value and arms the alarm for the next
+     * transition. Cancels the alarm if there's no schedule.
+     * Call when the schedule prefs change.
+     */
+    public static void update(Context context) {
+        BrightnessSchedule schedule = getSchedule(context);
+        apply(context, schedule);
+        arm(context, schedule);
+    }
+
+    private static synchronized BrightnessSchedule getSchedule(Context context) {
+        PrefsValues.Snapshot s = new PrefsValues(context).getSnapshot();
+        String key = s.schedule + "@" + s.latitude + "," + s.longitude;
+        if (!key.equals(sScheduleKey)) {
+            SolarCalculator solar = null;
+            if (s.latitude != 0 || s.longitude != 0) {
+                solar = new SolarCalculator(s.latitude, s.longitude);
+            }
+            sSchedule = BrightnessSchedule.parse(s.schedule, solar);
+            sScheduleKey = key;
+        }
+        return sSchedule;
+    }
+
+    private static void apply(Context context, BrightnessSchedule schedule) {
+        if (schedule == null) return;
+
+        Calendar c = Calendar.getInstance();
+        int value = schedule.getValueAt(dayKey(c), c.get(Calendar.DAY_OF_YEAR), tzOffset(c),
+                c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE));
+        if (value < 0) return;
+
+        // While docked or held, the claim stays and the scheduled value is
+        // the one in effect once it goes away.
+        int effective = Arbitration.get(context).setBase(value, System.currentTimeMillis());
+        Arbitration.commit(context);
+        if (DEBUG) Log.d(TAG, "Scheduled " + Integer.toString(value) +
+                ", effective " + Integer.toString(effective));
+        Arbitration.apply(context, effective, BrightnessJournal.SOURCE_SCHEDULE);
+    }
+
+    private static void arm(Context context, BrightnessSchedule schedule) {
+        Intent intent = new Intent(context, ScheduleReceiver.class);
+        intent.setAction(ACTION_SCHEDULE);
+        PendingIntent pi = PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+
+        if (schedule != null) {
+            Calendar c = Calendar.getInstance();
+            int minute = c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
+            int next = schedule.getNextTransition(
+                    dayKey(c), c.get(Calendar.DAY_OF_YEAR), tzOffset(c), minute);
+
+            if (next < 0) {
+                // Nothing left today, use the first transition of tomorrow.
+                c.add(Calendar.DAY_OF_YEAR, 1);
+                next = schedule.getNextTransition(
+                        dayKey(c), c.get(Calendar.DAY_OF_YEAR), tzOffset(c), -1);
+            }
+
+            if (next >= 0) {
+                c.set(Calendar.HOUR_OF_DAY, next / 60);
+                c.set(Calendar.MINUTE, next % 60);
+                c.set(Calendar.SECOND, 0);
+                c.set(Calendar.MILLISECOND, 0);
+
+                // Using the same PendingIntent replaces any previous alarm.
+                am.set(AlarmManager.RTC, c.getTimeInMillis(), pi);
+                if (DEBUG) Log.d(TAG, "Next transition at " + c.getTime().toString());
+                return;
+            }
+        }
+
+        am.cancel(pi);
+    }
+
+    private static int dayKey(Calendar c) {
+        return c.get(Calendar.YEAR) * 1000 + c.get(Calendar.DAY_OF_YEAR);
+    }
+
+    private static int tzOffset(Calendar c) {
+        return (c.get(Calendar.ZONE_OFFSET) + c.get(Calendar.DST_OFFSET)) / 60000;
+    }
+}
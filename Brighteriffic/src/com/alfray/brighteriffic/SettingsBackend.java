@@ -0,0 +1,40 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import android.content.ContentResolver;
+import android.provider.Settings;
+
+/**
+ * Writes the global {@link Settings.System#SCREEN_BRIGHTNESS} value.
+ */
+class SettingsBackend implements BrightnessBackend {
+
+    private final ContentResolver mResolver;
+
+    public SettingsBackend(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    public boolean setBrightness(int level, float fraction) {
+        return Settings.System.putInt(mResolver,
+                Settings.System.SCREEN_BRIGHTNESS,
+                level);
+    }
+}
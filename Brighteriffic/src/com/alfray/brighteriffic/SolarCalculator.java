@@ -0,0 +1,111 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+/**
+ * Computes local sunrise and sunset times offline, using the NOAA
+ * approximation (good to a couple of minutes away from the poles).
+ * <p/>
+ * The last computed day is cached. Doesn't depend on Android.
+ */
+public class SolarCalculator {
+
+    /** Returned when the sun doesn't rise or set on that day. */
+    public static final int NONE = -1;
+
+    private final double mLatitude;
+    private final double mLongitude;
+
+    private int mCachedDay = -1;
+    private int mCachedTz;
+    private int mSunrise;
+    private int mSunset;
+
+    /**
+     * @param latitude Degrees, positive north.
+     * @param longitude Degrees, positive east.
+     */
+    public SolarCalculator(double latitude, double longitude) {
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    /**
+     * Returns the sunrise in local minutes of the day (0..1439) or {@link #NONE}.
+     *
+     * @param dayKey A value identifying the day, e.g. year * 1000 + dayOfYear.
+     * @param dayOfYear 1..366
+     * @param tzOffsetMinutes Local time offset from UTC for that day.
+     */
+    public int getSunrise(int dayKey, int dayOfYear, int tzOffsetMinutes) {
+        compute(dayKey, dayOfYear, tzOffsetMinutes);
+        return mSunrise;
+    }
+
+    /**
+     * Returns the sunset in local minutes of the day (0..1439) or {@link #NONE}.
+     * @see #getSunrise(int, int, int)
+     */
+    public int getSunset(int dayKey, int dayOfYear, int tzOffsetMinutes) {
+        compute(dayKey, dayOfYear, tzOffsetMinutes);
+        return mSunset;
+    }
+
+    private void compute(int dayKey, int dayOfYear, int tzOffsetMinutes) {
+        if (dayKey == mCachedDay && tzOffsetMinutes == mCachedTz) return;
+
+        double g = 2 * Math.PI / 365 * (dayOfYear - 1);
+        double eqTime = 229.18 * (0.000075
+                + 0.001868 * Math.cos(g)
+                - 0.032077 * Math.sin(g)
+                - 0.014615 * Math.cos(2 * g)
+                - 0.040849 * Math.sin(2 * g));
+        double decl = 0.006918
+                - 0.399912 * Math.cos(g)
+                + 0.070257 * Math.sin(g)
+                - 0.006758 * Math.cos(2 * g)
+                + 0.000907 * Math.sin(2 * g)
+                - 0.002697 * Math.cos(3 * g)
+                + 0.00148  * Math.sin(3 * g);
+
+        double lat = Math.toRadians(mLatitude);
+        double cosHa = Math.cos(Math.toRadians(90.833)) / (Math.cos(lat) * Math.cos(decl))
+                - Math.tan(lat) * Math.tan(decl);
+
+        if (cosHa > 1 || cosHa < -1) {
+            // Polar night or midnight sun
+            mSunrise = NONE;
+            mSunset = NONE;
+        } else {
+            double ha = Math.toDegrees(Math.acos(cosHa));
+            mSunrise = toLocal(720 - 4 * (mLongitude + ha) - eqTime, tzOffsetMinutes);
+            mSunset  = toLocal(720 - 4 * (mLongitude - ha) - eqTime, tzOffsetMinutes);
+        }
+
+        mCachedDay = dayKey;
+        mCachedTz = tzOffsetMinutes;
+    }
+
+    private static int toLocal(double utcMinutes, int tzOffsetMinutes) {
+        int m = (int) Math.round(utcMinutes) + tzOffsetMinutes;
+        m %= 24 * 60;
+        if (m < 0) m += 24 * 60;
+        return m;
+    }
+}
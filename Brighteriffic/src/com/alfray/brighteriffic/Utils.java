@@ -18,12 +18,15 @@
 
 package com.alfray.brighteriffic;
 
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Build;
 import android.os.Build.VERSION;
 
 public class Utils {
 
     private static int sApiLevel = 0;
+    private static volatile String sVersionName;
 
     /**
      * Return {@link VERSION#SDK} as an int.
@@ -43,4 +46,23 @@ public class Utils {
         return sApiLevel;
     }
 
+    /**
+     * Returns the versionName of this package, or an empty string if it can't
+     * be found. Value is cached locally, the package manager is only queried
+     * once per process.
+     */
+    public static String getVersionName(Context context) {
+        String v = sVersionName;
+        if (v == null) {
+            try {
+                v = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionName;
+            } catch (NameNotFoundException e) {
+                // failed, ignored
+            }
+            if (v == null) v = "";
+            sVersionName = v;
+        }
+        return v;
+    }
+
 }
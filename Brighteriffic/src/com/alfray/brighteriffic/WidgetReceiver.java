@@ -25,6 +25,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.widget.RemoteViews;
 
+/**
+ * Home screen widget: toggles the brightness on click and shows the current
+ * brightness and profile, c.f. {@link WidgetUpdater}.
+ */
 public class WidgetReceiver extends AppWidgetProvider {
 
     @SuppressWarnings("unused")
@@ -36,22 +40,88 @@ public class WidgetReceiver extends AppWidgetProvider {
         // Nothing here. This is constructed for *each* call.
     }
 
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // Created here rather than with the app, so that processes started
+        // for other reasons don't watch the brightness for nothing. Any
+        // widget broadcast, including the update after boot, starts watching.
+        WidgetUpdater.getInstance(context);
+        super.onReceive(context, intent);
+    }
+
     @Override
     public void onUpdate(Context context,
             AppWidgetManager appWidgetManager,
             int[] appWidgetIds) {
 
-        // set the remove view
-        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget);
-
-        Intent intent = new Intent(ChangeBrightnessActivity.ACTION_TOGGLE_BRIGHTNESS);
-        intent.putExtra(ChangeBrightnessActivity.INTENT_TOGGLE_BRIGHTNESS, true);
-        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        BrightnessChanger bc = new BrightnessChanger(context);
+        int percent = Math.round(100 * bc.getCurrentBrightness());
+        WidgetUpdater wu = WidgetUpdater.getInstance(context);
 
-        PendingIntent pi = PendingIntent.getActivity(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
-        views.setOnClickPendingIntent(R.id.icon, pi);
+        // set the remote view
+        RemoteViews views = buildViews(context, percent, wu.getProfile(percent));
 
         // update it
         appWidgetManager.updateAppWidget(appWidgetIds, views);
+        wu.setUpdated(appWidgetIds, percent);
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        WidgetUpdater.getInstance(context).forget(appWidgetIds);
+    }
+
+    /** Creates the complete widget views: click actions and labels. */
+    static RemoteViews buildViews(Context context, int percent, int profile) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget);
+
+        Intent extras = new Intent();
+        extras.putExtra(ChangeBrightnessActivity.INTENT_TOGGLE_BRIGHTNESS, true);
+        views.setOnClickPendingIntent(R.id.icon, createAction(context, 0, extras));
+
+        extras = new Intent();
+        extras.putExtra(ChangeBrightnessActivity.INTENT_CYCLE_PRESET, 1);
+        views.setOnClickPendingIntent(R.id.preset_up, createAction(context, 1, extras));
+
+        extras = new Intent();
+        extras.putExtra(ChangeBrightnessActivity.INTENT_CYCLE_PRESET, -1);
+        views.setOnClickPendingIntent(R.id.preset_down, createAction(context, 2, extras));
+
+        setLabels(context, views, percent, profile);
+        return views;
+    }
+
+    /**
+     * Creates the PendingIntent applying the given extras.
+     *
+     * @param requestCode Must be unique per action, the extras alone
+     *   don't make PendingIntents distinct.
+     */
+    private static PendingIntent createAction(Context context, int requestCode, Intent extras) {
+        extras.putExtra(ChangeBrightnessActivity.INTENT_SOURCE, BrightnessJournal.SOURCE_WIDGET);
+
+        if (BrightnessChanger.canApplyHeadless()) {
+            Intent intent = new Intent(context, BrightnessReceiver.class);
+            intent.setAction(BrightnessReceiver.ACTION_APPLY_BRIGHTNESS);
+            intent.putExtras(extras);
+
+            return PendingIntent.getBroadcast(context, requestCode, intent,
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+        } else {
+            Intent intent = new Intent(ChangeBrightnessActivity.ACTION_TOGGLE_BRIGHTNESS);
+            intent.putExtras(extras);
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+            return PendingIntent.getActivity(context, requestCode, intent,
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+    }
+
+    /** Sets only the brightness and profile labels of the widget views. */
+    static void setLabels(Context context, RemoteViews views, int percent, int profile) {
+        views.setTextViewText(R.id.percent,
+                context.getString(R.string.widget_percent, percent));
+        int label = WidgetUpdater.getProfileLabel(profile);
+        views.setTextViewText(R.id.profile, label == 0 ? "" : context.getString(label));
     }
 }
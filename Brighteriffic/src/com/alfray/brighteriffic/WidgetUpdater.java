@@ -0,0 +1,251 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import android.appwidget.AppWidgetManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseIntArray;
+import android.widget.RemoteViews;
+
+/**
+ * Keeps the home screen widgets showing the current brightness and profile.
+ * <p/>
+ * Change notifications are rate-limited to a few updates per second, widgets
+ * that already show the right state are skipped and, where the platform
+ * supports it, only the labels are sent. Nothing happens while the screen is
+ * off; the widgets are refreshed when the user is back. The unlock receiver
+ * for that is only registered while such a change is pending, so unlocks
+ * never start the process. If the process dies meanwhile, the widgets keep
+ * the old state until the next change or APPWIDGET_UPDATE, as before. No
+ * alarm is ever used.
+ * <p/>
+ * Changes are received from {@link BrightnessState}, so changes made by
+ * other apps are shown too.
+ */
+public class WidgetUpdater implements BrightnessCache.Listener {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = WidgetUpdater.class.getSimpleName();
+
+    /** Min delay between two widget updates, i.e. at most 4 per second. */
+    private static final long MIN_INTERVAL_MS = 250;
+
+    public static final int PROFILE_CUSTOM = 0;
+    public static final int PROFILE_MIN = 1;
+    public static final int PROFILE_MAX = 2;
+    public static final int PROFILE_CAR = 3;
+    public static final int PROFILE_DESK = 4;
+    public static final int PROFILE_AUTO = 5;
+
+    private static WidgetUpdater sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final PowerManager mPowerManager;
+    /** Last state pushed per widget id, c.f. {@link #packState}. Main thread only. */
+    private final SparseIntArray mLastState = new SparseIntArray();
+    private volatile int mPercent = -1;
+    private boolean mPending;
+    /** True while a change waits for the user to unlock, i.e. mUnlockReceiver is registered. */
+    private boolean mDirty;
+    private long mLastUpdateMs;
+
+    private final BroadcastReceiver mUnlockReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Catch up on changes made while the screen was off.
+            setDirty(false);
+            request();
+        }
+    };
+
+    private final Runnable mRequest = new Runnable() {
+        public void run() {
+            request();
+        }
+    };
+
+    private final Runnable mUpdate = new Runnable() {
+        public void run() {
+            mPending = false;
+            update();
+        }
+    };
+
+    public static synchronized WidgetUpdater getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WidgetUpdater(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WidgetUpdater(Context appContext) {
+        mContext = appContext;
+        mHandler = new Handler(Looper.getMainLooper());
+        mPowerManager = (PowerManager) appContext.getSystemService(Context.POWER_SERVICE);
+
+        final BrightnessState state = BrightnessState.getInstance(appContext);
+        mHandler.post(new Runnable() {
+            public void run() {
+                state.addListener(WidgetUpdater.this);
+            }
+        });
+    }
+
+    /** Runs on the main thread. */
+    public void onBrightnessChanged(int level, int mode) {
+        if (level != BrightnessState.UNKNOWN) {
+            notifyChanged(new PrefsValues(mContext).getBrightnessCurve().levelToPercent(level));
+        }
+    }
+
+    /**
+     * Tells the widgets the brightness changed. Can be called from any thread.
+     *
+     * @param percent The new brightness in percent.
+     */
+    public void notifyChanged(int percent) {
+        mPercent = percent;
+        mHandler.post(mRequest);
+    }
+
+    /** Forgets the state of deleted widgets. Main thread only. */
+    public void forget(int[] appWidgetIds) {
+        for (int id : appWidgetIds) {
+            mLastState.delete(id);
+        }
+    }
+
+    /**
+     * Records that the given widgets were fully updated with that brightness.
+     * Main thread only.
+     */
+    public void setUpdated(int[] appWidgetIds, int percent) {
+        int state = packState(percent, getProfile(percent));
+        for (int id : appWidgetIds) {
+            mLastState.put(id, state);
+        }
+        if (mPercent < 0) mPercent = percent;
+    }
+
+    /** Returns the PROFILE_ matching the given brightness, based on the prefs. */
+    public int getProfile(int percent) {
+        PrefsValues.Snapshot s = new PrefsValues(mContext).getSnapshot();
+        if (s.useAutoBrightness) return PROFILE_AUTO;
+        if (Arbitration.get(mContext).hasClaim(BrightnessArbiter.OWNER_DOCK)) {
+            // Docked
+            if (s.useCarBrightness && percent == s.carBrightness) return PROFILE_CAR;
+            if (s.useDeskBrightness && percent == s.deskBrightness) return PROFILE_DESK;
+        }
+        if (percent == s.minBrightness) return PROFILE_MIN;
+        if (percent == s.maxBrightness) return PROFILE_MAX;
+        return PROFILE_CUSTOM;
+    }
+
+    /** Returns the label string resource for a PROFILE_ value or 0 for none. */
+    public static int getProfileLabel(int profile) {
+        switch (profile) {
+        case PROFILE_MIN:  return R.string.widget_profile_min;
+        case PROFILE_MAX:  return R.string.widget_profile_max;
+        case PROFILE_CAR:  return R.string.widget_profile_car;
+        case PROFILE_DESK: return R.string.widget_profile_desk;
+        case PROFILE_AUTO: return R.string.widget_profile_auto;
+        }
+        return 0;
+    }
+
+    private static int packState(int percent, int profile) {
+        return (percent << 8) | profile;
+    }
+
+    private void request() {
+        if (mPending) return;
+        mPending = true;
+        long now = SystemClock.uptimeMillis();
+        long at = mLastUpdateMs + MIN_INTERVAL_MS;
+        mHandler.postAtTime(mUpdate, at > now ? at : now);
+    }
+
+    /** Registers or unregisters the unlock receiver. Main thread only. */
+    private void setDirty(boolean dirty) {
+        if (dirty == mDirty) return;
+        mDirty = dirty;
+        if (dirty) {
+            mContext.registerReceiver(mUnlockReceiver,
+                    new IntentFilter(Intent.ACTION_USER_PRESENT));
+        } else {
+            mContext.unregisterReceiver(mUnlockReceiver);
+        }
+    }
+
+    private void update() {
+        int percent = mPercent;
+        if (percent < 0) return;
+
+        AppWidgetManager awm = AppWidgetManager.getInstance(mContext);
+        int[] ids = awm.getAppWidgetIds(new ComponentName(mContext, WidgetReceiver.class));
+        if (ids == null || ids.length == 0) return;
+
+        if (!mPowerManager.isScreenOn()) {
+            // Nobody is looking, do it when the user is back.
+            setDirty(true);
+            return;
+        }
+        setDirty(false);
+
+        mLastUpdateMs = SystemClock.uptimeMillis();
+
+        int profile = getProfile(percent);
+        int state = packState(percent, profile);
+        boolean partial = Utils.getApiLevel() >= 11;
+
+        RemoteViews full = null;
+        RemoteViews labels = null;
+
+        for (int id : ids) {
+            int last = mLastState.get(id, -1);
+            if (last == state) continue;
+
+            if (last != -1 && partial) {
+                if (labels == null) {
+                    labels = new RemoteViews(mContext.getPackageName(), R.layout.widget);
+                    WidgetReceiver.setLabels(mContext, labels, percent, profile);
+                }
+                awm.partiallyUpdateAppWidget(id, labels);
+            } else {
+                if (full == null) {
+                    full = WidgetReceiver.buildViews(mContext, percent, profile);
+                }
+                awm.updateAppWidget(id, full);
+            }
+            mLastState.put(id, state);
+        }
+
+        if (DEBUG) Log.d(TAG, "Updated widgets: " + Integer.toString(percent));
+    }
+}
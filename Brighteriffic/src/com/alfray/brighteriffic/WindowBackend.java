@@ -0,0 +1,54 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic;
+
+import android.util.Log;
+import android.view.Window;
+import android.view.WindowManager.LayoutParams;
+
+/**
+ * Sets the per-window brightness attribute (SDK 3+).
+ * <p/>
+ * {@link LayoutParams#screenBrightness} is accessed directly: this class is only
+ * loaded when {@link BrightnessBackends} selected it, so there's no need to
+ * look the field up by reflection to run on older platforms.
+ */
+class WindowBackend implements BrightnessBackend {
+
+    private static final String TAG = "WindowBackend";
+
+    private final Window mWindow;
+
+    public WindowBackend(Window window) {
+        mWindow = window;
+    }
+
+    public boolean setBrightness(int level, float fraction) {
+        try {
+            LayoutParams attr = mWindow.getAttributes();
+            attr.screenBrightness = fraction;
+            mWindow.setAttributes(attr);
+            return true;
+
+        } catch (Throwable t) {
+            Log.e(TAG, "Failed to set brightness [SDK 3+]", t);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+/**
+ * A color animation described by data: a list of colors and the time spent
+ * going from each one to the next, either fading or cutting.
+ * Evaluated by {@link ColorView} once per frame.
+ * <p/>
+ * Immutable. {@link #colorAt(long)} doesn't allocate. Doesn't depend on Android.
+ */
+public class ColorEffect {
+
+    /** The ARGB keyframe colors. */
+    public final int[] colors;
+    /**
+     * Duration of each segment in milliseconds. Segment i goes from colors[i]
+     * to colors[i + 1], or back to colors[0] for the last one of a loop.
+     */
+    public final int[] durations;
+    /** True to interpolate within segments, false to show colors[i] for the whole segment. */
+    public final boolean fade;
+    public final boolean loop;
+
+    private final long mTotalMs;
+
+    public ColorEffect(int[] colors, int[] durations, boolean fade, boolean loop) {
+        int segments = loop ? colors.length : colors.length - 1;
+        if (segments < 1 || durations.length != segments) {
+            throw new IllegalArgumentException("Expected " + segments + " durations");
+        }
+        long total = 0;
+        for (int d : durations) {
+            if (d <= 0) throw new IllegalArgumentException("Durations must be > 0");
+            total += d;
+        }
+        this.colors = colors;
+        this.durations = durations;
+        this.fade = fade;
+        this.loop = loop;
+        mTotalMs = total;
+    }
+
+    /** Fades from one color to another. */
+    public static ColorEffect crossfade(int from, int to, int ms) {
+        return new ColorEffect(new int[] { from, to }, new int[] { Math.max(1, ms) }, true, false);
+    }
+
+    /**
+     * Cycles through the colors, forever.
+     *
+     * @param stepMs Time spent on each color.
+     * @param fade True to fade between colors, false for hard cuts.
+     */
+    public static ColorEffect cycle(int[] colors, int stepMs, boolean fade) {
+        int[] d = new int[colors.length];
+        for (int i = 0; i < d.length; i++) d[i] = Math.max(1, stepMs);
+        return new ColorEffect(colors, d, fade, true);
+    }
+
+    /** Returns true once a non-looping effect reached its last color. */
+    public boolean isDone(long elapsedMs) {
+        return !loop && elapsedMs >= mTotalMs;
+    }
+
+    /** Returns the ARGB color at that time since the effect started. */
+    public int colorAt(long elapsedMs) {
+        int n = colors.length;
+        if (elapsedMs <= 0) return colors[0];
+        if (loop) {
+            elapsedMs %= mTotalMs;
+        } else if (elapsedMs >= mTotalMs) {
+            return colors[n - 1];
+        }
+
+        int i = 0;
+        int t = (int) elapsedMs;
+        while (t >= durations[i]) {
+            t -= durations[i];
+            i++;
+        }
+
+        int from = colors[i];
+        if (!fade) return from;
+        return mix(from, colors[(i + 1) % n], t, durations[i]);
+    }
+
+    /** Interpolates each ARGB channel by t / d. */
+    static int mix(int from, int to, int t, int d) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (from >>> shift) & 0xFF;
+            int b = (to >>> shift) & 0xFF;
+            result |= (a + (b - a) * t / d) << shift;
+        }
+        return result;
+    }
+}
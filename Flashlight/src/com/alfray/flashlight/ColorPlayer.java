@@ -0,0 +1,95 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+/**
+ * The per-frame work of {@link ColorView}: plays a {@link ColorEffect} and
+ * keeps its {@link FrameStats}, including the allocations made by each frame
+ * when an {@link AllocationCounter} is set.
+ * <p/>
+ * The caller provides the clock: call {@link #onFrame(long, long)} once per
+ * drawn frame. Nothing is allocated per frame.
+ * Not thread-safe. Doesn't depend on Android.
+ */
+public class ColorPlayer {
+
+    /** Source of the number of allocations made so far by the drawing thread. */
+    public interface AllocationCounter {
+        public long getCount();
+    }
+
+    private int mColor = 0xFFFFFFFF;
+    private ColorEffect mEffect;
+    private long mEffectStartMs;
+    private final FrameStats mStats = new FrameStats();
+    private AllocationCounter mCounter;
+
+    /** Returns the color of the current frame. */
+    public int getColor() {
+        return mColor;
+    }
+
+    /**
+     * Shows that color, stopping any effect.
+     *
+     * @return True if the color changed.
+     */
+    public boolean setColor(int color) {
+        mEffect = null;
+        if (color == mColor) return false;
+        mColor = color;
+        return true;
+    }
+
+    /** Plays an effect from nowMs, replacing the current one. Null stops it on the current color. */
+    public void play(ColorEffect effect, long nowMs) {
+        mEffect = effect;
+        mEffectStartMs = nowMs;
+        mStats.restart();
+    }
+
+    public boolean isPlaying() {
+        return mEffect != null;
+    }
+
+    public FrameStats getFrameStats() {
+        return mStats;
+    }
+
+    /** Counts the allocations of each frame in the {@link FrameStats}. Null stops counting. */
+    public void setAllocationCounter(AllocationCounter counter) {
+        mCounter = counter;
+    }
+
+    /**
+     * Computes the color of a frame, c.f. {@link #getColor()}.
+     *
+     * @param nowMs The effect clock, same time base as {@link #play}.
+     * @param nowNs The {@link System#nanoTime()} of the frame, for the frame times.
+     * @return True if the effect needs another frame.
+     */
+    public boolean onFrame(long nowMs, long nowNs) {
+        AllocationCounter counter = mCounter;
+        long allocs = counter == null ? 0 : counter.getCount();
+
+        boolean again = false;
+        ColorEffect e = mEffect;
+        if (e != null) {
+            long t = nowMs - mEffectStartMs;
+            mColor = e.colorAt(t);
+            if (e.isDone(t)) {
+                mEffect = null;
+            } else {
+                mStats.onFrame(nowNs);
+                again = true;
+            }
+        }
+
+        if (counter != null) mStats.addAllocations(counter.getCount() - allocs);
+        return again;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Fills itself with one color, or plays a {@link ColorEffect} at the display
+ * frame rate. Drawing only writes one color int, nothing is allocated per frame.
+ * The frame work is done by a {@link ColorPlayer}.
+ */
+public class ColorView extends View {
+
+    private static final ColorPlayer.AllocationCounter sDebugCounter =
+        new ColorPlayer.AllocationCounter() {
+            public long getCount() {
+                return Debug.getThreadAllocCount();
+            }
+        };
+
+    private final ColorPlayer mPlayer = new ColorPlayer();
+    private boolean mCountAllocations;
+
+    public ColorView(Context context) {
+        super(context);
+    }
+
+    public ColorView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    /** Returns the color being shown. */
+    public int getColor() {
+        return mPlayer.getColor();
+    }
+
+    /** Shows that color right away, stopping any effect. */
+    public void setColor(int color) {
+        if (mPlayer.setColor(color)) invalidate();
+    }
+
+    /** Plays an effect, replacing the current one. Null stops it on the current color. */
+    public void play(ColorEffect effect) {
+        mPlayer.play(effect, SystemClock.uptimeMillis());
+        invalidate();
+    }
+
+    public boolean isPlaying() {
+        return mPlayer.isPlaying();
+    }
+
+    /** Returns the frame and allocation counters of the effects. */
+    public FrameStats getFrameStats() {
+        return mPlayer.getFrameStats();
+    }
+
+    /**
+     * Counts the allocations made while drawing in {@link #getFrameStats()}.
+     * Uses {@link Debug#startAllocCounting()}, which slows down the whole
+     * process: for debugging and tests only.
+     */
+    public void setCountAllocations(boolean count) {
+        if (count == mCountAllocations) return;
+        mCountAllocations = count;
+        if (count) {
+            Debug.startAllocCounting();
+            mPlayer.setAllocationCounter(sDebugCounter);
+        } else {
+            mPlayer.setAllocationCounter(null);
+            Debug.stopAllocCounting();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mPlayer.onFrame(SystemClock.uptimeMillis(), System.nanoTime())) {
+            // Draw again at the next frame.
+            invalidate();
+        }
+        canvas.drawColor(mPlayer.getColor());
+    }
+}
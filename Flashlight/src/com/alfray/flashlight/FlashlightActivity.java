@@ -10,19 +10,23 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.AlertDialog.Builder;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.graphics.drawable.ColorDrawable;
+import android.content.IntentFilter;
 import android.os.Bundle;
-import android.os.PowerManager;
-import android.os.PowerManager.WakeLock;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 import android.view.View.OnClickListener;
+import android.view.View.OnTouchListener;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.TextView;
 
@@ -37,7 +41,40 @@ public class FlashlightActivity extends Activity {
 
     private ImageView mCurrentIcon;
 
-    private WakeLock mWakeLock;
+    /** Battery dimming, thermal back-off and idle timeout. */
+    private final PowerPolicy mPower = new PowerPolicy();
+    /** True when FLAG_KEEP_SCREEN_ON is not set. */
+    private boolean mIdle = true;
+    private boolean mIdleCheckPending;
+
+    /** Registered while resumed. Only called when the battery state changes. */
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onBatteryChanged(intent);
+        }
+    };
+
+    /**
+     * Lets the screen turn off once idle. Only one is ever pending: a user
+     * interaction moves the deadline and this reposts itself when it runs early.
+     */
+    private final Runnable mIdleCheck = new Runnable() {
+        public void run() {
+            mIdleCheckPending = false;
+            long now = SystemClock.uptimeMillis();
+            if (mPower.isIdle(now)) {
+                if (DEBUG) Log.d(TAG, "Idle, screen can turn off");
+                mIdle = true;
+                getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+            } else {
+                scheduleIdleCheck();
+            }
+        }
+    };
+
+    /** {@link SystemClock#uptimeMillis()} of the launch, 0 once the light is on. */
+    private long mLaunchMs;
 
     private static final int sColorHex[] = {
         0xFFFFFFFF,       // white
@@ -51,13 +88,89 @@ public class FlashlightActivity extends Activity {
         0xFFFF99FF        // pink
     };
 
-    private final String sColorNames[] = new String[sColorHex.length];
+    /** Effects offered after the colors in the color dialog. */
+    private static final ColorEffect sEffects[] = {
+        // rainbow
+        ColorEffect.cycle(new int[] {
+                sColorHex[1], sColorHex[2], sColorHex[3], sColorHex[4],
+                sColorHex[5], sColorHex[6], sColorHex[7] },
+                1000 /*stepMs*/, true /*fade*/),
+        // party
+        ColorEffect.cycle(sColorHex, 150 /*stepMs*/, false /*fade*/),
+    };
+
+    /** Duration of the fade when picking a new color. */
+    private static final int CROSSFADE_MS = 300;
+
+    /** Approximate display frame duration, for the swipe brightness. */
+    private static final long FRAME_MS = 16;
+    /** Lowest swipe brightness. Some devices turn the screen off at 0. */
+    private static final float MIN_BRIGHTNESS = 0.05f;
+    /** The label and icon switch from dark to bright at this brightness. */
+    private static final float BRIGHT_THRESHOLD = 0.5f;
+
+    private final String sColorNames[] = new String[sColorHex.length + sEffects.length];
+
+    /** Idle timeouts offered in the idle dialog, in minutes. 0 is never. */
+    private static final int sIdleMinutes[] = { 0, 1, 2, 5, 10, 30 };
+
+    /** Strobe frequencies offered in the strobe dialog. */
+    private static final int sStrobeHz[] = { 1, 2, 5, 10, 15, 20 };
+
+    private final Handler mHandler = new Handler();
+    private ColorView mColorView;
+    /** The color of the lit pattern segments. */
+    private int mLitColor = 0xFFFFFFFF;
+
+    /** Plays patterns on the screen. The LED is driven by {@link TorchService}. */
+    private final PatternPlayer mPlayer = new PatternPlayer(new PatternPlayer.Output() {
+        public void setLit(boolean lit) {
+            // The new color is drawn with the next frame.
+            mColorView.setColor(lit ? mLitColor : 0xFF000000);
+        }
+    });
+
+    /** The label string id shown, to only change it when it's different. */
+    private int mShownLabel;
+    /** Brightness being swiped, applied at the next frame. */
+    private float mSwipeBrightness;
+    private boolean mSwipePending;
+    private float mSwipeStartY;
+    private float mSwipeStartBrightness;
+
+    private final Runnable mSwipeFrame = new Runnable() {
+        public void run() {
+            mSwipePending = false;
+            showBrightness(mSwipeBrightness);
+        }
+    };
+
+    private final Runnable mPatternStep = new Runnable() {
+        public void run() {
+            long next = mPlayer.step(SystemClock.uptimeMillis());
+            if (next >= 0) mHandler.postAtTime(this, next);
+        }
+    };
 
 
     /** Called when the activity is first created. */
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mLaunchMs = getIntent().getLongExtra(TorchService.EXTRA_LAUNCH_MS, 0);
+        if (mLaunchMs == 0) mLaunchMs = SystemClock.uptimeMillis();
+
+        mPrefs = new PrefsValues(this);
+        if (mPrefs.getMode() == PrefsValues.MODE_TORCH) {
+            if (Torch.isAvailable(this)) {
+                // The LED is the light, the window only shows the controls.
+                TorchService.send(this, TorchService.ACTION_ON, mLaunchMs);
+                mLaunchMs = 0;
+            } else {
+                mPrefs.setMode(PrefsValues.MODE_SCREEN);
+            }
+        }
+
         setContentView(R.layout.main);
 
         sColorNames[0] = getString(R.string.color_white);
@@ -69,9 +182,17 @@ public class FlashlightActivity extends Activity {
         sColorNames[6] = getString(R.string.color_blue);
         sColorNames[7] = getString(R.string.color_purple);
         sColorNames[8] = getString(R.string.color_pink);
-
-        mPrefs = new PrefsValues(this);
-        applyColor(mPrefs.getColorIndex());
+        sColorNames[9] = getString(R.string.color_rainbow);
+        sColorNames[10] = getString(R.string.color_party);
+
+        mColorView = (ColorView) findViewById(R.id.ColorView);
+        applyColor(mPrefs.getColorIndex(), false /*fade*/);
+        mColorView.setOnTouchListener(new OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                return onSwipe(v, event);
+            }
+        });
 
         findViewById(R.id.GoBright).setOnClickListener(new OnClickListener() {
 			@Override
@@ -102,26 +223,80 @@ public class FlashlightActivity extends Activity {
 
         if (DEBUG) Log.d(TAG, "onResume");
 
-        // Make sure the screen remains bright, does not dim and does not
-        // turn off. The wake lock is released in onPause()
-        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
-        mWakeLock = pm.newWakeLock(PowerManager.SCREEN_BRIGHT_WAKE_LOCK, TAG);
-        mWakeLock.acquire();
+        // The battery state is sticky: this returns the cached one right away
+        // and the receiver is only called on changes, nothing is polled.
+        Intent battery = registerReceiver(mBatteryReceiver,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        mPower.setThermalBackoff(mPrefs.getThermalBackoff());
+        if (battery != null) onBatteryChanged(battery);
+
+        mPower.setIdleTimeout(mPrefs.getIdleTimeoutMin() * 60000L);
+        onUserInteraction();
+        applyCurrentSetting();
     }
 
+    /**
+     * Keeps the screen on until the idle timeout. This uses the window flag,
+     * which the system drops by itself when the activity goes away.
+     */
     @Override
-    protected void onPause() {
-        if (mWakeLock != null) {
-            // Release the bright-screen wake lock
-            mWakeLock.release();
-            mWakeLock = null;
+    public void onUserInteraction() {
+        super.onUserInteraction();
+        mPower.onUserActivity(SystemClock.uptimeMillis());
+        if (mIdle) {
+            mIdle = false;
+            getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        }
+        scheduleIdleCheck();
+    }
+
+    private void scheduleIdleCheck() {
+        long deadline = mPower.getIdleDeadline();
+        if (deadline >= 0 && !mIdleCheckPending) {
+            mIdleCheckPending = true;
+            mHandler.postAtTime(mIdleCheck, deadline);
         }
+    }
+
+    private void onBatteryChanged(Intent intent) {
+        int level = intent.getIntExtra("level", -1);
+        int scale = intent.getIntExtra("scale", 100);
+        int percent = level < 0 || scale <= 0 ? PowerPolicy.UNKNOWN : level * 100 / scale;
+        boolean plugged = intent.getIntExtra("plugged", 0) != 0;
+        int temperature = intent.getIntExtra("temperature", PowerPolicy.UNKNOWN);
+
+        if (mPower.setBattery(percent, plugged, temperature)) {
+            if (DEBUG) Log.d(TAG, "Brightness cap now " + Float.toString(mPower.getCap()));
+            applyCurrentSetting();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        stopPattern();
+        // The process can be killed once paused.
+        PrefsValues.flush();
+        unregisterReceiver(mBatteryReceiver);
+        mHandler.removeCallbacks(mIdleCheck);
+        mIdleCheckPending = false;
         super.onPause();
 
         if (DEBUG) Log.d(TAG, "onPause");
 
     }
 
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus && mLaunchMs != 0) {
+            if (DEBUG) {
+                Log.d(TAG, "Launch to light on: " +
+                        Long.toString(SystemClock.uptimeMillis() - mLaunchMs) + " ms");
+            }
+            mLaunchMs = 0;
+        }
+    }
+
     // ----- menu ------
 
     @Override
@@ -131,10 +306,30 @@ public class FlashlightActivity extends Activity {
         menu.add(0, R.string.menu_dark  , 0, R.string.menu_dark  ).setIcon(R.drawable.dark_icon);
         menu.add(0, R.string.menu_about , 0, R.string.menu_about ).setIcon(R.drawable.ic_menu_help);
         menu.add(0, R.string.menu_color , 0, R.string.menu_color ).setIcon(R.drawable.color_icon);
+        if (Torch.isAvailable(this)) {
+            menu.add(0, R.string.menu_torch , 0, R.string.menu_torch ).setIcon(R.drawable.bright_icon);
+        }
+        menu.add(0, R.string.menu_strobe, 0, R.string.menu_strobe);
+        menu.add(0, R.string.menu_sos   , 0, R.string.menu_sos   );
+        menu.add(0, R.string.menu_morse , 0, R.string.menu_morse );
+        menu.add(0, R.string.menu_idle  , 0, R.string.menu_idle  );
+        menu.add(0, R.string.menu_thermal, 0, R.string.menu_thermal).setCheckable(true);
 
         return super.onCreateOptionsMenu(menu);
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem item = menu.findItem(R.string.menu_torch);
+        if (item != null) {
+            item.setTitle(mPrefs.getMode() == PrefsValues.MODE_TORCH ?
+                    R.string.menu_screen :
+                    R.string.menu_torch);
+        }
+        menu.findItem(R.string.menu_thermal).setChecked(mPrefs.getThermalBackoff());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch(item.getItemId()) {
@@ -151,6 +346,25 @@ public class FlashlightActivity extends Activity {
         case R.string.menu_color:
             showDialog(R.string.menu_color);
             break;
+        case R.string.menu_torch:
+            toggleMode();
+            break;
+        case R.string.menu_strobe:
+            showDialog(R.string.menu_strobe);
+            break;
+        case R.string.menu_sos:
+            playPattern(LightPattern.sos());
+            break;
+        case R.string.menu_morse:
+            showDialog(R.string.menu_morse);
+            break;
+        case R.string.menu_idle:
+            showDialog(R.string.menu_idle);
+            break;
+        case R.string.menu_thermal:
+            mPrefs.setThermalBackoff(!mPrefs.getThermalBackoff());
+            if (mPower.setThermalBackoff(mPrefs.getThermalBackoff())) applyCurrentSetting();
+            break;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -176,28 +390,199 @@ public class FlashlightActivity extends Activity {
             return b.create();
         }
 
+        if (id == R.string.menu_strobe) {
+            Builder b = new AlertDialog.Builder(this);
+
+            b.setTitle(R.string.dlg_title_strobe);
+
+            String[] names = new String[sStrobeHz.length];
+            int current = -1;
+            for (int i = 0; i < sStrobeHz.length; i++) {
+                names[i] = getString(R.string.strobe_hz, sStrobeHz[i]);
+                if (sStrobeHz[i] == mPrefs.getStrobeHz()) current = i;
+            }
+
+            b.setSingleChoiceItems(names,
+                    current,
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            mPrefs.setStrobeHz(sStrobeHz[which]);
+                            dismissDialog(R.string.menu_strobe);
+                            playPattern(LightPattern.strobe(sStrobeHz[which]));
+                        }
+            });
+
+            return b.create();
+        }
+
+        if (id == R.string.menu_idle) {
+            Builder b = new AlertDialog.Builder(this);
+
+            b.setTitle(R.string.dlg_title_idle);
+
+            String[] names = new String[sIdleMinutes.length];
+            int current = -1;
+            for (int i = 0; i < sIdleMinutes.length; i++) {
+                names[i] = sIdleMinutes[i] == 0 ?
+                        getString(R.string.idle_never) :
+                        getString(R.string.idle_minutes, sIdleMinutes[i]);
+                if (sIdleMinutes[i] == mPrefs.getIdleTimeoutMin()) current = i;
+            }
+
+            b.setSingleChoiceItems(names,
+                    current,
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            mPrefs.setIdleTimeoutMin(sIdleMinutes[which]);
+                            mPower.setIdleTimeout(sIdleMinutes[which] * 60000L);
+                            scheduleIdleCheck();
+                            dismissDialog(R.string.menu_idle);
+                        }
+            });
+
+            return b.create();
+        }
+
+        if (id == R.string.menu_morse) {
+            Builder b = new AlertDialog.Builder(this);
+
+            b.setTitle(R.string.dlg_title_morse);
+
+            final EditText text = new EditText(this);
+            text.setSingleLine(true);
+            text.setText(mPrefs.getMorseText());
+            b.setView(text);
+
+            b.setPositiveButton(R.string.dlg_play, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    String s = text.getText().toString();
+                    mPrefs.setMorseText(s);
+                    playPattern(LightPattern.morse(s, LightPattern.MORSE_UNIT_MS, false));
+                }
+            });
+
+            return b.create();
+        }
+
         return super.onCreateDialog(id);
     }
 
     // ---- internal stuff ------
 
     private void goBright() {
+        stopPattern();
+        if (mPrefs.getMode() == PrefsValues.MODE_TORCH) toggleMode();
         mPrefs.setBrightness(1.0f);
         applyCurrentSetting();
     }
 
     private void goDark() {
+        stopPattern();
         mPrefs.setBrightness(0.1f);
         applyCurrentSetting();
     }
 
+    private void toggleMode() {
+        stopPattern();
+        boolean torch = mPrefs.getMode() != PrefsValues.MODE_TORCH;
+        mPrefs.setMode(torch ? PrefsValues.MODE_TORCH : PrefsValues.MODE_SCREEN);
+        TorchService.send(this, torch ? TorchService.ACTION_ON : TorchService.ACTION_OFF, 0);
+        applyCurrentSetting();
+    }
+
+    /** Plays a pattern on the LED in torch mode, on the screen otherwise. */
+    private void playPattern(LightPattern pattern) {
+        stopPattern();
+        if (pattern == null) return;
+
+        if (mPrefs.getMode() == PrefsValues.MODE_TORCH) {
+            TorchService.sendPattern(this, pattern);
+        } else {
+            mPlayer.start(pattern, SystemClock.uptimeMillis());
+            mPatternStep.run();
+        }
+    }
+
+    /** Stops a screen pattern. In torch mode, the next command replaces the pattern. */
+    private void stopPattern() {
+        mHandler.removeCallbacks(mPatternStep);
+        if (mPlayer.isPlaying()) {
+            mPlayer.stop();
+            applyColor(mPrefs.getColorIndex(), false /*fade*/);
+        }
+    }
+
+    /**
+     * Vertical swipes over the whole screen change the brightness: a full
+     * screen height goes from min to max. The window is updated at most once
+     * per frame and the pref is written once, when the gesture ends.
+     */
+    private boolean onSwipe(View v, MotionEvent event) {
+        if (mPrefs.getMode() == PrefsValues.MODE_TORCH || v.getHeight() == 0) return false;
+
+        switch (event.getAction()) {
+        case MotionEvent.ACTION_DOWN:
+            stopPattern();
+            mSwipeStartY = event.getY();
+            mSwipeStartBrightness = mPrefs.getBrightness();
+            mSwipeBrightness = mSwipeStartBrightness;
+            return true;
+
+        case MotionEvent.ACTION_MOVE:
+            float f = mSwipeStartBrightness + (mSwipeStartY - event.getY()) / v.getHeight();
+            mSwipeBrightness = Math.max(MIN_BRIGHTNESS, Math.min(1.0f, f));
+            if (!mSwipePending) {
+                mSwipePending = true;
+                mHandler.postAtTime(mSwipeFrame, SystemClock.uptimeMillis() + FRAME_MS);
+            }
+            return true;
+
+        case MotionEvent.ACTION_UP:
+        case MotionEvent.ACTION_CANCEL:
+            mHandler.removeCallbacks(mSwipeFrame);
+            mSwipePending = false;
+            showBrightness(mSwipeBrightness);
+            if (mSwipeBrightness != mSwipeStartBrightness) {
+                mPrefs.setBrightness(mSwipeBrightness);
+            }
+            return true;
+        }
+        return false;
+    }
+
     private void applyCurrentSetting() {
-        float f = mPrefs.getBrightness();
-        setBrightness(f);
-        mCurrentLabel.setText(f < 0.5 ?
-                        R.string.label_dark :
-                        R.string.label_bright);
-        mCurrentIcon.setImageResource(f < 0.5 ? R.drawable.dark_icon : R.drawable.bright_icon);
+        if (mPrefs.getMode() == PrefsValues.MODE_TORCH) {
+            // No need to burn the battery on the screen too.
+            setBrightness(0.1f);
+            setLabel(R.string.label_torch, R.drawable.bright_icon);
+            return;
+        }
+        showBrightness(mPrefs.getBrightness());
+    }
+
+    /**
+     * Sets the window brightness, within the {@link PowerPolicy} cap, and the
+     * label matching the requested brightness.
+     */
+    private void showBrightness(float f) {
+        setBrightness(mPower.limit(f));
+        if (f < BRIGHT_THRESHOLD) {
+            setLabel(R.string.label_dark, R.drawable.dark_icon);
+        } else {
+            setLabel(R.string.label_bright, R.drawable.bright_icon);
+        }
+    }
+
+    /** Changes the label and icon, only if they are different. */
+    private void setLabel(int labelId, int iconId) {
+        if (labelId != mShownLabel) {
+            mShownLabel = labelId;
+            mCurrentLabel.setText(labelId);
+            mCurrentIcon.setImageResource(iconId);
+        }
     }
 
     private void setBrightness(float value) {
@@ -210,18 +595,37 @@ public class FlashlightActivity extends Activity {
         //   http://android.git.kernel.org/?p=platform/development.git;a=blob;f=apps/Development/src/com/android/development/PointerLocation.java;h=668e9ba167f590c97481e348ced5f97d45f307c9;hb=HEAD
 
         WindowManager.LayoutParams lp = getWindow().getAttributes();
+        if (lp.screenBrightness == value) return;
         lp.screenBrightness = value;
         getWindow().setAttributes(lp);
-        Log.d(TAG, "Set brightness to " + Float.toString(value));
+        if (DEBUG) Log.d(TAG, "Set brightness to " + Float.toString(value));
     }
 
     private void changeColor(int colorIndex) {
         mPrefs.setColorIndex(colorIndex);
-        applyColor(colorIndex);
+        applyColor(colorIndex, true /*fade*/);
     }
 
-    private void applyColor(int colorIndex) {
-        if (colorIndex < 0 || colorIndex >= sColorHex.length) colorIndex = 0;
-        getWindow().setBackgroundDrawable(new ColorDrawable(sColorHex[colorIndex]));
+    /**
+     * Shows a color from sColorHex or, past the colors, an effect from sEffects.
+     *
+     * @param fade True to crossfade from the current color.
+     */
+    private void applyColor(int colorIndex, boolean fade) {
+        if (colorIndex < 0 || colorIndex >= sColorNames.length) colorIndex = 0;
+
+        if (colorIndex >= sColorHex.length) {
+            mLitColor = sColorHex[0];
+            if (!mPlayer.isPlaying()) mColorView.play(sEffects[colorIndex - sColorHex.length]);
+            return;
+        }
+
+        mLitColor = sColorHex[colorIndex];
+        if (mPlayer.isPlaying()) return;
+        if (fade) {
+            mColorView.play(ColorEffect.crossfade(mColorView.getColor(), mLitColor, CROSSFADE_MS));
+        } else {
+            mColorView.setColor(mLitColor);
+        }
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+import android.app.Application;
+import android.os.StrictMode;
+
+public class FlashlightApp extends Application {
+
+    private static final boolean DEBUG = false;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (DEBUG && Torch.getApiLevel() >= 9) enableStrictMode();
+        // Load the settings off the main thread before the activity needs them.
+        PrefsValues.preload(this);
+    }
+
+    /**
+     * Kills the app on any disk access from the main thread.
+     * <p/>
+     * This is a manual check, there's no instrumentation test for it: set
+     * DEBUG, install on an API 9+ device, then launch the app, switch between
+     * bright and dark, cycle the colors and the effects and rotate the device
+     * to go through onCreate again. The app must not die and
+     * "adb logcat -s StrictMode" must stay empty.
+     */
+    private void enableStrictMode() {
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .penaltyLog()
+                .penaltyDeath()
+                .build());
+    }
+}
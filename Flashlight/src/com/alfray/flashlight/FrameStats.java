@@ -0,0 +1,72 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+/**
+ * Frame time and allocation counters of an animation, c.f.
+ * {@link ColorView#getFrameStats()}.
+ * <p/>
+ * Only used on the UI thread. Doesn't depend on Android.
+ */
+public class FrameStats {
+
+    private long mLastNs;
+    private int mFrames;
+    private long mSumNs;
+    private long mMaxNs;
+    private long mAllocations;
+
+    /** Clears all the counters. */
+    public void reset() {
+        mLastNs = 0;
+        mFrames = 0;
+        mSumNs = 0;
+        mMaxNs = 0;
+        mAllocations = 0;
+    }
+
+    /** Starts a new run of frames: the gap since the last frame isn't a frame time. */
+    public void restart() {
+        mLastNs = 0;
+    }
+
+    /** Records a frame drawn at that {@link System#nanoTime()} time. */
+    public void onFrame(long nowNs) {
+        if (mLastNs != 0) {
+            long dt = nowNs - mLastNs;
+            mFrames++;
+            mSumNs += dt;
+            if (dt > mMaxNs) mMaxNs = dt;
+        }
+        mLastNs = nowNs;
+    }
+
+    public void addAllocations(long count) {
+        mAllocations += count;
+    }
+
+    /** Number of frame times recorded. */
+    public int getFrames() {
+        return mFrames;
+    }
+
+    public float getAverageFrameMs() {
+        return mFrames == 0 ? 0 : mSumNs / 1e6f / mFrames;
+    }
+
+    public float getMaxFrameMs() {
+        return mMaxNs / 1e6f;
+    }
+
+    /**
+     * Allocations made while drawing, when counting is enabled. Counted in the
+     * unit of the {@link ColorPlayer.AllocationCounter}: objects on a device.
+     */
+    public long getAllocations() {
+        return mAllocations;
+    }
+}
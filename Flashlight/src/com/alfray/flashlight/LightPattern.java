@@ -0,0 +1,124 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+/**
+ * A light pattern precompiled to on/off durations, played by {@link PatternPlayer}.
+ * <p/>
+ * Doesn't depend on Android.
+ */
+public class LightPattern {
+
+    /** Default Morse unit, i.e. the duration of a dot. About 10 words per minute. */
+    public static final int MORSE_UNIT_MS = 120;
+
+    /** Morse codes for A..Z then 0..9. */
+    private static final String[] MORSE = {
+        ".-", "-...", "-.-.", "-..", ".", "..-.", "--.", "....", "..", ".---",
+        "-.-", ".-..", "--", "-.", "---", ".--.", "--.-", ".-.", "...", "-",
+        "..-", "...-", ".--", "-..-", "-.--", "--..",
+        "-----", ".----", "..---", "...--", "....-",
+        ".....", "-....", "--...", "---..", "----.",
+    };
+
+    /**
+     * Durations in milliseconds, alternating on and off and starting with on.
+     * Always an even number of strictly positive values.
+     */
+    public final int[] durations;
+    /** True if the pattern repeats. */
+    public final boolean loop;
+
+    private LightPattern(int[] durations, int count, boolean loop) {
+        this.durations = new int[count];
+        System.arraycopy(durations, 0, this.durations, 0, count);
+        this.loop = loop;
+    }
+
+    /** Creates a pattern from existing durations, e.g. sent in an Intent. */
+    public static LightPattern fromDurations(int[] durations, boolean loop) {
+        if (durations == null || durations.length < 2 || (durations.length & 1) != 0) return null;
+        for (int d : durations) {
+            if (d <= 0) return null;
+        }
+        return new LightPattern(durations, durations.length, loop);
+    }
+
+    /**
+     * A strobe with a 50% duty cycle.
+     *
+     * @param hz Flashes per second, clamped to 1..25.
+     */
+    public static LightPattern strobe(int hz) {
+        if (hz < 1) hz = 1;
+        if (hz > 25) hz = 25;
+        int period = 1000 / hz;
+        int on = period / 2;
+        return new LightPattern(new int[] { on, period - on }, 2, true);
+    }
+
+    /** SOS in Morse, repeated. */
+    public static LightPattern sos() {
+        return morse("SOS", MORSE_UNIT_MS, true);
+    }
+
+    /**
+     * Encodes text to Morse: a dot is one unit on, a dash three, with a one
+     * unit gap between them, three between letters and seven between words.
+     * Characters without a Morse code are ignored.
+     *
+     * @return The pattern, or null if there's nothing to play.
+     */
+    public static LightPattern morse(String text, int unitMs, boolean loop) {
+        if (text == null || unitMs <= 0) return null;
+
+        int[] d = new int[16];
+        int n = 0;
+        int gap = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toUpperCase(text.charAt(i));
+            String code = null;
+            if (c >= 'A' && c <= 'Z') {
+                code = MORSE[c - 'A'];
+            } else if (c >= '0' && c <= '9') {
+                code = MORSE[26 + c - '0'];
+            } else if (Character.isWhitespace(c)) {
+                if (n > 0) gap = 7;
+                continue;
+            }
+            if (code == null) continue;
+
+            for (int j = 0; j < code.length(); j++) {
+                if (n + 2 > d.length) {
+                    int[] d2 = new int[d.length * 2];
+                    System.arraycopy(d, 0, d2, 0, n);
+                    d = d2;
+                }
+                if (n > 0) {
+                    // Widen the gap after the previous element.
+                    d[n - 1] = unitMs * (j > 0 ? 1 : gap == 0 ? 3 : gap);
+                }
+                d[n++] = unitMs * (code.charAt(j) == '-' ? 3 : 1);
+                d[n++] = unitMs;
+            }
+            gap = 0;
+        }
+
+        if (n == 0) return null;
+        // Word gap before repeating or after the end.
+        d[n - 1] = unitMs * 7;
+        return new LightPattern(d, n, loop);
+    }
+
+    /** Returns the duration of one play of the pattern, in milliseconds. */
+    public long getTotalMs() {
+        long total = 0;
+        for (int d : durations) total += d;
+        return total;
+    }
+}
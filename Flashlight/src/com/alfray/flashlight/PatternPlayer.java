@@ -0,0 +1,131 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+/**
+ * Plays a {@link LightPattern} against absolute deadlines: each transition
+ * is scheduled from the start time plus the pattern durations, never from
+ * the time the previous one actually happened, so delays don't accumulate.
+ * Late transitions skip the segments that are already over.
+ * <p/>
+ * The caller provides the clock: call {@link #step(long)} at or after the
+ * returned deadline. Nothing is allocated once started.
+ * Not thread-safe. Doesn't depend on Android.
+ */
+public class PatternPlayer {
+
+    /** Receives the light state changes. */
+    public interface Output {
+        public void setLit(boolean lit);
+    }
+
+    private final Output mOutput;
+    private int[] mDurations;
+    private boolean mLoop;
+    /** Index of the current segment, even for on, -1 before the first step. */
+    private int mIndex;
+    /** Absolute end of the current segment, i.e. the next deadline. */
+    private long mDeadline;
+    private boolean mLit;
+
+    private int mSteps;
+    private int mSkipped;
+    private long mLateSum;
+    private long mLateMax;
+
+    public PatternPlayer(Output output) {
+        mOutput = output;
+    }
+
+    /**
+     * Starts playing. The first segment starts at nowMs, at the next {@link #step}.
+     *
+     * @return The first deadline, i.e. nowMs.
+     */
+    public long start(LightPattern pattern, long nowMs) {
+        mDurations = pattern.durations;
+        mLoop = pattern.loop;
+        mIndex = -1;
+        mDeadline = nowMs;
+        mSteps = 0;
+        mSkipped = 0;
+        mLateSum = 0;
+        mLateMax = 0;
+        return nowMs;
+    }
+
+    /** Stops playing and turns the light off. */
+    public void stop() {
+        mDurations = null;
+        setLit(false);
+    }
+
+    public boolean isPlaying() {
+        return mDurations != null;
+    }
+
+    /**
+     * Applies the segment in effect at nowMs.
+     *
+     * @return The next deadline, or -1 when the pattern is over or stopped.
+     */
+    public long step(long nowMs) {
+        int[] d = mDurations;
+        if (d == null) return -1;
+        if (nowMs < mDeadline) return mDeadline;
+
+        long late = nowMs - mDeadline;
+        mSteps++;
+        mLateSum += late;
+        if (late > mLateMax) mLateMax = late;
+
+        int n = d.length;
+        boolean first = true;
+        do {
+            if (!first) mSkipped++;
+            first = false;
+            if (++mIndex == n) {
+                if (!mLoop) {
+                    stop();
+                    return -1;
+                }
+                mIndex = 0;
+            }
+            mDeadline += d[mIndex];
+        } while (mDeadline <= nowMs);
+
+        setLit((mIndex & 1) == 0);
+        return mDeadline;
+    }
+
+    private void setLit(boolean lit) {
+        if (lit != mLit) {
+            mLit = lit;
+            mOutput.setLit(lit);
+        }
+    }
+
+    /** Number of transitions applied since start. */
+    public int getSteps() {
+        return mSteps;
+    }
+
+    /** Number of segments skipped because they were already over. */
+    public int getSkipped() {
+        return mSkipped;
+    }
+
+    /** Average lateness of the transitions in milliseconds. */
+    public float getAverageLateMs() {
+        return mSteps == 0 ? 0 : (float) mLateSum / mSteps;
+    }
+
+    /** Max lateness of the transitions in milliseconds. */
+    public long getMaxLateMs() {
+        return mLateMax;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+/**
+ * Decides how bright the screen light may be and when to let the screen
+ * turn off: caps the brightness in steps as the battery drops or as it gets
+ * hot, and tracks the idle timeout.
+ * <p/>
+ * Only computes, the caller feeds the battery state and the clock: nothing
+ * is polled. Not thread-safe. Doesn't depend on Android.
+ */
+public class PowerPolicy {
+
+    public static final int UNKNOWN = -1;
+
+    /** Battery levels in percent below which the brightness is capped, highest first. */
+    private static final int[] DIM_LEVELS = { 30, 15, 5 };
+    private static final float[] DIM_CAPS = { 0.7f, 0.4f, 0.2f };
+
+    /** Battery temperatures in tenths of a degree C above which the brightness is capped. */
+    private static final int[] HOT_TEMPS = { 450, 500 };
+    private static final float[] HOT_CAPS = { 0.6f, 0.3f };
+    /** A thermal step is only left once this much cooler, in tenths of a degree C. */
+    private static final int HOT_HYSTERESIS = 20;
+
+    private int mBatteryPercent = UNKNOWN;
+    private boolean mPlugged;
+    private int mTemperature = UNKNOWN;
+    /** Number of HOT_TEMPS steps in effect. */
+    private int mHotSteps;
+    private boolean mThermalBackoff;
+    private long mIdleTimeoutMs;
+    private long mLastActivityMs;
+
+    /**
+     * Updates the battery state.
+     *
+     * @param percent Battery level 0..100 or UNKNOWN.
+     * @param plugged True if charging: the battery doesn't cap the brightness then.
+     * @param tenthsC Battery temperature in tenths of a degree C or UNKNOWN.
+     * @return True if the brightness cap changed.
+     */
+    public boolean setBattery(int percent, boolean plugged, int tenthsC) {
+        float before = getCap();
+        mBatteryPercent = percent;
+        mPlugged = plugged;
+        mTemperature = tenthsC;
+
+        if (tenthsC == UNKNOWN) {
+            mHotSteps = 0;
+        } else {
+            while (mHotSteps < HOT_TEMPS.length && tenthsC >= HOT_TEMPS[mHotSteps]) {
+                mHotSteps++;
+            }
+            while (mHotSteps > 0 && tenthsC < HOT_TEMPS[mHotSteps - 1] - HOT_HYSTERESIS) {
+                mHotSteps--;
+            }
+        }
+        return getCap() != before;
+    }
+
+    /** Enables the thermal back-off. Returns true if the brightness cap changed. */
+    public boolean setThermalBackoff(boolean enabled) {
+        float before = getCap();
+        mThermalBackoff = enabled;
+        return getCap() != before;
+    }
+
+    /** Sets the idle timeout, 0 for none. */
+    public void setIdleTimeout(long ms) {
+        mIdleTimeoutMs = ms;
+    }
+
+    /** Records a user interaction at that time. */
+    public void onUserActivity(long nowMs) {
+        mLastActivityMs = nowMs;
+    }
+
+    /** Returns when the idle timeout expires, or -1 if there's none. */
+    public long getIdleDeadline() {
+        return mIdleTimeoutMs <= 0 ? -1 : mLastActivityMs + mIdleTimeoutMs;
+    }
+
+    public boolean isIdle(long nowMs) {
+        long deadline = getIdleDeadline();
+        return deadline >= 0 && nowMs >= deadline;
+    }
+
+    /** Returns the max brightness allowed, in range 0..1. */
+    public float getCap() {
+        float cap = 1.0f;
+        if (!mPlugged && mBatteryPercent != UNKNOWN) {
+            for (int i = 0; i < DIM_LEVELS.length && mBatteryPercent <= DIM_LEVELS[i]; i++) {
+                cap = DIM_CAPS[i];
+            }
+        }
+        if (mThermalBackoff && mHotSteps > 0) {
+            cap = Math.min(cap, HOT_CAPS[mHotSteps - 1]);
+        }
+        return cap;
+    }
+
+    /** Returns the brightness to use for the requested one. */
+    public float limit(float brightness) {
+        return Math.min(brightness, getCap());
+    }
+
+    public int getBatteryPercent() {
+        return mBatteryPercent;
+    }
+
+    public int getTemperature() {
+        return mTemperature;
+    }
+}
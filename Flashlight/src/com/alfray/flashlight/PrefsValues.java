@@ -6,36 +6,303 @@
 
 package com.alfray.flashlight;
 
-
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.util.Log;
 
+/**
+ * The settings, kept in memory and written behind.
+ * <p/>
+ * The prefs are loaded and written on a background thread, never on the
+ * caller's. Setters only change the memory copy and schedule one write for
+ * all the changes made within {@link #WRITE_DELAY_MS}. Call {@link #flush()}
+ * from onPause to start the write right away, before the process can be
+ * killed, without waiting for it on the UI thread.
+ * <p/>
+ * Getters wait for the load at most {@link #LOAD_TIMEOUT_MS}. If it takes
+ * longer, the defaults are used until the load completes. Each setting has
+ * its own dirty bit: a late load only replaces the settings that weren't
+ * changed meanwhile, and a write only stores the changed ones, so stored
+ * settings are never overwritten with defaults.
+ */
 public class PrefsValues {
 
-    private SharedPreferences mPrefs;
+    private static final String TAG = "PrefsValues";
+
+    /** Light the room with the screen. */
+    public static final int MODE_SCREEN = 0;
+    /** Light the room with the camera flash LED, c.f. {@link Torch}. */
+    public static final int MODE_TORCH = 1;
+
+    /** Changes within this delay are written together. */
+    private static final long WRITE_DELAY_MS = 250;
+    /** Max time a getter or setter waits for the load. */
+    private static final long LOAD_TIMEOUT_MS = 1000;
+
+    /** Dirty bits, one per setting. */
+    private static final int DIRTY_COLOR_INDEX = 1 << 0;
+    private static final int DIRTY_BRIGHTNESS = 1 << 1;
+    private static final int DIRTY_MODE = 1 << 2;
+    private static final int DIRTY_STROBE_HZ = 1 << 3;
+    private static final int DIRTY_MORSE_TEXT = 1 << 4;
+    private static final int DIRTY_IDLE_TIMEOUT_MIN = 1 << 5;
+    private static final int DIRTY_THERMAL_BACKOFF = 1 << 6;
+
+    private static final Object sLock = new Object();
+    /** Loads then writes the prefs. Null until the first instance. */
+    private static Handler sHandler;
+    private static Context sAppContext;
+    /** Only used on the sHandler thread. */
+    private static SharedPreferences sPrefs;
+
+    // All guarded by sLock. Hold the defaults until loaded.
+    private static boolean sLoaded;
+    /** DIRTY_ bits of the settings changed since the last write. */
+    private static int sDirty;
+    private static int sColorIndex = -1;
+    private static float sBrightness = 1.0f;
+    private static int sMode = MODE_SCREEN;
+    private static int sStrobeHz = 10;
+    private static String sMorseText = "SOS";
+    private static int sIdleTimeoutMin = 10;
+    private static boolean sThermalBackoff = true;
+
+    private static final Runnable sLoad = new Runnable() {
+        public void run() {
+            try {
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(sAppContext);
+                sPrefs = prefs;
+                synchronized (sLock) {
+                    // If a getter timed out, the defaults were used and some
+                    // may have been changed since: keep those.
+                    int d = sDirty;
+                    int colorIndex = prefs.getInt("colorIndex", sColorIndex);
+                    float brightness = prefs.getFloat("brightness", sBrightness);
+                    int mode = prefs.getInt("mode", sMode);
+                    int strobeHz = prefs.getInt("strobeHz", sStrobeHz);
+                    String morseText = prefs.getString("morseText", sMorseText);
+                    int idleTimeoutMin = prefs.getInt("idleTimeoutMin", sIdleTimeoutMin);
+                    boolean thermalBackoff = prefs.getBoolean("thermalBackoff", sThermalBackoff);
+
+                    if ((d & DIRTY_COLOR_INDEX) == 0) sColorIndex = colorIndex;
+                    if ((d & DIRTY_BRIGHTNESS) == 0) sBrightness = brightness;
+                    if ((d & DIRTY_MODE) == 0) sMode = mode;
+                    if ((d & DIRTY_STROBE_HZ) == 0) sStrobeHz = strobeHz;
+                    if ((d & DIRTY_MORSE_TEXT) == 0) sMorseText = morseText;
+                    if ((d & DIRTY_IDLE_TIMEOUT_MIN) == 0) sIdleTimeoutMin = idleTimeoutMin;
+                    if ((d & DIRTY_THERMAL_BACKOFF) == 0) sThermalBackoff = thermalBackoff;
+
+                    if (d != 0) sHandler.post(sWrite);
+                }
+            } catch (RuntimeException e) {
+                // e.g. a ClassCastException for a pref of the wrong type.
+                Log.w(TAG, "Failed to load prefs, using defaults", e);
+            } finally {
+                synchronized (sLock) {
+                    sLoaded = true;
+                    sLock.notifyAll();
+                }
+            }
+        }
+    };
+
+    private static final Runnable sWrite = new Runnable() {
+        public void run() {
+            SharedPreferences.Editor e;
+            synchronized (sLock) {
+                // Not loaded yet, sLoad writes once it has the prefs.
+                int d = sDirty;
+                if (d == 0 || sPrefs == null) return;
+                sDirty = 0;
+                // Only the changed settings: the others may not be loaded.
+                e = sPrefs.edit();
+                if ((d & DIRTY_COLOR_INDEX) != 0) e.putInt("colorIndex", sColorIndex);
+                if ((d & DIRTY_BRIGHTNESS) != 0) e.putFloat("brightness", sBrightness);
+                if ((d & DIRTY_MODE) != 0) e.putInt("mode", sMode);
+                if ((d & DIRTY_STROBE_HZ) != 0) e.putInt("strobeHz", sStrobeHz);
+                if ((d & DIRTY_MORSE_TEXT) != 0) e.putString("morseText", sMorseText);
+                if ((d & DIRTY_IDLE_TIMEOUT_MIN) != 0) e.putInt("idleTimeoutMin", sIdleTimeoutMin);
+                if ((d & DIRTY_THERMAL_BACKOFF) != 0) {
+                    e.putBoolean("thermalBackoff", sThermalBackoff);
+                }
+            }
+            e.commit();
+        }
+    };
 
     public PrefsValues(Context context) {
-        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        preload(context);
+    }
+
+    /**
+     * Starts loading the prefs on a background thread, if not done yet.
+     * Typically called once from {@link FlashlightApp#onCreate()}.
+     */
+    public static void preload(Context context) {
+        synchronized (sLock) {
+            if (sHandler != null) return;
+            sAppContext = context.getApplicationContext();
+            HandlerThread t = new HandlerThread("PrefsValues", Process.THREAD_PRIORITY_BACKGROUND);
+            t.start();
+            sHandler = new Handler(t.getLooper());
+            sHandler.post(sLoad);
+        }
+    }
+
+    /**
+     * Makes the pending changes the next thing written, instead of waiting
+     * for {@link #WRITE_DELAY_MS}. Doesn't wait for the write: the disk time
+     * stays on the prefs thread. Call from onPause.
+     */
+    public static void flush() {
+        synchronized (sLock) {
+            if (sHandler == null || sDirty == 0) return;
+            sHandler.removeCallbacks(sWrite);
+            sHandler.postAtFrontOfQueue(sWrite);
+        }
     }
 
-    public SharedPreferences getPrefs() {
-        return mPrefs;
+    /**
+     * Waits for the load, at most {@link #LOAD_TIMEOUT_MS}, then gives up and
+     * keeps the defaults. Must hold sLock.
+     */
+    private static void waitLoaded() {
+        if (sLoaded) return;
+        long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MS;
+        long left;
+        while (!sLoaded && (left = deadline - SystemClock.uptimeMillis()) > 0) {
+            try {
+                sLock.wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (!sLoaded) {
+            Log.w(TAG, "Prefs not loaded in time, using defaults");
+            sLoaded = true;
+        }
+    }
+
+    /** Marks the setting as changed and schedules a write. Must hold sLock. */
+    private static void changed(int dirty) {
+        sDirty |= dirty;
+        sHandler.removeCallbacks(sWrite);
+        sHandler.postDelayed(sWrite, WRITE_DELAY_MS);
     }
 
     public int getColorIndex() {
-        return mPrefs.getInt("colorIndex", -1);
+        synchronized (sLock) {
+            waitLoaded();
+            return sColorIndex;
+        }
     }
 
     public void setColorIndex(int colorIndex) {
-        mPrefs.edit().putInt("colorIndex", colorIndex).commit();
+        synchronized (sLock) {
+            waitLoaded();
+            sColorIndex = colorIndex;
+            changed(DIRTY_COLOR_INDEX);
+        }
     }
 
     public float getBrightness() {
-        return mPrefs.getFloat("brightness", 1.0f);
+        synchronized (sLock) {
+            waitLoaded();
+            return sBrightness;
+        }
     }
 
     public void setBrightness(float brigthness) {
-        mPrefs.edit().putFloat("brightness", brigthness).commit();
+        synchronized (sLock) {
+            waitLoaded();
+            sBrightness = brigthness;
+            changed(DIRTY_BRIGHTNESS);
+        }
+    }
+
+    /** Returns {@link #MODE_SCREEN} or {@link #MODE_TORCH}. */
+    public int getMode() {
+        synchronized (sLock) {
+            waitLoaded();
+            return sMode;
+        }
+    }
+
+    public void setMode(int mode) {
+        synchronized (sLock) {
+            waitLoaded();
+            sMode = mode;
+            changed(DIRTY_MODE);
+        }
+    }
+
+    /** Strobe frequency in flashes per second. */
+    public int getStrobeHz() {
+        synchronized (sLock) {
+            waitLoaded();
+            return sStrobeHz;
+        }
+    }
+
+    public void setStrobeHz(int hz) {
+        synchronized (sLock) {
+            waitLoaded();
+            sStrobeHz = hz;
+            changed(DIRTY_STROBE_HZ);
+        }
+    }
+
+    /** Last text played in Morse. */
+    public String getMorseText() {
+        synchronized (sLock) {
+            waitLoaded();
+            return sMorseText;
+        }
+    }
+
+    public void setMorseText(String text) {
+        synchronized (sLock) {
+            waitLoaded();
+            sMorseText = text == null ? "" : text;
+            changed(DIRTY_MORSE_TEXT);
+        }
+    }
+
+    /** Minutes without interaction before the screen may turn off, 0 for never. */
+    public int getIdleTimeoutMin() {
+        synchronized (sLock) {
+            waitLoaded();
+            return sIdleTimeoutMin;
+        }
+    }
+
+    public void setIdleTimeoutMin(int minutes) {
+        synchronized (sLock) {
+            waitLoaded();
+            sIdleTimeoutMin = minutes;
+            changed(DIRTY_IDLE_TIMEOUT_MIN);
+        }
+    }
+
+    /** True to dim the screen light when the battery gets hot, c.f. {@link PowerPolicy}. */
+    public boolean getThermalBackoff() {
+        synchronized (sLock) {
+            waitLoaded();
+            return sThermalBackoff;
+        }
+    }
+
+    public void setThermalBackoff(boolean enabled) {
+        synchronized (sLock) {
+            waitLoaded();
+            sThermalBackoff = enabled;
+            changed(DIRTY_THERMAL_BACKOFF);
+        }
     }
 }
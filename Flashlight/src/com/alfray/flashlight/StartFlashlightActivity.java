@@ -0,0 +1,36 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+/**
+ * Handles org.openintents.action.START_FLASHLIGHT without any UI: toggles
+ * the torch in torch mode, or starts {@link FlashlightActivity} in screen mode.
+ * Uses Theme.NoDisplay, so it must finish in onCreate.
+ */
+public class StartFlashlightActivity extends Activity {
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        long launchMs = SystemClock.uptimeMillis();
+
+        PrefsValues prefs = new PrefsValues(this);
+        if (prefs.getMode() == PrefsValues.MODE_TORCH && Torch.isAvailable(this)) {
+            TorchService.send(this, TorchService.ACTION_TOGGLE, launchMs);
+        } else {
+            Intent i = new Intent(this, FlashlightActivity.class);
+            i.putExtra(TorchService.EXTRA_LAUNCH_MS, launchMs);
+            startActivity(i);
+        }
+        finish();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+import java.util.List;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.Camera;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Drives the camera flash LED in torch mode.
+ * <p/>
+ * This uses the camera flash modes, i.e. API 5+. The camera is kept open
+ * while the torch is on, so only {@link TorchService} should use this.
+ */
+public class Torch {
+
+    private static final String TAG = "Flashlight-Torch";
+    private static final boolean DEBUG = false;
+
+    private static int sApiLevel = 0;
+
+    private Camera mCamera;
+    private Camera.Parameters mParams;
+
+    /** Returns {@link Build.VERSION#SDK} as an int. Value is cached locally. */
+    public static int getApiLevel() {
+        if (sApiLevel == 0) {
+            try {
+                // SDK_INT only exists since API 4 so let's use the string version.
+                sApiLevel = Integer.parseInt(Build.VERSION.SDK);
+            } catch (Exception e) {
+                // This app doesn't run below 3 anyway
+                sApiLevel = 3;
+            }
+        }
+        return sApiLevel;
+    }
+
+    /**
+     * Returns true if this device may have a flash LED. This doesn't open the
+     * camera, so {@link #on()} can still fail.
+     */
+    public static boolean isAvailable(Context context) {
+        if (getApiLevel() < 5) return false;
+        if (getApiLevel() < 7) return true; // no feature query before API 7
+        return context.getPackageManager().hasSystemFeature(
+                PackageManager.FEATURE_CAMERA_FLASH);
+    }
+
+    public boolean isOn() {
+        return mCamera != null;
+    }
+
+    /**
+     * Opens the camera and turns the LED on.
+     *
+     * @return False if there's no camera, it's in use or it has no torch mode.
+     */
+    public boolean on() {
+        if (mCamera != null) return true;
+
+        Camera c = null;
+        try {
+            c = Camera.open();
+            if (c == null) return false;
+
+            Camera.Parameters p = c.getParameters();
+            List<String> modes = p.getSupportedFlashModes();
+            if (modes == null || !modes.contains(Camera.Parameters.FLASH_MODE_TORCH)) {
+                if (DEBUG) Log.d(TAG, "No torch mode: " + modes);
+                c.release();
+                return false;
+            }
+
+            p.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+            c.setParameters(p);
+            // Some devices only light the LED with a running preview.
+            c.startPreview();
+
+            mParams = p;
+            mCamera = c;
+            return true;
+
+        } catch (RuntimeException e) {
+            // Camera.open() fails when another app has the camera.
+            Log.w(TAG, "Torch failed", e);
+            if (c != null) c.release();
+            return false;
+        }
+    }
+
+    /**
+     * Lights or darkens the LED while the camera is open, e.g. to play a
+     * {@link LightPattern}. Reuses the camera parameters, this is much
+     * faster than {@link #on()} and {@link #off()}.
+     */
+    public void setLit(boolean lit) {
+        Camera c = mCamera;
+        Camera.Parameters p = mParams;
+        if (c == null || p == null) return;
+        p.setFlashMode(lit ? Camera.Parameters.FLASH_MODE_TORCH : Camera.Parameters.FLASH_MODE_OFF);
+        try {
+            c.setParameters(p);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Torch change failed", e);
+        }
+    }
+
+    /** Turns the LED off and releases the camera. */
+    public void off() {
+        Camera c = mCamera;
+        if (c == null) return;
+        mCamera = null;
+        mParams = null;
+        try {
+            Camera.Parameters p = c.getParameters();
+            p.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+            c.setParameters(p);
+            c.stopPreview();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Torch off failed", e);
+        } finally {
+            c.release();
+        }
+    }
+}
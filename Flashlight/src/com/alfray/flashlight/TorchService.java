@@ -0,0 +1,280 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+/**
+ * Keeps the camera LED on in torch mode, as a foreground service with an
+ * ongoing notification that turns it off.
+ * <p/>
+ * The camera is only touched on a background thread: Camera.open() can
+ * take a few hundred milliseconds.
+ *
+ * For debugging:
+ * $ adb -d shell am startservice -a com.alfray.flashlight.TORCH_TOGGLE
+ */
+public class TorchService extends Service {
+
+    private static final String TAG = "Flashlight-Torch";
+    private static final boolean DEBUG = false;
+
+    public static final String ACTION_ON = "com.alfray.flashlight.TORCH_ON";
+    public static final String ACTION_OFF = "com.alfray.flashlight.TORCH_OFF";
+    public static final String ACTION_TOGGLE = "com.alfray.flashlight.TORCH_TOGGLE";
+    /** Plays the pattern from {@link #EXTRA_DURATIONS} and {@link #EXTRA_LOOP}. */
+    public static final String ACTION_PATTERN = "com.alfray.flashlight.TORCH_PATTERN";
+
+    /** {@link LightPattern#durations}. Int array. */
+    public static final String EXTRA_DURATIONS = "durations";
+    /** {@link LightPattern#loop}. Boolean. */
+    public static final String EXTRA_LOOP = "loop";
+
+    /** {@link SystemClock#uptimeMillis()} of the launch intent, to measure
+     * the time to light on. Long, optional. */
+    public static final String EXTRA_LAUNCH_MS = "launch_ms";
+
+    private static final int NOTIF_ID = 1;
+
+    private final Torch mTorch = new Torch();
+    private final Handler mMainHandler = new Handler();
+    private HandlerThread mThread;
+    private Handler mHandler;
+    /** Only changed on the main thread. */
+    private boolean mWantOn;
+    /** Incremented for each command. Only changed on the main thread. */
+    private int mCommand;
+    /** Only used on the mHandler thread. */
+    private PatternThread mPatternThread;
+
+    /** Sends an action to the service. */
+    public static void send(Context context, String action, long launchMs) {
+        Intent i = new Intent(context, TorchService.class);
+        i.setAction(action);
+        if (launchMs > 0) i.putExtra(EXTRA_LAUNCH_MS, launchMs);
+        context.startService(i);
+    }
+
+    /** Plays a pattern on the LED. */
+    public static void sendPattern(Context context, LightPattern pattern) {
+        Intent i = new Intent(context, TorchService.class);
+        i.setAction(ACTION_PATTERN);
+        i.putExtra(EXTRA_DURATIONS, pattern.durations);
+        i.putExtra(EXTRA_LOOP, pattern.loop);
+        context.startService(i);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent == null ? null : intent.getAction();
+        long launchMs = intent == null ? 0 : intent.getLongExtra(EXTRA_LAUNCH_MS, 0);
+
+        if (ACTION_TOGGLE.equals(action)) {
+            action = mWantOn ? ACTION_OFF : ACTION_ON;
+        }
+
+        LightPattern pattern = null;
+        if (ACTION_PATTERN.equals(action)) {
+            pattern = LightPattern.fromDurations(intent.getIntArrayExtra(EXTRA_DURATIONS),
+                    intent.getBooleanExtra(EXTRA_LOOP, false));
+            if (pattern != null) action = ACTION_ON;
+        }
+
+        if (ACTION_ON.equals(action)) {
+            mWantOn = true;
+            startForeground(NOTIF_ID, createNotification());
+            post(true, pattern, launchMs);
+        } else {
+            mWantOn = false;
+            post(false, null, 0);
+        }
+
+        // Don't come back with the LED on after being killed.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mHandler.post(new Runnable() {
+            public void run() {
+                stopPattern();
+                mTorch.off();
+                mThread.quit();
+            }
+        });
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void post(final boolean on, final LightPattern pattern, final long launchMs) {
+        final int command = ++mCommand;
+        mHandler.post(new Runnable() {
+            public void run() {
+                stopPattern();
+                if (!on) {
+                    mTorch.off();
+                    mMainHandler.post(mStop);
+                    return;
+                }
+                boolean ok = mTorch.on();
+                if (DEBUG && ok && launchMs > 0) {
+                    Log.d(TAG, "Launch to light on: " +
+                            Long.toString(SystemClock.uptimeMillis() - launchMs) + " ms");
+                }
+                if (!ok) {
+                    mMainHandler.post(mFailed);
+                } else if (pattern != null) {
+                    mPatternThread = new PatternThread(pattern, command);
+                    mPatternThread.start();
+                } else {
+                    mTorch.setLit(true);
+                }
+            }
+        });
+    }
+
+    /** Stops the pattern thread, if any. Only on the mHandler thread. */
+    private void stopPattern() {
+        PatternThread t = mPatternThread;
+        if (t == null) return;
+        mPatternThread = null;
+        t.quit();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            // pass
+        }
+    }
+
+    /**
+     * Plays a pattern on the LED from a dedicated high priority thread,
+     * sleeping until each absolute deadline.
+     */
+    private class PatternThread extends Thread implements PatternPlayer.Output {
+
+        private final LightPattern mPattern;
+        private final int mPatternCommand;
+        private final PatternPlayer mPlayer = new PatternPlayer(this);
+        private volatile boolean mQuit;
+
+        public PatternThread(LightPattern pattern, int command) {
+            super("Flashlight-Pattern");
+            mPattern = pattern;
+            mPatternCommand = command;
+        }
+
+        public void setLit(boolean lit) {
+            mTorch.setLit(lit);
+        }
+
+        public void quit() {
+            mQuit = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+
+            long next = mPlayer.start(mPattern, SystemClock.uptimeMillis());
+            while (!mQuit && next >= 0) {
+                long wait = next - SystemClock.uptimeMillis();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                } else {
+                    next = mPlayer.step(SystemClock.uptimeMillis());
+                }
+            }
+
+            if (DEBUG) {
+                Log.d(TAG, "Pattern steps: " + Integer.toString(mPlayer.getSteps()) +
+                        ", late avg " + Float.toString(mPlayer.getAverageLateMs()) +
+                        " max " + Long.toString(mPlayer.getMaxLateMs()) +
+                        " ms, skipped " + Integer.toString(mPlayer.getSkipped()));
+            }
+
+            if (next < 0 && !mQuit) {
+                // Played to the end: nothing left to light.
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        // Unless another command came in meanwhile.
+                        if (mPatternCommand == mCommand) {
+                            mWantOn = false;
+                            post(false, null, 0);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private final Runnable mStop = new Runnable() {
+        public void run() {
+            if (!mWantOn) {
+                stopForeground(true);
+                stopSelf();
+            }
+        }
+    };
+
+    private final Runnable mFailed = new Runnable() {
+        public void run() {
+            Toast.makeText(TorchService.this, R.string.torch_failed, Toast.LENGTH_SHORT).show();
+            // Fall back to the screen.
+            new PrefsValues(TorchService.this).setMode(PrefsValues.MODE_SCREEN);
+            Intent i = new Intent(TorchService.this, FlashlightActivity.class);
+            i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            startActivity(i);
+
+            mWantOn = false;
+            stopForeground(true);
+            stopSelf();
+        }
+    };
+
+    private Notification createNotification() {
+        Intent i = new Intent(this, TorchService.class);
+        i.setAction(ACTION_OFF);
+        PendingIntent pi = PendingIntent.getService(this, 0, i, 0);
+
+        Notification n = new Notification(R.drawable.bright_icon, null, System.currentTimeMillis());
+        n.flags |= Notification.FLAG_ONGOING_EVENT;
+        n.setLatestEventInfo(this,
+                getString(R.string.app_name),
+                getString(R.string.torch_notification),
+                pi);
+        if (DEBUG) Log.d(TAG, "Notification created");
+        return n;
+    }
+}
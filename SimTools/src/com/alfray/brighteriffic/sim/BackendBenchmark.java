@@ -0,0 +1,193 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic.sim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import com.alfray.brighteriffic.BrightnessBackend;
+import com.alfray.brighteriffic.BrightnessCurve;
+import com.alfray.sim.Harness;
+
+/**
+ * Compares the per-call cost of the brightness write before and after the
+ * BrightnessBackend split.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.brighteriffic.sim.BackendBenchmark [--calls=N]
+ * </pre>
+ * The Android window and hardware service are not available here, so both
+ * paths write to stand-ins with the same shape: a params object with a
+ * public screenBrightness field and a service with setScreenBacklight(int).
+ * What is measured is the Java work around them:
+ * <ul>
+ * <li> old: parse the SDK string, look up the field or method by reflection,
+ *      write through it and String.format the log message, on every call,
+ *      like ChangeBrightnessActivity.setCurrentBrightness used to.
+ * <li> new: convert with the {@link BrightnessCurve}, switch on the mode picked
+ *      once, then write the field directly or invoke the cached Method, like
+ *      BrightnessChanger with the WindowBackend or HardwareBackend.
+ * </ul>
+ * Prints one "path,nsPerCall,bytesPerCall" line per path, after a warm-up.
+ * bytesPerCall is -1 when the JVM can't count allocations per thread.
+ */
+public class BackendBenchmark {
+
+    private static final int BR_MIN = BrightnessBackend.BR_MIN;
+    private static final int BR_MAX = BrightnessBackend.BR_MAX;
+    private static final int MODE_WINDOW = 1;
+    private static final int MODE_HARDWARE = 2;
+
+    /** Stand-in for WindowManager.LayoutParams. */
+    public static class Params {
+        public float screenBrightness;
+    }
+
+    /** Stand-in for IHardwareService. */
+    public static class Hardware {
+        public int mLevel;
+
+        public void setScreenBacklight(int level) {
+            mLevel = level;
+        }
+    }
+
+    private final Params mParams = new Params();
+    private final Hardware mHardware = new Hardware();
+    private final String mSdk = "3";
+    private final int mMode;
+    private final Method mSetBacklight;
+    private final BrightnessCurve mCurve = BrightnessCurve.LINEAR;
+    private int mCalls = 1000000;
+    /** Keeps the results alive so that the work isn't optimized away. */
+    private int mSink;
+
+    private final ThreadMXBean mBean = ManagementFactory.getThreadMXBean();
+
+    public BackendBenchmark(int mode) throws NoSuchMethodException {
+        mMode = mode;
+        mSetBacklight = Hardware.class.getMethod("setScreenBacklight",
+                new Class<?>[] { int.class });
+        allocatedBytes();
+    }
+
+    private long allocatedBytes() {
+        if (mBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private float oldPath(float f) {
+        int v = (int) (BR_MAX * f);
+        if (v < BR_MIN) {
+            v = BR_MIN;
+            f = (float) v / BR_MAX;
+        }
+
+        int sdk = -1;
+        try {
+            sdk = Integer.parseInt(mSdk);
+        } catch (Exception e) {
+            mSink += String.format("Failed to parse SDK Version '%s'", mSdk).length();
+        }
+        if (mMode == MODE_WINDOW && sdk >= 3) {
+            try {
+                Field field = mParams.getClass().getField("screenBrightness");
+                field.setFloat(mParams, f);
+                mSink += String.format("Changed brightness to %.2f [SDK 3+]", f).length();
+                return f;
+            } catch (Throwable t) {
+                return -1;
+            }
+        } else {
+            try {
+                Method m = mHardware.getClass().getMethod("setScreenBacklight",
+                        new Class<?>[] { int.class });
+                m.invoke(mHardware, new Object[] { v });
+                mSink += String.format("Changed brightness to %d [SDK<3]", v).length();
+                return f;
+            } catch (Throwable t) {
+                return -1;
+            }
+        }
+    }
+
+    private float newPath(float f) {
+        int v = mCurve.fractionToLevel(f);
+        f = mCurve.levelToPercent(v) / 100.0f;
+        switch (mMode) {
+        case MODE_WINDOW:
+            mParams.screenBrightness = f;
+            return f;
+        case MODE_HARDWARE:
+            try {
+                mSetBacklight.invoke(mHardware, new Object[] { v });
+                return f;
+            } catch (Throwable t) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private long loop(boolean old, int calls) {
+        float sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            float f = (i % 100) / 100.0f;
+            sum += old ? oldPath(f) : newPath(f);
+        }
+        long elapsed = System.nanoTime() - start;
+        mSink += (int) sum;
+        return elapsed;
+    }
+
+    private void run(String name, boolean old) {
+        loop(old, mCalls);
+        long before = allocatedBytes();
+        long ns = loop(old, mCalls);
+        long after = allocatedBytes();
+        long bytes = before < 0 || after < 0 ? -1 : (after - before) / mCalls;
+        System.out.println(name + "," + ns / mCalls + "," + bytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Harness h = new Harness(args);
+        int calls = Math.max(1, h.getInt("calls", 1000000));
+        h.checkOptions();
+
+        BackendBenchmark window = new BackendBenchmark(MODE_WINDOW);
+        BackendBenchmark hardware = new BackendBenchmark(MODE_HARDWARE);
+        window.mCalls = calls;
+        hardware.mCalls = calls;
+
+        System.out.println("path,nsPerCall,bytesPerCall");
+        window.run("window-old", true);
+        window.run("window-new", false);
+        hardware.run("hardware-old", true);
+        hardware.run("hardware-new", false);
+
+        if (window.mSink + hardware.mSink == 42) System.out.println();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic.sim;
+
+import java.util.ArrayList;
+
+import com.alfray.brighteriffic.BrightnessCache;
+import com.alfray.sim.Harness;
+
+/**
+ * Checks that the {@link BrightnessCache} behind BrightnessState follows
+ * external writes and registers its observer only while it has listeners.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.brighteriffic.sim.BrightnessCacheCheck
+ * </pre>
+ * A fake source stands for the system settings and their ContentObserver:
+ * an external write changes its values then calls the registered observer,
+ * and the main thread is a queue run by the check. Prints one
+ * "step,level,mode,notified,registered,reads,result" line per step, where
+ * notified is the number of listener calls and reads the number of source
+ * reads made by the step. Exits with 1 if a step doesn't match.
+ */
+public class BrightnessCacheCheck {
+
+    /** The system settings, with at most one observer. */
+    private static class FakeSource implements BrightnessCache.Source {
+        int mLevel = 100;
+        int mMode = BrightnessCache.MODE_MANUAL;
+        Runnable mObserver;
+        int mReads;
+        final ArrayList<Runnable> mMainQueue = new ArrayList<Runnable>();
+
+        public int readLevel() {
+            mReads++;
+            return mLevel;
+        }
+
+        public int readMode() {
+            return mMode;
+        }
+
+        public void register(Runnable onChange) {
+            mObserver = onChange;
+        }
+
+        public void unregister() {
+            mObserver = null;
+        }
+
+        public void post(Runnable r) {
+            mMainQueue.add(r);
+        }
+
+        /** A write by another app: the observer, if any, is called. */
+        void write(int level, int mode) {
+            mLevel = level;
+            mMode = mode;
+            if (mObserver != null) mObserver.run();
+        }
+
+        void runMainQueue() {
+            while (!mMainQueue.isEmpty()) {
+                mMainQueue.remove(0).run();
+            }
+        }
+    }
+
+    private static class Recorder implements BrightnessCache.Listener {
+        int mCalls;
+        int mLevel = -2;
+        int mMode = -2;
+
+        public void onBrightnessChanged(int level, int mode) {
+            mCalls++;
+            mLevel = level;
+            mMode = mode;
+        }
+    }
+
+    private final Harness mHarness;
+    private final FakeSource mSource = new FakeSource();
+    private BrightnessCache mCache = new BrightnessCache(mSource);
+    private final Recorder mListener = new Recorder();
+    private int mReads;
+    private int mCalls;
+
+    public BrightnessCacheCheck(Harness harness) {
+        mHarness = harness;
+    }
+
+    /**
+     * Prints the state after a step and checks it.
+     *
+     * @param notified Listener calls expected since the last step.
+     * @param reads Source reads expected since the last step, -1 to skip.
+     */
+    private void step(String name, int level, int mode, int notified, boolean registered,
+            int reads) {
+        mSource.runMainQueue();
+        int calls = mListener.mCalls - mCalls;
+        int r = mSource.mReads - mReads;
+        boolean ok = mCache.getLevel() == level &&
+                mCache.getMode() == mode &&
+                calls == notified &&
+                (notified == 0 || (mListener.mLevel == level && mListener.mMode == mode)) &&
+                mCache.isObserving() == registered &&
+                (mSource.mObserver != null) == registered &&
+                (reads < 0 || r == reads);
+        mCalls = mListener.mCalls;
+        mReads = mSource.mReads;
+
+        System.out.println(name + "," + mCache.getLevel() + "," + mCache.getMode() + "," +
+                calls + "," + registered + "," + r + "," + mHarness.check(ok, "FAILED"));
+        // The reads done by the checks above don't count for the next step.
+        mReads = mSource.mReads;
+    }
+
+    private void run() {
+        final int manual = BrightnessCache.MODE_MANUAL;
+        final int auto = BrightnessCache.MODE_AUTOMATIC;
+
+        // No listener: nothing observed, each read goes to the source.
+        step("unobserved", 100, manual, 0, false, -1);
+        mSource.write(120, manual);
+        step("unobserved-write", 120, manual, 0, false, -1);
+
+        mCache.addListener(mListener);
+        step("add-listener", 120, manual, 0, true, 1);
+
+        mSource.write(200, manual);
+        step("external-level", 200, manual, 1, true, 1);
+        mSource.write(200, auto);
+        step("external-mode", 200, auto, 1, true, 1);
+        mSource.write(200, auto);
+        step("external-same", 200, auto, 0, true, 1);
+
+        // Observed values are read from the cache, without the source.
+        for (int i = 0; i < 10; i++) mCache.getLevel();
+        step("cached-reads", 200, auto, 0, true, 0);
+
+        mCache.setWritten(50);
+        mSource.mLevel = 50;
+        step("own-write", 50, auto, 1, true, 0);
+
+        mCache.removeListener(mListener);
+        step("remove-listener", 50, auto, 0, false, -1);
+        mSource.write(80, manual);
+        step("unregistered-write", 80, manual, 0, false, -1);
+
+        // A new process: a new cache, observing again with its first listener.
+        mCache = new BrightnessCache(mSource);
+        step("process-restart", 80, manual, 0, false, -1);
+        mCache.addListener(mListener);
+        mSource.write(90, manual);
+        step("restart-write", 90, manual, 1, true, -1);
+    }
+
+    public static void main(String[] args) {
+        Harness h = new Harness(args);
+        h.checkOptions();
+        System.out.println("step,level,mode,notified,registered,reads,result");
+        new BrightnessCacheCheck(h).run();
+        h.exit();
+    }
+}
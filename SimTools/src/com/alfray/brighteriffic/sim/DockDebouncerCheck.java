@@ -0,0 +1,203 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic.sim;
+
+import java.util.ArrayList;
+
+import com.alfray.brighteriffic.BrightnessRules;
+import com.alfray.brighteriffic.DockDebouncer;
+import com.alfray.sim.Harness;
+
+/**
+ * Drives a {@link DockDebouncer} with a fake clock through dock bounce scenarios.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.brighteriffic.sim.DockDebouncerCheck
+ * </pre>
+ * Prints one "name,events,applies,settleMs,lockMs,result" line per scenario,
+ * where settleMs is the time from the first event to the last apply, -1 if
+ * none. lockMs is how long the DockReceiver wake lock would be held: it is
+ * acquired with a timeout when a window opens and released when it closes.
+ * Exits with 1 if a scenario doesn't settle as expected, settles without
+ * the wake lock or ends with it held.
+ * <p/>
+ * The "flap" scenario bounces for longer than a broadcast may stay pending,
+ * which is why the DockReceiver finishes each broadcast once its event is
+ * recorded instead of holding it until the window closes.
+ */
+public class DockDebouncerCheck {
+
+    private static final int UNDOCKED = BrightnessRules.DOCK_UNDOCKED;
+    private static final int DESK = BrightnessRules.DOCK_DESK;
+    private static final int CAR = BrightnessRules.DOCK_CAR;
+
+    private static final long SETTLE_MS = 1500;
+    /** Same as DockReceiver.WAKE_LOCK_MARGIN_MS. */
+    private static final long WAKE_LOCK_MARGIN_MS = 5000;
+
+    /** A scheduler with a fake clock. Runs at most one pending runnable, like the debouncer needs. */
+    private static class FakeScheduler implements DockDebouncer.Scheduler {
+        long mNow;
+        Runnable mPending;
+        long mAt;
+
+        public void schedule(Runnable r, long delayMs) {
+            mPending = r;
+            mAt = mNow + delayMs;
+        }
+
+        public void cancel(Runnable r) {
+            if (mPending == r) mPending = null;
+        }
+
+        /** Moves the clock to t, running the pending runnable if due. */
+        void advanceTo(long t) {
+            if (mPending != null && mAt <= t) {
+                Runnable r = mPending;
+                mNow = mAt;
+                mPending = null;
+                r.run();
+            }
+            mNow = t;
+        }
+    }
+
+    private static class Recorder implements DockDebouncer.Listener {
+        final ArrayList<Integer> mStates = new ArrayList<Integer>();
+        long mLastSettleMs = -1;
+        final FakeScheduler mClock;
+
+        Recorder(FakeScheduler clock) {
+            mClock = clock;
+        }
+
+        boolean mHeld;
+        long mHeldSince;
+        long mHeldUntil;
+        long mHeldMs;
+        boolean mSettledUnheld;
+
+        public void onSettleWindowOpened(long windowMs) {
+            if (!isHeld()) {
+                mHeld = true;
+                mHeldSince = mClock.mNow;
+            }
+            mHeldUntil = mClock.mNow + windowMs + WAKE_LOCK_MARGIN_MS;
+        }
+
+        public void onDockStateSettled(int state, int previous) {
+            mStates.add(state);
+            mLastSettleMs = mClock.mNow;
+            if (!isHeld()) mSettledUnheld = true;
+        }
+
+        public void onSettleWindowClosed() {
+            if (isHeld()) mHeldMs += mClock.mNow - mHeldSince;
+            mHeld = false;
+        }
+
+        /** True if the wake lock is held and its timeout hasn't expired. */
+        boolean isHeld() {
+            return mHeld && mClock.mNow <= mHeldUntil;
+        }
+    }
+
+    private final Harness mHarness;
+
+    public DockDebouncerCheck(Harness harness) {
+        mHarness = harness;
+    }
+
+    /**
+     * Feeds the events and checks the settled states.
+     *
+     * @param times Event times in ms, increasing.
+     * @param states Dock state of each event.
+     * @param start Stable state before the first event, -1 for none.
+     * @param expected States expected to be reported, in order.
+     */
+    private void run(String name, long[] times, int[] states, int start, int[] expected) {
+        FakeScheduler clock = new FakeScheduler();
+        Recorder rec = new Recorder(clock);
+        DockDebouncer d = new DockDebouncer(clock, rec);
+        d.setSettleWindows(SETTLE_MS, SETTLE_MS);
+
+        if (start >= 0) {
+            d.onDockEvent(start);
+            clock.advanceTo(SETTLE_MS);
+            rec.mStates.clear();
+            rec.mLastSettleMs = -1;
+            rec.mHeldMs = 0;
+        }
+        long base = clock.mNow;
+
+        for (int i = 0; i < times.length; i++) {
+            clock.advanceTo(base + times[i]);
+            d.onDockEvent(states[i]);
+        }
+        clock.advanceTo(clock.mNow + 10 * SETTLE_MS);
+
+        boolean ok = rec.mStates.size() == expected.length && !d.isSettling();
+        for (int i = 0; ok && i < expected.length; i++) {
+            ok = rec.mStates.get(i).intValue() == expected[i];
+        }
+        ok = ok && !rec.mSettledUnheld && !rec.mHeld;
+
+        System.out.println(name + "," + times.length + "," + rec.mStates.size() + "," +
+                (rec.mLastSettleMs < 0 ? -1 : rec.mLastSettleMs - base) + "," +
+                rec.mHeldMs + "," + mHarness.check(ok, "FAILED " + rec.mStates));
+    }
+
+    /** Events every periodMs for durationMs, alternating between two states. */
+    private void flap(String name, long periodMs, long durationMs, int a, int b, int start,
+            int[] expected) {
+        int n = (int) (durationMs / periodMs);
+        long[] times = new long[n];
+        int[] states = new int[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = i * periodMs;
+            states[i] = (i & 1) == 0 ? a : b;
+        }
+        run(name, times, states, start, expected);
+    }
+
+    public static void main(String[] args) {
+        Harness h = new Harness(args);
+        h.checkOptions();
+        DockDebouncerCheck c = new DockDebouncerCheck(h);
+        System.out.println("name,events,applies,settleMs,lockMs,result");
+
+        c.run("dock", new long[] { 0 }, new int[] { DESK }, UNDOCKED, new int[] { DESK });
+        c.run("first", new long[] { 0 }, new int[] { UNDOCKED }, -1, new int[] { UNDOCKED });
+        c.run("bounce-in", new long[] { 0, 200, 400 },
+                new int[] { CAR, UNDOCKED, CAR }, UNDOCKED, new int[] { CAR });
+        c.run("bounce-back", new long[] { 0, 200, 400, 600 },
+                new int[] { CAR, UNDOCKED, CAR, UNDOCKED }, UNDOCKED, new int[0]);
+        c.run("same", new long[] { 0, 2000 },
+                new int[] { DESK, DESK }, DESK, new int[0]);
+        c.run("two-changes", new long[] { 0, 5000 },
+                new int[] { DESK, UNDOCKED }, UNDOCKED, new int[] { DESK, UNDOCKED });
+        // A minute of bounces every second: the window stays open the whole time.
+        c.flap("flap", 1000, 60 * 1000, CAR, UNDOCKED, UNDOCKED, new int[0]);
+        c.flap("flap-in", 1000, 61 * 1000, CAR, UNDOCKED, UNDOCKED, new int[] { CAR });
+
+        h.exit();
+    }
+}
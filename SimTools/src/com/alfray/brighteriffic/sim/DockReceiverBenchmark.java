@@ -0,0 +1,153 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic.sim;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.alfray.brighteriffic.BrightnessRules;
+import com.alfray.brighteriffic.DockDebouncer;
+import com.alfray.sim.Harness;
+
+/**
+ * Measures the receiver wall time per dock event.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.brighteriffic.sim.DockReceiverBenchmark [--events=N]
+ *      [--period-ms=N] [--max-p99-us=N]
+ * </pre>
+ * Once the intent is validated, DockReceiver.onReceive only calls
+ * {@link DockDebouncer#post(int, Runnable)}, with a runnable that finishes
+ * the broadcast. This times that call on the calling thread, with the same
+ * debouncer fed by a single scheduler thread that stands for the receiver's
+ * HandlerThread. The intent validation and goAsync() need a device and are
+ * not included.
+ * <p/>
+ * The events alternate between desk and undocked every --period-ms (10), for
+ * --events (500), after as many events as a warm-up. The scheduler thread is
+ * idle between events, so each post has to wake it, like on a device.
+ * <p/>
+ * Prints "events,finished,p50Us,p99Us,maxUs,result". Exits with 1 if a
+ * broadcast isn't finished or if the p99 isn't below --max-p99-us (500).
+ */
+public class DockReceiverBenchmark {
+
+    private final Harness mHarness;
+    private int mEvents = 500;
+    private long mPeriodMs = 10;
+    private long mMaxP99Us = 500;
+
+    private final AtomicInteger mFinished = new AtomicInteger();
+    private final Runnable mFinish = new Runnable() {
+        public void run() {
+            mFinished.incrementAndGet();
+        }
+    };
+
+    public DockReceiverBenchmark(Harness harness) {
+        mHarness = harness;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Posts the events and returns the time of each post, in ns. */
+    private long[] post(DockDebouncer debouncer, int events) {
+        long[] times = new long[events];
+        for (int i = 0; i < events; i++) {
+            int state = (i & 1) == 0 ? BrightnessRules.DOCK_DESK : BrightnessRules.DOCK_UNDOCKED;
+            long start = System.nanoTime();
+            debouncer.post(state, mFinish);
+            times[i] = System.nanoTime() - start;
+            sleep(mPeriodMs);
+        }
+        return times;
+    }
+
+    public void run() throws InterruptedException {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        DockDebouncer debouncer = new DockDebouncer(
+                new DockDebouncer.Scheduler() {
+                    private ScheduledFuture<?> mFuture;
+
+                    public void schedule(Runnable r, long delayMs) {
+                        if (delayMs <= 0) {
+                            executor.execute(r);
+                        } else {
+                            // Only the settle runnable is delayed.
+                            mFuture = executor.schedule(r, delayMs, TimeUnit.MILLISECONDS);
+                        }
+                    }
+
+                    public void cancel(Runnable r) {
+                        if (mFuture != null) mFuture.cancel(false);
+                        mFuture = null;
+                    }
+                },
+                new DockDebouncer.Listener() {
+                    public void onSettleWindowOpened(long windowMs) {
+                        // The wake lock needs a device.
+                    }
+                    public void onDockStateSettled(int state, int previous) {
+                        // The apply is out of the receiver time.
+                    }
+                    public void onSettleWindowClosed() {
+                    }
+                });
+
+        post(debouncer, mEvents);
+        mFinished.set(0);
+        long[] times = post(debouncer, mEvents);
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        Arrays.sort(times);
+        long p50 = times[times.length / 2] / 1000;
+        long p99 = times[Math.min(times.length - 1, times.length * 99 / 100)] / 1000;
+        long max = times[times.length - 1] / 1000;
+        int finished = mFinished.get();
+
+        System.out.println("events,finished,p50Us,p99Us,maxUs,result");
+        System.out.println(mEvents + "," + finished + "," + p50 + "," + p99 + "," + max + "," +
+                mHarness.check(finished == mEvents && p99 < mMaxP99Us, "FAILED"));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Harness h = new Harness(args);
+        DockReceiverBenchmark b = new DockReceiverBenchmark(h);
+        b.mEvents = Math.max(1, h.getInt("events", b.mEvents));
+        b.mPeriodMs = h.getLong("period-ms", b.mPeriodMs);
+        b.mMaxP99Us = h.getLong("max-p99-us", b.mMaxP99Us);
+        h.checkOptions();
+
+        b.run();
+        h.exit();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic.sim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import com.alfray.brighteriffic.BrightnessJournal;
+import com.alfray.sim.Harness;
+
+/**
+ * Exports a {@link BrightnessJournal} file pulled from a device.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.brighteriffic.sim.JournalExporter [--bin] journal.bin
+ * $ java -cp bin com.alfray.brighteriffic.sim.JournalExporter --read export.brjc
+ * </pre>
+ * The default output is CSV, one "seq,timeMs,source,oldLevel,newLevel,latencyUs"
+ * line per record, oldest first.
+ * <p/>
+ * With --bin the output is the compact format: the int magic "BrJC", a
+ * version byte, then per record a zigzag varint time delta in ms from the
+ * previous record (the first one is from 0), a source byte, the old level
+ * (0..255 or 255 for unknown), the new level and a varint latency in
+ * microseconds. The stream ends at EOF. --read converts that format back
+ * to CSV, see {@link #readCompact(InputStream, BrightnessJournal.Visitor)}.
+ */
+public class JournalExporter {
+
+    /** "BrJC" */
+    private static final int COMPACT_MAGIC = 0x42724A43;
+    private static final int COMPACT_VERSION = 1;
+
+    /** Writes records as CSV lines. */
+    public static class CsvWriter implements BrightnessJournal.Visitor {
+        private final Writer mOut;
+        private final StringBuilder mLine = new StringBuilder(64);
+        private IOException mError;
+
+        public CsvWriter(Writer out) {
+            mOut = out;
+        }
+
+        public void writeHeader() throws IOException {
+            mOut.write("seq,timeMs,source,oldLevel,newLevel,latencyUs\n");
+        }
+
+        public void onRecord(long seq, long timeMs, int source,
+                int oldLevel, int newLevel, int latencyUs) {
+            if (mError != null) return;
+            StringBuilder sb = mLine;
+            sb.setLength(0);
+            sb.append(seq).append(',')
+              .append(timeMs).append(',')
+              .append(BrightnessJournal.getSourceName(source)).append(',')
+              .append(oldLevel).append(',')
+              .append(newLevel).append(',')
+              .append(latencyUs).append('\n');
+            try {
+                mOut.append(sb);
+            } catch (IOException e) {
+                mError = e;
+            }
+        }
+
+        /** Flushes the output and throws the first write error, if any. */
+        public void finish() throws IOException {
+            if (mError != null) throw mError;
+            mOut.flush();
+        }
+    }
+
+    /** Writes records in the compact binary format. */
+    public static class CompactWriter implements BrightnessJournal.Visitor {
+        private final OutputStream mOut;
+        private long mLastTimeMs;
+        private IOException mError;
+
+        public CompactWriter(OutputStream out) {
+            mOut = out;
+        }
+
+        public void writeHeader() throws IOException {
+            mOut.write(COMPACT_MAGIC >>> 24);
+            mOut.write(COMPACT_MAGIC >>> 16);
+            mOut.write(COMPACT_MAGIC >>> 8);
+            mOut.write(COMPACT_MAGIC);
+            mOut.write(COMPACT_VERSION);
+        }
+
+        public void onRecord(long seq, long timeMs, int source,
+                int oldLevel, int newLevel, int latencyUs) {
+            if (mError != null) return;
+            try {
+                long delta = timeMs - mLastTimeMs;
+                mLastTimeMs = timeMs;
+                writeVarLong((delta << 1) ^ (delta >> 63));
+                mOut.write(source);
+                mOut.write(oldLevel);
+                mOut.write(newLevel);
+                writeVarLong(latencyUs & 0xFFFFFFFFL);
+            } catch (IOException e) {
+                mError = e;
+            }
+        }
+
+        /** Flushes the output and throws the first write error, if any. */
+        public void finish() throws IOException {
+            if (mError != null) throw mError;
+            mOut.flush();
+        }
+
+        private void writeVarLong(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                mOut.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            mOut.write((int) v);
+        }
+    }
+
+    /**
+     * Reads a stream in the compact binary format.
+     * Sequence numbers are not stored; records are numbered from 0.
+     *
+     * @return The number of records read.
+     * @throws IOException if the stream is not in the compact format or is truncated.
+     */
+    public static int readCompact(InputStream in, BrightnessJournal.Visitor visitor)
+            throws IOException {
+        int magic = (readByte(in) << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+        if (magic != COMPACT_MAGIC || readByte(in) != COMPACT_VERSION) {
+            throw new IOException("Not a compact journal");
+        }
+
+        long timeMs = 0;
+        int n = 0;
+        while (true) {
+            int first = in.read();
+            if (first < 0) break;
+            long zz = readVarLong(in, first);
+            timeMs += (zz >>> 1) ^ -(zz & 1);
+            int source = readByte(in);
+            int oldLevel = readByte(in);
+            int newLevel = readByte(in);
+            int latencyUs = (int) readVarLong(in, readByte(in));
+            visitor.onRecord(n++, timeMs, source,
+                    oldLevel == 255 ? -1 : oldLevel, newLevel, latencyUs);
+        }
+        return n;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException();
+        return b;
+    }
+
+    private static long readVarLong(InputStream in, int b) throws IOException {
+        long v = 0;
+        int shift = 0;
+        while ((b & 0x80) != 0) {
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+            if (shift > 63) throw new IOException("Bad varint");
+            b = readByte(in);
+        }
+        return v | ((long) b << shift);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Harness h = new Harness(args);
+        boolean bin = h.getFlag("bin");
+        boolean read = h.getFlag("read");
+        h.checkOptions();
+
+        String[] files = h.getPositional();
+        if (files.length != 1 || (bin && read)) {
+            throw h.usage("Usage: JournalExporter [--bin|--read] file");
+        }
+        String file = files[0];
+
+        if (read) {
+            CsvWriter csv = new CsvWriter(
+                    new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024));
+            csv.writeHeader();
+            InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+            try {
+                readCompact(in, csv);
+            } finally {
+                in.close();
+            }
+            csv.finish();
+            return;
+        }
+
+        BrightnessJournal journal = BrightnessJournal.openReadOnly(new File(file));
+        if (bin) {
+            CompactWriter w = new CompactWriter(new BufferedOutputStream(System.out, 64 * 1024));
+            w.writeHeader();
+            journal.read(w);
+            w.finish();
+        } else {
+            CsvWriter csv = new CsvWriter(
+                    new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024));
+            csv.writeHeader();
+            journal.read(csv);
+            csv.finish();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic.sim;
+
+import java.io.File;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.alfray.sim.Harness;
+
+/**
+ * Counts the views the settings screen inflates before its first frame, with
+ * the dock section ViewStubs left alone like now and inflated like before.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}, given the res directory
+ * of the Brighteriffic project:
+ * <pre>
+ * $ java -cp bin com.alfray.brighteriffic.sim.LayoutInflateCheck ../Brighteriffic/res
+ *      [--runs=N]
+ * </pre>
+ * The layout files are walked like the LayoutInflater does: includes are
+ * replaced by their layout, merge roots add no view, and a ViewStub is one
+ * view unless it is inflated. Layouts are looked up in the qualified
+ * directory first, then in res/layout.
+ * <p/>
+ * The JVM can't run the inflater itself, so parseUs is only a proxy: how long
+ * it takes to parse the XML files of each mode, averaged over --runs (200)
+ * after all modes are run once as a warm-up. It tracks the amount of layout
+ * work, not the inflate time on a device.
+ * <p/>
+ * Prints one "layout,mode,views,files,parseUs" line per layout and mode.
+ * Exits with 1 if a layout is missing or if the portrait screen inflates as
+ * many views with the stubs as without them.
+ */
+public class LayoutInflateCheck {
+
+    private static final String ANDROID_LAYOUT = "android:layout";
+    private static final String LAYOUT_PREFIX = "@layout/";
+
+    private final Harness mHarness;
+    private final DocumentBuilder mBuilder;
+    private final File mRes;
+    private int mRuns = 200;
+
+    /** Number of layout files read by the last {@link #count} call. */
+    private int mFiles;
+
+    public LayoutInflateCheck(Harness harness, File res) throws Exception {
+        mHarness = harness;
+        mRes = res;
+        mBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    }
+
+    /** Resolves "@layout/name" in the qualified directory, then in res/layout. */
+    private File resolve(String dir, String ref) throws Exception {
+        if (ref == null || !ref.startsWith(LAYOUT_PREFIX)) {
+            throw new Exception("Not a layout reference: " + ref);
+        }
+        String name = ref.substring(LAYOUT_PREFIX.length()) + ".xml";
+        File f = new File(new File(mRes, dir), name);
+        if (!f.isFile()) f = new File(new File(mRes, "layout"), name);
+        if (!f.isFile()) throw new Exception("Missing layout: " + ref);
+        return f;
+    }
+
+    /**
+     * Returns the number of views inflated for the layout file.
+     *
+     * @param stubs True to inflate the ViewStubs too.
+     */
+    private int count(String dir, File file, boolean stubs) throws Exception {
+        mFiles++;
+        return count(dir, mBuilder.parse(file).getDocumentElement(), stubs);
+    }
+
+    private int count(String dir, Element e, boolean stubs) throws Exception {
+        String tag = e.getTagName();
+        if (tag.equals("include")) {
+            return count(dir, resolve(dir, e.getAttribute("layout")), stubs);
+        }
+        if (tag.equals("ViewStub")) {
+            return stubs ? count(dir, resolve(dir, e.getAttribute(ANDROID_LAYOUT)), stubs) : 1;
+        }
+        if (tag.equals("requestFocus")) return 0;
+
+        int n = tag.equals("merge") ? 0 : 1;
+        for (Node c = e.getFirstChild(); c != null; c = c.getNextSibling()) {
+            if (c instanceof Element) n += count(dir, (Element) c, stubs);
+        }
+        return n;
+    }
+
+    /** Returns the number of views, or -1 if the layout is broken. */
+    private int run(String dir, String name, String mode, boolean stubs) {
+        File file = new File(new File(mRes, dir), name + ".xml");
+        try {
+            int views = count(dir, file, stubs);
+
+            mFiles = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < mRuns; i++) count(dir, file, stubs);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println(dir + "/" + name + "," + mode + "," + views + "," +
+                    mFiles / mRuns + "," + elapsed / mRuns / 1000);
+            return views;
+        } catch (Exception e) {
+            System.out.println(dir + "/" + name + "," + mode + ",-1,-1,-1");
+            System.err.println(e.getMessage());
+            mHarness.check(false, "FAILED");
+            return -1;
+        }
+    }
+
+    /** Parses all the layouts so that the JIT doesn't favor the last ones. */
+    private void warmUp() {
+        try {
+            for (int i = 0; i < mRuns; i++) {
+                count("layout", new File(new File(mRes, "layout"), "main.xml"), false);
+                count("layout", new File(new File(mRes, "layout"), "main.xml"), true);
+                count("layout-land", new File(new File(mRes, "layout-land"), "main.xml"), false);
+            }
+        } catch (Exception e) {
+            // Reported by run().
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Harness h = new Harness(args);
+        int runs = Math.max(1, h.getInt("runs", 200));
+        h.checkOptions();
+        String[] res = h.getPositional();
+        if (res.length != 1 || !new File(res[0], "layout").isDirectory()) {
+            throw h.usage("Usage: LayoutInflateCheck RES_DIR [--runs=N]");
+        }
+        LayoutInflateCheck c = new LayoutInflateCheck(h, new File(res[0]));
+        c.mRuns = runs;
+
+        c.warmUp();
+        System.out.println("layout,mode,views,files,parseUs");
+        int lazy = c.run("layout", "main", "first-frame", false);
+        int eager = c.run("layout", "main", "eager", true);
+        c.run("layout-land", "main", "first-frame", false);
+
+        h.check(lazy < eager, "FAILED");
+        h.exit();
+    }
+}
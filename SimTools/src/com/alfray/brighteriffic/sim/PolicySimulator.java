@@ -0,0 +1,342 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic.sim;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import com.alfray.brighteriffic.AutoBrightnessPolicy;
+import com.alfray.brighteriffic.BrightnessArbiter;
+import com.alfray.brighteriffic.BrightnessRules;
+import com.alfray.sim.Harness;
+
+/**
+ * Replays a recorded trace through the Brighteriffic brightness decisions.
+ * <p/>
+ * This only uses the Android-free decision classes so it runs on a plain JVM,
+ * c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.brighteriffic.sim.PolicySimulator [options] [trace.csv]
+ * </pre>
+ * The trace is read line by line from the file or stdin and is never held in
+ * memory. Each line is "timeMs,type,value" where type is one of:
+ * <ul>
+ * <li> lux: a light sensor sample, value in lux.
+ * <li> dock: a dock event, value is the dock state (0=undocked, 1=desk, 2=car).
+ * <li> tap: a widget or shortcut toggle, value ignored.
+ * <li> set: an explicit brightness, value in percent.
+ * <li> schedule: a schedule transition, value in percent.
+ * </ul>
+ * Empty lines and lines starting with # are ignored. Times must not go backwards.
+ * <p/>
+ * Sources are arbitrated by a {@link BrightnessArbiter} like on the device:
+ * docking claims the dock brightness and undocking releases it, the schedule
+ * and the auto mode set the base, which is only applied without claims, and
+ * taps and explicit values override the top claim or the base.
+ * <p/>
+ * Output is CSV, one record per line:
+ * <ul>
+ * <li> "T,timeMs,percent,source" for each system setting write.
+ * <li> "S,key,value" for the final summary: writes, wakeups, energy_j, duration_ms.
+ * </ul>
+ * Options: --min=N --max=N --car=N --desk=N (percent; car and desk are only
+ * used when given), --start=N (initial percent), --auto, --curve=N (percent),
+ * --batch=MS (sensor batching latency), --panel-min-w=W --panel-max-w=W
+ * (display power at min and max backlight), --summary-only.
+ */
+public class PolicySimulator {
+
+    private int mMin = 10;
+    private int mMax = 75;
+    private boolean mUseCar;
+    private int mCar = 90;
+    private boolean mUseDesk;
+    private int mDesk = 50;
+    private boolean mAuto;
+    private long mBatchMs = 0;
+    private double mPanelMinW = 0.1;
+    private double mPanelMaxW = 1.0;
+    private boolean mSummaryOnly;
+
+    private final AutoBrightnessPolicy mAutoPolicy = new AutoBrightnessPolicy();
+    private final BrightnessArbiter mArbiter = new BrightnessArbiter();
+    private final BrightnessRules.DockDecision mDock = new BrightnessRules.DockDecision();
+    private final StringBuilder mLine = new StringBuilder(64);
+    private Writer mOut;
+
+    private int mCurrent = 75;
+    private boolean mStarted;
+    private long mFirstMs;
+    private long mNowMs;
+    private long mLastSensorWakeMs = -1;
+    private double mEnergyJ;
+    private long mWrites;
+    private long mWakeups;
+
+    public PolicySimulator() {
+    }
+
+    public void setRange(int minPercent, int maxPercent) {
+        mMin = minPercent;
+        mMax = maxPercent;
+    }
+
+    public void setCar(int percent) {
+        mUseCar = true;
+        mCar = percent;
+    }
+
+    public void setDesk(int percent) {
+        mUseDesk = true;
+        mDesk = percent;
+    }
+
+    public void setStart(int percent) {
+        mCurrent = percent;
+    }
+
+    public void setAuto(boolean auto, int curvePercent) {
+        mAuto = auto;
+        mAutoPolicy.setCurve(curvePercent / 100.0f);
+    }
+
+    public void setBatchLatency(long ms) {
+        mBatchMs = ms;
+    }
+
+    public void setPanelPower(double minW, double maxW) {
+        mPanelMinW = minW;
+        mPanelMaxW = maxW;
+    }
+
+    public void setSummaryOnly(boolean summaryOnly) {
+        mSummaryOnly = summaryOnly;
+    }
+
+    public long getWrites() {
+        return mWrites;
+    }
+
+    public long getWakeups() {
+        return mWakeups;
+    }
+
+    public double getEnergyJoules() {
+        return mEnergyJ;
+    }
+
+    public int getCurrent() {
+        return mCurrent;
+    }
+
+    /** Replays the whole trace and writes the timeline and summary. */
+    public void run(Reader trace, Writer out) throws IOException {
+        mOut = out;
+        mAutoPolicy.setRange(mMin, mMax);
+        mAutoPolicy.setApplied(mCurrent, 0);
+        mArbiter.setBase(mCurrent, 0);
+
+        BufferedReader r = trace instanceof BufferedReader ?
+                (BufferedReader) trace : new BufferedReader(trace, 64 * 1024);
+        String line;
+        int lineNum = 0;
+        while ((line = r.readLine()) != null) {
+            lineNum++;
+            int len = line.length();
+            if (len == 0 || line.charAt(0) == '#') continue;
+
+            int c1 = line.indexOf(',');
+            int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+            if (c2 < 0) {
+                throw new IOException("Malformed line " + lineNum + ": " + line);
+            }
+
+            long t = Long.parseLong(line.substring(0, c1).trim());
+            float v = c2 + 1 < len ? Float.parseFloat(line.substring(c2 + 1).trim()) : 0;
+
+            if (mStarted && t < mNowMs) {
+                throw new IOException("Time goes backwards at line " + lineNum);
+            }
+            advance(t);
+
+            if (line.startsWith("lux", c1 + 1)) {
+                onLux(t, v);
+            } else if (line.startsWith("dock", c1 + 1)) {
+                onDock(t, (int) v);
+            } else if (line.startsWith("tap", c1 + 1)) {
+                mWakeups++;
+                int p = Math.round(100 * BrightnessRules.toggle(mCurrent / 100.0f, mMin, mMax));
+                apply(t, mArbiter.override(p, t), "tap");
+            } else if (line.startsWith("set", c1 + 1)) {
+                mWakeups++;
+                apply(t, mArbiter.override((int) v, t), "set");
+            } else if (line.startsWith("schedule", c1 + 1)) {
+                mWakeups++;
+                applyEffective(t, mArbiter.setBase((int) v, t), "schedule");
+            } else {
+                throw new IOException("Unknown event at line " + lineNum + ": " + line);
+            }
+        }
+
+        writeSummary();
+        out.flush();
+    }
+
+    /** Moves the clock forward, running pending re-evaluations and integrating energy. */
+    private void advance(long t) {
+        if (!mStarted) {
+            mStarted = true;
+            mFirstMs = t;
+            mNowMs = t;
+            return;
+        }
+
+        if (mAuto) {
+            long next;
+            while ((next = mAutoPolicy.getNextEvaluationTime()) >= 0 && next <= t) {
+                integrate(next);
+                mWakeups++;
+                // Returns -1 while the filter is still converging, the next
+                // evaluation time then moves on.
+                int p = mAutoPolicy.evaluate(next);
+                if (p >= 0) applyAuto(next, p);
+            }
+        }
+
+        integrate(t);
+    }
+
+    private void integrate(long t) {
+        if (t > mNowMs) {
+            double watts = mPanelMinW + (mPanelMaxW - mPanelMinW) * (mCurrent / 100.0);
+            mEnergyJ += watts * (t - mNowMs) / 1000.0;
+            mNowMs = t;
+        }
+    }
+
+    private void onLux(long t, float lux) {
+        if (!mAuto) return;
+
+        // With batching the sensor HAL delivers several samples per wakeup.
+        if (mBatchMs <= 0 || mLastSensorWakeMs < 0 || t - mLastSensorWakeMs >= mBatchMs) {
+            mWakeups++;
+            mLastSensorWakeMs = t;
+        }
+
+        int p = mAutoPolicy.onSample(t, lux);
+        if (p >= 0) applyAuto(t, p);
+    }
+
+    /** Same as the AutoBrightnessService: sets the base, a claim wins over it. */
+    private void applyAuto(long t, int percent) {
+        mArbiter.setBase(percent, t);
+        if (mArbiter.getClaimCount() == 0) apply(t, percent, "auto");
+    }
+
+    /** Same as the DockReceiver: the dock claims its brightness, undocking releases it. */
+    private void onDock(long t, int state) {
+        mWakeups++;
+        int effective;
+        if (BrightnessRules.decideDock(state, mUseCar, mCar, mUseDesk, mDesk,
+                -1 /*saved*/, mDock)) {
+            if (mArbiter.getClaimCount() == 0) mArbiter.setBase(mCurrent, t);
+            effective = mArbiter.claim(BrightnessArbiter.OWNER_DOCK, BrightnessArbiter.PRIORITY_DOCK,
+                    mDock.value, 0 /*expiresAtMs*/, t);
+        } else {
+            effective = mArbiter.release(BrightnessArbiter.OWNER_DOCK, t);
+        }
+        applyEffective(t, effective, "dock");
+    }
+
+    /** Same as Arbitration.apply: only writes when the effective brightness changes. */
+    private void applyEffective(long t, int percent, String source) {
+        if (percent != BrightnessArbiter.NONE && percent != mCurrent) {
+            apply(t, percent, source);
+        }
+    }
+
+    private void apply(long t, int percent, String source) {
+        mWrites++;
+        mCurrent = percent;
+        if (mAuto) mAutoPolicy.setApplied(percent, t);
+
+        if (!mSummaryOnly) {
+            StringBuilder sb = mLine;
+            sb.setLength(0);
+            sb.append("T,").append(t).append(',').append(percent).append(',').append(source).append('\n');
+            write(sb);
+        }
+    }
+
+    private void writeSummary() throws IOException {
+        StringBuilder sb = mLine;
+        sb.setLength(0);
+        sb.append("S,writes,").append(mWrites).append('\n');
+        sb.append("S,wakeups,").append(mWakeups).append('\n');
+        sb.append("S,energy_j,").append(Math.round(mEnergyJ * 1000) / 1000.0).append('\n');
+        sb.append("S,duration_ms,").append(mNowMs - mFirstMs).append('\n');
+        write(sb);
+    }
+
+    private void write(StringBuilder sb) {
+        try {
+            for (int i = 0, n = sb.length(); i < n; i++) {
+                mOut.write(sb.charAt(i));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Harness h = new Harness(args);
+        PolicySimulator sim = new PolicySimulator();
+
+        sim.setRange(h.getInt("min", 10), h.getInt("max", 75));
+        int car = h.getInt("car", -1);
+        if (car >= 0) sim.setCar(car);
+        int desk = h.getInt("desk", -1);
+        if (desk >= 0) sim.setDesk(desk);
+        sim.setStart(h.getInt("start", sim.getCurrent()));
+        sim.setAuto(h.getFlag("auto"), h.getInt("curve", 100));
+        sim.setBatchLatency(h.getLong("batch", 0));
+        sim.setPanelPower(h.getDouble("panel-min-w", 0.1), h.getDouble("panel-max-w", 1.0));
+        sim.setSummaryOnly(h.getFlag("summary-only"));
+        h.checkOptions();
+
+        String[] files = h.getPositional();
+        if (files.length > 1) throw h.usage("Usage: PolicySimulator [options] [trace.csv]");
+        String file = files.length == 0 ? null : files[0];
+
+        Reader in = file == null ?
+                new InputStreamReader(System.in) : new FileReader(file);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024);
+        try {
+            sim.run(in, out);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Project: Brighteriffic
+ * Copyright (C) 2011 ralfoide gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alfray.brighteriffic.sim;
+
+import com.alfray.brighteriffic.DebouncedValue;
+import com.alfray.sim.Harness;
+
+/**
+ * Counts the prefs writes of the settings seek bars for a few gestures, with
+ * a fake clock.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.brighteriffic.sim.PrefsWriteCheck
+ * </pre>
+ * Each gesture is a list of progress changes. "old" is one write per change,
+ * like the seek bars did before they used a {@link DebouncedValue}. "new" goes
+ * through a DebouncedValue with the same 500 ms idle delay as BrighterifficUI,
+ * flushed when the touch stops if the gesture is a touch drag. Prints one
+ * "gesture,changes,oldWrites,newWrites,lastWritten,result" line per gesture.
+ * Exits with 1 if the new path writes more than expected or doesn't end with
+ * the final value.
+ */
+public class PrefsWriteCheck {
+
+    private static final long IDLE_MS = 500;
+
+    /** A scheduler with a fake clock. Runs at most one pending runnable. */
+    private static class FakeScheduler implements DebouncedValue.Scheduler {
+        long mNow;
+        Runnable mPending;
+        long mAt;
+
+        public void schedule(Runnable r, long delayMs) {
+            mPending = r;
+            mAt = mNow + delayMs;
+        }
+
+        public void cancel(Runnable r) {
+            if (mPending == r) mPending = null;
+        }
+
+        /** Moves the clock to t, running the pending runnable if due. */
+        void advanceTo(long t) {
+            if (mPending != null && mAt <= t) {
+                Runnable r = mPending;
+                mNow = mAt;
+                mPending = null;
+                r.run();
+            }
+            mNow = t;
+        }
+    }
+
+    private static class Store implements DebouncedValue.Writer {
+        int mLast = -1;
+
+        public void write(int value) {
+            mLast = value;
+        }
+    }
+
+    private final Harness mHarness;
+
+    public PrefsWriteCheck(Harness harness) {
+        mHarness = harness;
+    }
+
+    /**
+     * @param periodMs Time between two progress changes.
+     * @param values Progress values, in order.
+     * @param touch True if the gesture ends with onStopTrackingTouch.
+     * @param expected Maximum number of writes expected for the new path.
+     */
+    private void run(String name, long periodMs, int[] values, boolean touch, int expected) {
+        FakeScheduler clock = new FakeScheduler();
+        Store store = new Store();
+        DebouncedValue v = new DebouncedValue(clock, store, IDLE_MS, 50);
+
+        for (int i = 0; i < values.length; i++) {
+            clock.advanceTo(i * periodMs);
+            v.set(values[i]);
+        }
+        if (touch) v.flush();
+        clock.advanceTo(clock.mNow + 10 * IDLE_MS);
+
+        int last = values[values.length - 1];
+        boolean ok = v.getWrites() <= expected && store.mLast == last;
+
+        System.out.println(name + "," + values.length + "," + values.length + "," +
+                v.getWrites() + "," + store.mLast + "," + mHarness.check(ok, "FAILED"));
+    }
+
+    /** n values going from 'from' to 'to'. */
+    private static int[] ramp(int n, int from, int to) {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = from + (to - from) * i / Math.max(1, n - 1);
+        }
+        return values;
+    }
+
+    public static void main(String[] args) {
+        Harness h = new Harness(args);
+        h.checkOptions();
+        PrefsWriteCheck c = new PrefsWriteCheck(h);
+        System.out.println("gesture,changes,oldWrites,newWrites,lastWritten,result");
+
+        // A one second drag, one change per 16 ms frame.
+        c.run("drag", 16, ramp(60, 50, 10), true, 1);
+        // A slow drag with back and forth moves.
+        int[] slow = new int[120];
+        for (int i = 0; i < slow.length; i++) {
+            slow[i] = 50 + (i % 40 < 20 ? i % 20 : 20 - i % 20);
+        }
+        c.run("slow-drag", 50, slow, true, 1);
+        // D-pad presses: no touch stop, the idle delay does the write.
+        c.run("dpad-fast", 150, ramp(10, 50, 60), false, 1);
+        // D-pad presses with pauses longer than the idle delay write each one.
+        c.run("dpad-slow", 700, ramp(5, 50, 55), false, 5);
+
+        h.exit();
+    }
+}
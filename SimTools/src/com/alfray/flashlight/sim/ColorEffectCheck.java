@@ -0,0 +1,127 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight.sim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import com.alfray.flashlight.ColorEffect;
+import com.alfray.flashlight.ColorPlayer;
+import com.alfray.flashlight.FrameStats;
+import com.alfray.sim.Harness;
+
+/**
+ * Plays color effects through the {@link ColorPlayer} of the ColorView on a
+ * fake 60 Hz clock, and reads its {@link FrameStats} counters.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.flashlight.sim.ColorEffectCheck [--frames=N]
+ * </pre>
+ * Each frame calls {@link ColorPlayer#onFrame(long, long)} like
+ * ColorView.onDraw() does, minus the canvas. A finished effect is played
+ * again so that all frames animate. The player counts the allocations of
+ * each frame in its FrameStats, like the ColorView does on a device with
+ * setCountAllocations(true). Here the counter is the bytes allocated by the
+ * thread, as reported by the JVM; without one, allocations are -1.
+ * <p/>
+ * Prints one "effect,frames,avgFrameMs,maxFrameMs,allocations,nsPerFrame,result"
+ * line per effect. All effects are run once before measuring, since the JIT
+ * switching to compiled code can allocate on the running thread. Exits with 1
+ * if a frame allocates.
+ */
+public class ColorEffectCheck {
+
+    /** Same colors as FlashlightActivity.sColorHex. */
+    private static final int[] COLORS = {
+        0xFFFFFFFF, 0xFFFF0000, 0xFFFF9000, 0xFFFFFF00, 0xFF00FF00,
+        0xFF00FFFF, 0xFF0000FF, 0xFF9900FF, 0xFFFF99FF
+    };
+
+    private static final long FRAME_NS = 16666667;
+
+    private final Harness mHarness;
+    private final int mFrames;
+    private final ColorPlayer mPlayer = new ColorPlayer();
+    private final boolean mCounting;
+    /** Keeps the colors alive so that the evaluation isn't optimized away. */
+    private int mSink;
+
+    public ColorEffectCheck(Harness harness, int frames) {
+        mHarness = harness;
+        mFrames = frames;
+
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        mCounting = bean instanceof com.sun.management.ThreadMXBean;
+        if (mCounting) {
+            final long tid = Thread.currentThread().getId();
+            final com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+            // The first query may allocate, keep it out of the counts.
+            b.getThreadAllocatedBytes(tid);
+            mPlayer.setAllocationCounter(new ColorPlayer.AllocationCounter() {
+                public long getCount() {
+                    return b.getThreadAllocatedBytes(tid);
+                }
+            });
+        }
+    }
+
+    private void frames(ColorEffect e) {
+        int sink = 0;
+        for (int i = 0; i < mFrames; i++) {
+            long ns = i * FRAME_NS;
+            if (!mPlayer.isPlaying()) mPlayer.play(e, ns / 1000000);
+            mPlayer.onFrame(ns / 1000000, ns + 1);
+            sink += mPlayer.getColor();
+        }
+        mSink += sink;
+    }
+
+    private void warmUp(ColorEffect[] effects) {
+        for (ColorEffect e : effects) {
+            frames(e);
+        }
+    }
+
+    private void run(String name, ColorEffect e) {
+        FrameStats stats = mPlayer.getFrameStats();
+        mPlayer.setColor(COLORS[0]);
+        stats.reset();
+        long start = System.nanoTime();
+        frames(e);
+        long elapsed = System.nanoTime() - start;
+
+        long allocations = mCounting ? stats.getAllocations() : -1;
+        System.out.println(name + "," + stats.getFrames() + "," +
+                Math.round(stats.getAverageFrameMs() * 100) / 100.0 + "," +
+                Math.round(stats.getMaxFrameMs() * 100) / 100.0 + "," +
+                allocations + "," + elapsed / mFrames + "," +
+                mHarness.check(allocations <= 0, "ALLOCATES"));
+    }
+
+    public static void main(String[] args) {
+        Harness h = new Harness(args);
+        ColorEffectCheck c = new ColorEffectCheck(h, Math.max(1, h.getInt("frames", 1000000)));
+        h.checkOptions();
+
+        ColorEffect crossfade = ColorEffect.crossfade(COLORS[0], COLORS[1], 300);
+        // Same as the rainbow and party effects of FlashlightActivity.
+        ColorEffect rainbow = ColorEffect.cycle(new int[] {
+                COLORS[1], COLORS[2], COLORS[3], COLORS[4], COLORS[5], COLORS[6], COLORS[7] },
+                1000, true);
+        ColorEffect party = ColorEffect.cycle(COLORS, 150, false);
+        c.warmUp(new ColorEffect[] { crossfade, rainbow, party });
+
+        System.out.println("effect,frames,avgFrameMs,maxFrameMs,allocations,nsPerFrame,result");
+        c.run("crossfade", crossfade);
+        c.run("rainbow", rainbow);
+        c.run("party", party);
+
+        if (c.mSink == 42) System.out.println();
+        h.exit();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight.sim;
+
+import java.util.Random;
+
+import com.alfray.flashlight.LightPattern;
+import com.alfray.flashlight.PatternPlayer;
+import com.alfray.sim.Harness;
+
+/**
+ * Plays light patterns through a {@link PatternPlayer} against a fake clock
+ * with jittered and stalled wakeups, and measures how late the transitions are.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.flashlight.sim.PatternJitterCheck [--steps=N] [--jitter=MS]
+ *      [--stall=MS] [--stall-every=N] [--seed=N]
+ * </pre>
+ * Each wakeup happens 0..jitter ms after the requested deadline, and every
+ * stall-every steps it is another stall ms late. Prints one
+ * "pattern,steps,skipped,avgLateMs,maxLateMs,driftMs,result" line per
+ * pattern. driftMs compares the player's last deadline with the start time
+ * plus the durations of all the segments it went through; any other value
+ * than 0 means errors accumulate. Exits with 1 if a pattern drifts.
+ */
+public class PatternJitterCheck {
+
+    private final Harness mHarness;
+    private int mSteps = 10000;
+    private int mJitterMs = 8;
+    private int mStallMs = 300;
+    private int mStallEvery = 500;
+    private long mSeed = 1;
+
+    private final PatternPlayer mPlayer = new PatternPlayer(new PatternPlayer.Output() {
+        public void setLit(boolean lit) {
+            // Only the timing matters here.
+        }
+    });
+
+    public PatternJitterCheck(Harness harness) {
+        mHarness = harness;
+    }
+
+    private void run(String name, LightPattern pattern) {
+        Random r = new Random(mSeed);
+        long start = 1000;
+        long now = start;
+        long next = mPlayer.start(pattern, now);
+        long last = next;
+
+        for (int i = 1; i <= mSteps && next >= 0; i++) {
+            now = next + r.nextInt(mJitterMs + 1);
+            if (mStallEvery > 0 && i % mStallEvery == 0) now += mStallMs;
+            last = next;
+            next = mPlayer.step(now);
+        }
+
+        long drift = 0;
+        if (next >= 0) {
+            // Each step goes through one segment plus the skipped ones.
+            int segments = mPlayer.getSteps() + mPlayer.getSkipped();
+            int[] d = pattern.durations;
+            long expected = start;
+            for (int i = 0; i < segments; i++) {
+                expected += d[i % d.length];
+            }
+            drift = next - expected;
+        } else if (!pattern.loop) {
+            // A single play ends at its last deadline.
+            drift = last - (start + pattern.getTotalMs());
+        }
+
+        System.out.println(name + "," + mPlayer.getSteps() + "," + mPlayer.getSkipped() + "," +
+                Math.round(mPlayer.getAverageLateMs() * 100) / 100.0 + "," +
+                mPlayer.getMaxLateMs() + "," + drift + "," + mHarness.check(drift == 0, "DRIFT"));
+    }
+
+    public static void main(String[] args) {
+        Harness h = new Harness(args);
+        PatternJitterCheck c = new PatternJitterCheck(h);
+        c.mSteps = h.getInt("steps", c.mSteps);
+        c.mJitterMs = Math.max(0, h.getInt("jitter", c.mJitterMs));
+        c.mStallMs = h.getInt("stall", c.mStallMs);
+        c.mStallEvery = h.getInt("stall-every", c.mStallEvery);
+        c.mSeed = h.getLong("seed", c.mSeed);
+        h.checkOptions();
+
+        System.out.println("pattern,steps,skipped,avgLateMs,maxLateMs,driftMs,result");
+        c.run("strobe-10hz", LightPattern.strobe(10));
+        c.run("strobe-25hz", LightPattern.strobe(25));
+        c.run("sos", LightPattern.sos());
+        c.run("morse-loop", LightPattern.morse("Hello world", LightPattern.MORSE_UNIT_MS, true));
+        c.run("morse-once", LightPattern.morse("Hello world", LightPattern.MORSE_UNIT_MS, false));
+
+        h.exit();
+    }
+}
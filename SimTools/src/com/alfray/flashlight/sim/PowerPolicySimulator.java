@@ -0,0 +1,120 @@
+/*
+ * (c) ralfoide gmail com, 2009
+ * Project: Flashlight
+ * License: GPLv3
+ */
+
+package com.alfray.flashlight.sim;
+
+import com.alfray.flashlight.PowerPolicy;
+import com.alfray.sim.Harness;
+
+/**
+ * Feeds a {@link PowerPolicy} with a simulated battery discharge and heat
+ * curve, and user touches, on a fake clock.
+ * <p/>
+ * This runs on a plain JVM, c.f. {@link Harness}:
+ * <pre>
+ * $ java -cp bin com.alfray.flashlight.sim.PowerPolicySimulator [options]
+ * </pre>
+ * The battery drains linearly from 100% to 0% over --minutes (100). The
+ * temperature rises linearly from 30 C to --peak-c (54) at --peak-min (60),
+ * then cools by 0.3 C per minute. Like the sticky ACTION_BATTERY_CHANGED
+ * broadcast, the policy is only fed when the level or the temperature
+ * changes. The user touches the screen every --touch-min (3) minutes until
+ * --last-touch-min (20). Other options: --idle-min=N (10, 0 for none),
+ * --plug-min=N (charging from that minute on), --no-thermal.
+ * <p/>
+ * Output is CSV, one record per line:
+ * <ul>
+ * <li> "C,minute,level,tempC,cap" for each brightness cap change.
+ * <li> "I,minute" when the idle timeout lets the screen turn off.
+ * <li> "S,key,value" for the summary: battery_events, cap_changes, final_cap.
+ * </ul>
+ */
+public class PowerPolicySimulator {
+
+    private int mMinutes = 100;
+    private int mPeakTenthsC = 540;
+    private int mPeakMin = 60;
+    private int mTouchMin = 3;
+    private int mLastTouchMin = 20;
+    private int mIdleMin = 10;
+    private int mPlugMin = -1;
+    private boolean mThermal = true;
+
+    private final PowerPolicy mPolicy = new PowerPolicy();
+
+    public void run() {
+        mPolicy.setThermalBackoff(mThermal);
+        mPolicy.setIdleTimeout(mIdleMin * 60 * 1000L);
+        mPolicy.onUserActivity(0);
+
+        int lastLevel = PowerPolicy.UNKNOWN;
+        int lastTemp = PowerPolicy.UNKNOWN;
+        boolean lastPlugged = false;
+        boolean idle = false;
+        int events = 0;
+        int changes = 0;
+
+        // One simulated second per step.
+        for (long s = 0; s <= mMinutes * 60L; s++) {
+            long nowMs = s * 1000;
+            int minute = (int) (s / 60);
+
+            if (s > 0 && mTouchMin > 0 && s % (mTouchMin * 60) == 0 && minute <= mLastTouchMin) {
+                mPolicy.onUserActivity(nowMs);
+                idle = false;
+            }
+            if (!idle && mPolicy.isIdle(nowMs)) {
+                idle = true;
+                System.out.println("I," + minute);
+            }
+
+            int level = (int) (100 - 100 * s / (mMinutes * 60L));
+            int temp = temperature(s);
+            boolean plugged = mPlugMin >= 0 && minute >= mPlugMin;
+            if (level != lastLevel || temp / 10 != lastTemp / 10 || plugged != lastPlugged) {
+                events++;
+                lastLevel = level;
+                lastTemp = temp;
+                lastPlugged = plugged;
+                if (mPolicy.setBattery(level, plugged, temp)) {
+                    changes++;
+                    System.out.println("C," + minute + "," + level + "," +
+                            temp / 10.0 + "," + mPolicy.getCap());
+                }
+            }
+        }
+
+        System.out.println("S,battery_events," + events);
+        System.out.println("S,cap_changes," + changes);
+        System.out.println("S,final_cap," + mPolicy.getCap());
+    }
+
+    /** Temperature in tenths of a degree C at that second. */
+    private int temperature(long s) {
+        long peakS = mPeakMin * 60L;
+        if (s <= peakS) {
+            return (int) (300 + (mPeakTenthsC - 300) * s / Math.max(1, peakS));
+        }
+        return (int) Math.max(300, mPeakTenthsC - 3 * (s - peakS) / 60);
+    }
+
+    public static void main(String[] args) {
+        Harness h = new Harness(args);
+        PowerPolicySimulator sim = new PowerPolicySimulator();
+        sim.mMinutes = Math.max(1, h.getInt("minutes", sim.mMinutes));
+        sim.mPeakTenthsC = (int) Math.round(10 * h.getDouble("peak-c", sim.mPeakTenthsC / 10.0));
+        sim.mPeakMin = h.getInt("peak-min", sim.mPeakMin);
+        sim.mTouchMin = h.getInt("touch-min", sim.mTouchMin);
+        sim.mLastTouchMin = h.getInt("last-touch-min", sim.mLastTouchMin);
+        sim.mIdleMin = h.getInt("idle-min", sim.mIdleMin);
+        sim.mPlugMin = h.getInt("plug-min", sim.mPlugMin);
+        sim.mThermal = !h.getFlag("no-thermal");
+        h.checkOptions();
+
+        sim.run();
+        h.exit();
+    }
+}
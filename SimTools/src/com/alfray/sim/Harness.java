@@ -0,0 +1,139 @@
+/*
+ * (c) ralfoide gmail com, 2011
+ * Project: SimTools
+ * License: GPLv3
+ */
+
+package com.alfray.sim;
+
+import java.util.ArrayList;
+
+/**
+ * Command line and result handling shared by the JVM harnesses.
+ * <p/>
+ * The harnesses live in this source root, outside of the app projects, so
+ * that they are never built into an APK. They only use the app classes that
+ * don't depend on Android. To build and run one, from the SimTools directory:
+ * <pre>
+ * $ javac -d bin -sourcepath src:../Brighteriffic/src:../Flashlight/src \
+ *      src/com/alfray/brighteriffic/sim/PolicySimulator.java
+ * $ java -cp bin com.alfray.brighteriffic.sim.PolicySimulator [options]
+ * </pre>
+ * javac only compiles the app classes the harness refers to.
+ * <p/>
+ * Options are "--name=value" or "--flag"; other arguments are positional.
+ * A harness reads all its options, then calls {@link #checkOptions()}. An
+ * unknown option or a bad value exits with 1, like a failed check.
+ */
+public class Harness {
+
+    private static final String PREFIX = "--";
+
+    private final String[] mArgs;
+    private final boolean[] mUsed;
+    private final ArrayList<String> mPositional = new ArrayList<String>();
+    private boolean mFailed;
+
+    public Harness(String[] args) {
+        mArgs = args;
+        mUsed = new boolean[args.length];
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith(PREFIX)) {
+                mPositional.add(args[i]);
+                mUsed[i] = true;
+            }
+        }
+    }
+
+    /** Returns the value of "--name=value", or def if absent. */
+    public String getString(String name, String def) {
+        String key = PREFIX + name + "=";
+        String value = def;
+        for (int i = 0; i < mArgs.length; i++) {
+            if (mArgs[i].startsWith(key)) {
+                value = mArgs[i].substring(key.length());
+                mUsed[i] = true;
+            }
+        }
+        return value;
+    }
+
+    public int getInt(String name, int def) {
+        String s = getString(name, null);
+        try {
+            return s == null ? def : Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw usage("Bad value for --" + name + ": " + s);
+        }
+    }
+
+    public long getLong(String name, long def) {
+        String s = getString(name, null);
+        try {
+            return s == null ? def : Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw usage("Bad value for --" + name + ": " + s);
+        }
+    }
+
+    public double getDouble(String name, double def) {
+        String s = getString(name, null);
+        try {
+            return s == null ? def : Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw usage("Bad value for --" + name + ": " + s);
+        }
+    }
+
+    /** Returns true if "--name" is present. */
+    public boolean getFlag(String name) {
+        String key = PREFIX + name;
+        boolean found = false;
+        for (int i = 0; i < mArgs.length; i++) {
+            if (mArgs[i].equals(key)) {
+                found = true;
+                mUsed[i] = true;
+            }
+        }
+        return found;
+    }
+
+    /** Returns the arguments that are not options, in order. */
+    public String[] getPositional() {
+        return mPositional.toArray(new String[mPositional.size()]);
+    }
+
+    /** Exits with 1 if an option wasn't read by one of the getters. */
+    public void checkOptions() {
+        for (int i = 0; i < mArgs.length; i++) {
+            if (!mUsed[i]) throw usage("Unknown option: " + mArgs[i]);
+        }
+    }
+
+    /** Prints the message and exits with 1. Declared to return so callers can throw it. */
+    public RuntimeException usage(String message) {
+        System.err.println(message);
+        System.exit(1);
+        return new IllegalArgumentException(message);
+    }
+
+    /**
+     * Records the result of a check.
+     *
+     * @return "ok", or the failure label, in which case the run fails.
+     */
+    public String check(boolean ok, String failure) {
+        if (!ok) mFailed = true;
+        return ok ? "ok" : failure;
+    }
+
+    public boolean hasFailed() {
+        return mFailed;
+    }
+
+    /** Exits with 1 if a check failed, 0 otherwise. */
+    public void exit() {
+        System.out.flush();
+        System.exit(mFailed ? 1 : 0);
+    }
+}